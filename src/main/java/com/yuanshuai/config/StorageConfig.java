@@ -19,4 +19,55 @@ public class StorageConfig {
     private String bucketName;
     private String region;
 
+    /**
+     * 秒传内容索引的存放目录，为空时不启用秒传
+     */
+    private String contentIndexDir;
+
+    /**
+     * 分片上传会话登记表的存放目录，为空时不记录会话
+     */
+    private String uploadSessionDir;
+
+    /**
+     * 分片上传会话的有效期，单位小时，超时未上传分片的会话被清理
+     */
+    private Integer uploadSessionTtlHours = 24;
+
+    /**
+     * 上传压缩使用的编码，gzip或snappy，为空时不压缩
+     */
+    private String compressionCodec;
+
+    /**
+     * 本地磁盘对象缓存的目录，放在本地ssd上，为空时不启用缓存
+     */
+    private String objectCacheDir;
+
+    /**
+     * 本地磁盘对象缓存的总大小上限，单位MB，单个对象不超过其八分之一
+     */
+    private Long objectCacheMaxSizeMb = 10240L;
+
+    /**
+     * 进程内小对象缓存的总大小上限，单位MB，为空或0时不启用
+     */
+    private Long memoryCacheMaxSizeMb;
+
+    /**
+     * 进程内小对象缓存的单个对象大小上限，单位KB，超过的对象不缓存
+     */
+    private Long memoryCacheMaxObjectSizeKb = 256L;
+
+    /**
+     * 进程内小对象缓存是否把内容存放在直接内存中，需要时调大-XX:MaxDirectMemorySize
+     */
+    private Boolean memoryCacheOffHeap = false;
+
+    /**
+     * 容器在内存中保存的上传内容大小上限，单位KB，与spring.servlet.multipart.file-size-threshold一致，
+     * 不超过的MultipartFile直接从内存上传，不转存临时文件；为空或0时全部转存
+     */
+    private Long multipartMemoryThresholdKb;
+
 }
@@ -0,0 +1,20 @@
+package com.yuanshuai.constants;
+
+/**
+ * 校验和算法，header为s3协议中携带该校验和的请求头，值为摘要的base64
+ */
+public enum ChecksumAlgorithm {
+    MD5("Content-MD5"),
+    CRC32C("x-amz-checksum-crc32c"),
+    SHA256("x-amz-checksum-sha256");
+
+    private final String header;
+
+    ChecksumAlgorithm(String header) {
+        this.header = header;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+}
@@ -1,5 +1,5 @@
 package com.yuanshuai.constants;
 
 public enum StorageType {
-    MINIO, GCS, OBS, OSS, S3
+    MINIO, GCS, OBS, OSS, S3, S3_ASYNC, S3_PRESIGNER, MINIO_ASYNC
 }
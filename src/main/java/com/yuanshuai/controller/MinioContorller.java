@@ -2,15 +2,26 @@ package com.yuanshuai.controller;
 
 
 import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.StrUtil;
 import cn.hutool.core.util.URLUtil;
 import com.yuanshuai.api.CommonResult;
 import com.yuanshuai.config.StorageConfig;
 import com.yuanshuai.constants.StorageType;
+import com.yuanshuai.domain.DirectoryTransferResult;
 import com.yuanshuai.domain.FileInfo;
 import com.yuanshuai.domain.ListResult;
+import com.yuanshuai.domain.PackEntry;
 import com.yuanshuai.factory.StorageClientFactory;
 import com.yuanshuai.factory.StorageUtilsFactory;
+import com.yuanshuai.interfaces.RangeSource;
+import com.yuanshuai.utils.CompressionCodec;
+import com.yuanshuai.utils.CompressionPolicy;
+import com.yuanshuai.utils.ContentIndex;
+import com.yuanshuai.utils.MemoryObjectCache;
 import com.yuanshuai.utils.MinioTool;
+import com.yuanshuai.utils.MultipartFormReader;
+import com.yuanshuai.utils.ObjectCache;
+import com.yuanshuai.utils.UploadSessionRegistry;
 import io.minio.MinioClient;
 import io.minio.StatObjectResponse;
 import org.springframework.web.bind.annotation.*;
@@ -22,6 +33,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/minio")
@@ -34,6 +47,49 @@ public class MinioContorller {
         this.storageConfig = storageConfig;
         MinioClient client = StorageClientFactory.createClient(StorageType.MINIO, storageConfig);
         this.utils = StorageUtilsFactory.createUtils(StorageType.MINIO, client);
+        utils.setAsyncClient(StorageClientFactory.createClient(StorageType.MINIO_ASYNC, storageConfig));
+        if (StrUtil.isNotEmpty(storageConfig.getContentIndexDir())) {
+            try {
+                utils.setContentIndex(ContentIndex.open(storageConfig.getContentIndexDir() + "/minio-content.index"));
+            } catch (IOException e) {
+                throw new RuntimeException("无法打开内容索引", e);
+            }
+        }
+        if (StrUtil.isNotEmpty(storageConfig.getUploadSessionDir())) {
+            try {
+                utils.setUploadSessionRegistry(UploadSessionRegistry.open(storageConfig.getUploadSessionDir() + "/minio-session.index",
+                        TimeUnit.HOURS.toMillis(storageConfig.getUploadSessionTtlHours())));
+            } catch (IOException e) {
+                throw new RuntimeException("无法打开上传会话登记表", e);
+            }
+        }
+        if (StrUtil.isNotEmpty(storageConfig.getCompressionCodec())) {
+            CompressionCodec codec = CompressionCodec.of(storageConfig.getCompressionCodec());
+            if (codec == null) {
+                throw new IllegalArgumentException("不支持的压缩编码: " + storageConfig.getCompressionCodec());
+            }
+            utils.setCompression(new CompressionPolicy(codec));
+        }
+        RangeSource cacheSource = utils;
+        if (StrUtil.isNotEmpty(storageConfig.getObjectCacheDir())) {
+            try {
+                ObjectCache objectCache = ObjectCache.open(cacheSource, storageConfig.getObjectCacheDir() + "/minio",
+                        storageConfig.getObjectCacheMaxSizeMb() * 1024 * 1024);
+                utils.setObjectCache(objectCache);
+                cacheSource = objectCache;
+            } catch (IOException e) {
+                throw new RuntimeException("无法打开对象缓存", e);
+            }
+        }
+        if (storageConfig.getMemoryCacheMaxSizeMb() != null && storageConfig.getMemoryCacheMaxSizeMb() > 0) {
+            // 内存缓存未命中时读磁盘缓存
+            utils.setMemoryCache(new MemoryObjectCache(cacheSource, storageConfig.getMemoryCacheMaxSizeMb() * 1024 * 1024,
+                    storageConfig.getMemoryCacheMaxObjectSizeKb() * 1024, MemoryObjectCache.DEFAULT_REVALIDATE_TTL,
+                    Boolean.TRUE.equals(storageConfig.getMemoryCacheOffHeap())));
+        }
+        if (storageConfig.getMultipartMemoryThresholdKb() != null && storageConfig.getMultipartMemoryThresholdKb() > 0) {
+            utils.setMultipartMemoryThreshold(storageConfig.getMultipartMemoryThresholdKb() * 1024);
+        }
     }
 
     // 查询桶是否存在
@@ -226,6 +282,40 @@ public class MinioContorller {
         Boolean result = utils.composeMultipartUpload(fileInfo, MD5);
         return result ? CommonResult.success(result) : CommonResult.failed(result);
     }
+
+    /**
+     * 原生分片上传，不产生临时分片对象
+     * native/getUploadId -> createMinioFileInfo(uploadId取返回的uploadId) -> native/multipartUpload -> native/composeMultipartUpload
+     */
+    @GetMapping("/native/getUploadId")
+    public CommonResult<Map<String, String>> getNativeUploadId(@RequestParam(value = "bucketName") String bucketName,
+                                                                @RequestParam(value = "objectName") String objectName) {
+        Map<String, String> uploadId = utils.getNativeUploadId(bucketName, objectName);
+        return uploadId.isEmpty() ? CommonResult.failed(uploadId) : CommonResult.success(uploadId);
+    }
+
+    @PostMapping("/native/multipartUpload")
+    public CommonResult<Boolean> nativeMultipartUpload(@RequestPart(value = "fileInfo") FileInfo fileInfo,
+                                                       @RequestPart(value = "files") List<MultipartFile> files,
+                                                       @RequestParam(value = "MD5") Boolean MD5) {
+        Boolean result = utils.nativeMultipartUpload(fileInfo, files, MD5);
+        return result ? CommonResult.success(result) : CommonResult.failed(result);
+    }
+
+    @PostMapping("/native/composeMultipartUpload")
+    public CommonResult<Boolean> nativeComposeMultipartUpload(@RequestPart(value = "fileInfo") FileInfo fileInfo,
+                                                              @RequestParam(value = "MD5") Boolean MD5) {
+        Boolean result = utils.nativeComposeMultipartUpload(fileInfo, MD5);
+        return result ? CommonResult.success(result) : CommonResult.failed(result);
+    }
+
+    @PostMapping("/native/abortMultipartUpload")
+    public CommonResult<Boolean> abortMultipartUpload(@RequestParam(value = "bucketName") String bucketName,
+                                                      @RequestParam(value = "objectName") String objectName,
+                                                      @RequestParam(value = "uploadId") String uploadId) {
+        Boolean result = utils.abortMultipartUpload(bucketName, objectName, uploadId);
+        return result ? CommonResult.success(result) : CommonResult.failed(result);
+    }
     // deleteObjectList
     @PostMapping("/deleteObjectList")
     public CommonResult<Boolean> deleteObjectList(@RequestParam(value = "bucketName") String bucketName,
@@ -241,6 +331,88 @@ public class MinioContorller {
         utils.checkpointDownload(bucketName, objectName,request, response);
     }
 
+    // 下载文件
+    @GetMapping("/downloadFile")
+    public void downloadFile(@RequestParam(value = "bucketName") String bucketName,
+                            @RequestParam(value = "objectName") String objectName,
+                             HttpServletRequest request, HttpServletResponse response) {
+        utils.downloadFile(bucketName, objectName, request, response);
+    }
+
+    // 流式上传，直接解析请求体，不经过MultipartFile，不受multipart大小限制
+    @PostMapping("/streamUpload/{bucketName}")
+    public CommonResult<List<ListResult>> streamUpload(@PathVariable(value = "bucketName") String bucketName,
+                                                       HttpServletRequest request) {
+        if (!MultipartFormReader.isMultipart(request)) {
+            return CommonResult.failed("请求不是multipart/form-data", null);
+        }
+        List<ListResult> results = utils.streamUpload(bucketName, request);
+        return !results.isEmpty() && results.stream().allMatch(ListResult::getIsSuccess) ? CommonResult.success(results) : CommonResult.failed(results);
+    }
+
+    // 批量生成预签名下载url，客户端直接从对象存储下载
+    @PostMapping("/presignGetUrls")
+    public CommonResult<Map<String, String>> presignGetUrls(@RequestParam(value = "bucketName") String bucketName,
+                                                            @RequestParam(value = "expireSeconds", defaultValue = "3600") Integer expireSeconds,
+                                                            @RequestBody List<String> objectNames) {
+        Map<String, String> urls = utils.presignGetUrls(bucketName, objectNames, expireSeconds);
+        return urls.values().stream().allMatch(Objects::nonNull) ? CommonResult.success(urls) : CommonResult.failed(urls);
+    }
+
+    // 批量生成预签名上传url，客户端直接PUT到对象存储
+    @PostMapping("/presignPutUrls")
+    public CommonResult<Map<String, String>> presignPutUrls(@RequestParam(value = "bucketName") String bucketName,
+                                                            @RequestParam(value = "expireSeconds", defaultValue = "3600") Integer expireSeconds,
+                                                            @RequestBody List<String> objectNames) {
+        Map<String, String> urls = utils.presignPutUrls(bucketName, objectNames, expireSeconds);
+        return urls.values().stream().allMatch(Objects::nonNull) ? CommonResult.success(urls) : CommonResult.failed(urls);
+    }
+
+    // 生成分片上传各分片的预签名url
+    @GetMapping("/presignUploadPartUrls")
+    public CommonResult<List<String>> presignUploadPartUrls(@RequestParam(value = "bucketName") String bucketName,
+                                                            @RequestParam(value = "objectName") String objectName,
+                                                            @RequestParam(value = "uploadId") String uploadId,
+                                                            @RequestParam(value = "partCount") Integer partCount,
+                                                            @RequestParam(value = "expireSeconds", defaultValue = "3600") Integer expireSeconds) {
+        List<String> urls = utils.presignUploadPartUrls(bucketName, objectName, uploadId, partCount, expireSeconds);
+        return urls.stream().allMatch(Objects::nonNull) ? CommonResult.success(urls) : CommonResult.failed(urls);
+    }
+
+    // 小文件打包上传
+    @PostMapping("/uploadPack")
+    public CommonResult<List<PackEntry>> uploadPack(@RequestParam(value = "bucketName") String bucketName,
+                                                    @RequestParam(value = "objectName") String objectName,
+                                                    @RequestPart(value = "files") List<MultipartFile> files) {
+        List<PackEntry> entries = utils.uploadPack(bucketName, objectName, files);
+        return entries != null ? CommonResult.success(entries) : CommonResult.failed(entries);
+    }
+
+    // 打包对象的条目列表，单个条目用pack://打包对象名#条目名称作为objectName下载
+    @GetMapping("/listPackEntries")
+    public CommonResult<List<PackEntry>> listPackEntries(@RequestParam(value = "bucketName") String bucketName,
+                                                         @RequestParam(value = "objectName") String objectName) {
+        return CommonResult.success(utils.listPackEntries(bucketName, objectName));
+    }
+
+    // 上传目录
+    @PostMapping("/uploadDirectory")
+    public CommonResult<DirectoryTransferResult> uploadDirectory(@RequestParam(value = "bucketName") String bucketName,
+                                                                 @RequestParam(value = "prefix") String prefix,
+                                                                 @RequestParam(value = "directory") String directory) {
+        DirectoryTransferResult result = utils.uploadDirectory(bucketName, prefix, directory);
+        return result != null && result.getFailedNum() == 0 ? CommonResult.success(result) : CommonResult.failed(result);
+    }
+
+    // 下载目录
+    @PostMapping("/downloadDirectory")
+    public CommonResult<DirectoryTransferResult> downloadDirectory(@RequestParam(value = "bucketName") String bucketName,
+                                                                   @RequestParam(value = "prefix") String prefix,
+                                                                   @RequestParam(value = "directory") String directory) {
+        DirectoryTransferResult result = utils.downloadDirectory(bucketName, prefix, directory);
+        return result != null && result.getFailedNum() == 0 ? CommonResult.success(result) : CommonResult.failed(result);
+    }
+
     public static void main(String[] args) {
         // 获取url编码后的路径
         String encodeFilePath = URLUtil.encode("C:\\Users\\54915\\Desktop\\14.bin", CharsetUtil.CHARSET_UTF_8);
@@ -2,6 +2,7 @@ package com.yuanshuai.controller;
 
 
 import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.StrUtil;
 import cn.hutool.core.util.URLUtil;
 import com.obs.services.ObsClient;
 import com.obs.services.model.ObjectMetadata;
@@ -10,10 +11,18 @@ import com.obs.services.model.ObsObject;
 import com.yuanshuai.api.CommonResult;
 import com.yuanshuai.config.StorageConfig;
 import com.yuanshuai.constants.StorageType;
+import com.yuanshuai.domain.DirectoryTransferResult;
 import com.yuanshuai.domain.FileInfo;
 import com.yuanshuai.domain.ListResult;
+import com.yuanshuai.domain.PackEntry;
 import com.yuanshuai.factory.StorageClientFactory;
 import com.yuanshuai.factory.StorageUtilsFactory;
+import com.yuanshuai.interfaces.RangeSource;
+import com.yuanshuai.utils.CompressionCodec;
+import com.yuanshuai.utils.CompressionPolicy;
+import com.yuanshuai.utils.MemoryObjectCache;
+import com.yuanshuai.utils.MultipartFormReader;
+import com.yuanshuai.utils.ObjectCache;
 import com.yuanshuai.utils.OBSTool;
 import com.yuanshuai.utils.S3Tool;
 import org.springframework.web.bind.annotation.*;
@@ -28,6 +37,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 @RestController
@@ -41,6 +51,33 @@ public class OBSContorller {
         this.storageConfig = storageConfig;
         ObsClient client = StorageClientFactory.createClient(StorageType.OBS, storageConfig);
         this.utils = StorageUtilsFactory.createUtils(StorageType.OBS, client);
+        if (StrUtil.isNotEmpty(storageConfig.getCompressionCodec())) {
+            CompressionCodec codec = CompressionCodec.of(storageConfig.getCompressionCodec());
+            if (codec == null) {
+                throw new IllegalArgumentException("不支持的压缩编码: " + storageConfig.getCompressionCodec());
+            }
+            utils.setCompression(new CompressionPolicy(codec));
+        }
+        RangeSource cacheSource = utils;
+        if (StrUtil.isNotEmpty(storageConfig.getObjectCacheDir())) {
+            try {
+                ObjectCache objectCache = ObjectCache.open(cacheSource, storageConfig.getObjectCacheDir() + "/obs",
+                        storageConfig.getObjectCacheMaxSizeMb() * 1024 * 1024);
+                utils.setObjectCache(objectCache);
+                cacheSource = objectCache;
+            } catch (IOException e) {
+                throw new RuntimeException("无法打开对象缓存", e);
+            }
+        }
+        if (storageConfig.getMemoryCacheMaxSizeMb() != null && storageConfig.getMemoryCacheMaxSizeMb() > 0) {
+            // 内存缓存未命中时读磁盘缓存
+            utils.setMemoryCache(new MemoryObjectCache(cacheSource, storageConfig.getMemoryCacheMaxSizeMb() * 1024 * 1024,
+                    storageConfig.getMemoryCacheMaxObjectSizeKb() * 1024, MemoryObjectCache.DEFAULT_REVALIDATE_TTL,
+                    Boolean.TRUE.equals(storageConfig.getMemoryCacheOffHeap())));
+        }
+        if (storageConfig.getMultipartMemoryThresholdKb() != null && storageConfig.getMultipartMemoryThresholdKb() > 0) {
+            utils.setMultipartMemoryThreshold(storageConfig.getMultipartMemoryThresholdKb() * 1024);
+        }
     }
 
     /**
@@ -71,4 +108,86 @@ public class OBSContorller {
         Boolean result = utils.completeMultipartUpload(obsFileInfo);
         return result ? CommonResult.success(result) : CommonResult.failed(result);
     }
+
+    // 下载文件
+    @GetMapping("/downloadFile")
+    public void downloadFile(@RequestParam(value = "bucketName") String bucketName,
+                            @RequestParam(value = "objectName") String objectName,
+                             HttpServletRequest request, HttpServletResponse response) {
+        utils.downloadFile(bucketName, objectName, request, response);
+    }
+
+    // 流式上传，直接解析请求体，不经过MultipartFile，不受multipart大小限制
+    @PostMapping("/streamUpload/{bucketName}")
+    public CommonResult<List<ListResult>> streamUpload(@PathVariable(value = "bucketName") String bucketName,
+                                                       HttpServletRequest request) {
+        if (!MultipartFormReader.isMultipart(request)) {
+            return CommonResult.failed("请求不是multipart/form-data", null);
+        }
+        List<ListResult> results = utils.streamUpload(bucketName, request);
+        return !results.isEmpty() && results.stream().allMatch(ListResult::getIsSuccess) ? CommonResult.success(results) : CommonResult.failed(results);
+    }
+
+    // 批量生成预签名下载url，客户端直接从对象存储下载
+    @PostMapping("/presignGetUrls")
+    public CommonResult<Map<String, String>> presignGetUrls(@RequestParam(value = "bucketName") String bucketName,
+                                                            @RequestParam(value = "expireSeconds", defaultValue = "3600") Integer expireSeconds,
+                                                            @RequestBody List<String> objectNames) {
+        Map<String, String> urls = utils.presignGetUrls(bucketName, objectNames, expireSeconds);
+        return urls.values().stream().allMatch(Objects::nonNull) ? CommonResult.success(urls) : CommonResult.failed(urls);
+    }
+
+    // 批量生成预签名上传url，客户端直接PUT到对象存储
+    @PostMapping("/presignPutUrls")
+    public CommonResult<Map<String, String>> presignPutUrls(@RequestParam(value = "bucketName") String bucketName,
+                                                            @RequestParam(value = "expireSeconds", defaultValue = "3600") Integer expireSeconds,
+                                                            @RequestBody List<String> objectNames) {
+        Map<String, String> urls = utils.presignPutUrls(bucketName, objectNames, expireSeconds);
+        return urls.values().stream().allMatch(Objects::nonNull) ? CommonResult.success(urls) : CommonResult.failed(urls);
+    }
+
+    // 生成分片上传各分片的预签名url
+    @GetMapping("/presignUploadPartUrls")
+    public CommonResult<List<String>> presignUploadPartUrls(@RequestParam(value = "bucketName") String bucketName,
+                                                            @RequestParam(value = "objectName") String objectName,
+                                                            @RequestParam(value = "uploadId") String uploadId,
+                                                            @RequestParam(value = "partCount") Integer partCount,
+                                                            @RequestParam(value = "expireSeconds", defaultValue = "3600") Integer expireSeconds) {
+        List<String> urls = utils.presignUploadPartUrls(bucketName, objectName, uploadId, partCount, expireSeconds);
+        return urls.stream().allMatch(Objects::nonNull) ? CommonResult.success(urls) : CommonResult.failed(urls);
+    }
+
+    // 小文件打包上传
+    @PostMapping("/uploadPack")
+    public CommonResult<List<PackEntry>> uploadPack(@RequestParam(value = "bucketName") String bucketName,
+                                                    @RequestParam(value = "objectName") String objectName,
+                                                    @RequestPart(value = "files") List<MultipartFile> files) {
+        List<PackEntry> entries = utils.uploadPack(bucketName, objectName, files);
+        return entries != null ? CommonResult.success(entries) : CommonResult.failed(entries);
+    }
+
+    // 打包对象的条目列表，单个条目用pack://打包对象名#条目名称作为objectName下载
+    @GetMapping("/listPackEntries")
+    public CommonResult<List<PackEntry>> listPackEntries(@RequestParam(value = "bucketName") String bucketName,
+                                                         @RequestParam(value = "objectName") String objectName) {
+        return CommonResult.success(utils.listPackEntries(bucketName, objectName));
+    }
+
+    // 上传目录
+    @PostMapping("/uploadDirectory")
+    public CommonResult<DirectoryTransferResult> uploadDirectory(@RequestParam(value = "bucketName") String bucketName,
+                                                                 @RequestParam(value = "prefix") String prefix,
+                                                                 @RequestParam(value = "directory") String directory) {
+        DirectoryTransferResult result = utils.uploadDirectory(bucketName, prefix, directory);
+        return result != null && result.getFailedNum() == 0 ? CommonResult.success(result) : CommonResult.failed(result);
+    }
+
+    // 下载目录
+    @PostMapping("/downloadDirectory")
+    public CommonResult<DirectoryTransferResult> downloadDirectory(@RequestParam(value = "bucketName") String bucketName,
+                                                                   @RequestParam(value = "prefix") String prefix,
+                                                                   @RequestParam(value = "directory") String directory) {
+        DirectoryTransferResult result = utils.downloadDirectory(bucketName, prefix, directory);
+        return result != null && result.getFailedNum() == 0 ? CommonResult.success(result) : CommonResult.failed(result);
+    }
 }
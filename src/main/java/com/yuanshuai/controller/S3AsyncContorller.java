@@ -0,0 +1,98 @@
+package com.yuanshuai.controller;
+
+
+import com.yuanshuai.api.CommonResult;
+import com.yuanshuai.config.StorageConfig;
+import com.yuanshuai.constants.StorageType;
+import com.yuanshuai.factory.StorageClientFactory;
+import com.yuanshuai.factory.StorageUtilsFactory;
+import com.yuanshuai.utils.S3AsyncTool;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * s3异步接口，返回CompletableFuture，spring mvc以异步请求处理，等待s3响应期间不占用tomcat线程
+ */
+@RestController
+@RequestMapping("/s3async")
+public class S3AsyncContorller {
+
+    private final S3AsyncTool utils;
+
+    public S3AsyncContorller(StorageConfig storageConfig) {
+        S3AsyncClient client = StorageClientFactory.createClient(StorageType.S3_ASYNC, storageConfig);
+        this.utils = StorageUtilsFactory.createUtils(StorageType.S3_ASYNC, client);
+    }
+
+    // 查询桶是否存在
+    @GetMapping("/bucketExists")
+    public CompletableFuture<CommonResult<Boolean>> bucketExists(@RequestParam(value = "bucketName") String bucketName) {
+        return utils.isBucketExists(bucketName)
+                .thenApply(result -> result ? CommonResult.success(result) : CommonResult.failed(result));
+    }
+
+    // 列出桶
+    @GetMapping("/listBuckets")
+    public CompletableFuture<CommonResult<List<String>>> listBuckets() {
+        return utils.listBuckets().thenApply(CommonResult::success);
+    }
+
+    // 判断对象是否存在
+    @GetMapping("/isObjectExists")
+    public CompletableFuture<CommonResult<Boolean>> isObjectExists(@RequestParam(value = "bucketName") String bucketName,
+                                                                   @RequestParam(value = "objectName") String objectName) {
+        return utils.isObjectExists(bucketName, objectName)
+                .thenApply(result -> result ? CommonResult.success(result) : CommonResult.failed(result));
+    }
+
+    // 列出对象
+    @GetMapping("/listObjects")
+    public CompletableFuture<CommonResult<List<String>>> listObjects(@RequestParam(value = "bucketName") String bucketName,
+                                                                     @RequestParam(value = "prefix", required = false) String prefix) {
+        return utils.listObjects(bucketName, prefix)
+                .thenApply(objects -> CommonResult.success(objects.stream().map(S3Object::key).collect(Collectors.toList())));
+    }
+
+    // 删除对象
+    @PostMapping("/deleteObjects")
+    public CompletableFuture<CommonResult<Boolean>> deleteObject(@RequestParam(value = "bucketName") String bucketName,
+                                                                 @RequestBody List<String> objectNames) {
+        return utils.deleteObject(bucketName, objectNames)
+                .thenApply(result -> result ? CommonResult.success(result) : CommonResult.failed(result));
+    }
+
+    // 复制文件
+    @PostMapping("/copyObject")
+    public CompletableFuture<CommonResult<Boolean>> copyObject(@RequestParam(value = "bucketName") String bucketName,
+                                                               @RequestParam(value = "objectName") String objectName,
+                                                               @RequestParam(value = "destBucketName") String destBucketName,
+                                                               @RequestParam(value = "destObjectName") String destObjectName) {
+        return utils.copyObject(bucketName, objectName, destBucketName, destObjectName)
+                .thenApply(result -> result ? CommonResult.success(result) : CommonResult.failed(result));
+    }
+
+    // 上传文件
+    @PostMapping("/uploadFile")
+    public CompletableFuture<CommonResult<String>> uploadFile(@RequestParam(value = "bucketName") String bucketName,
+                                                              @RequestParam(value = "objectName") String objectName,
+                                                              @RequestPart(value = "file") MultipartFile file) {
+        return utils.uploadFile(bucketName, objectName, file)
+                .thenApply(result -> result ? CommonResult.success(objectName) : CommonResult.failed(objectName));
+    }
+
+    // 下载文件
+    @GetMapping("/downloadFile")
+    public void downloadFile(@RequestParam(value = "bucketName") String bucketName,
+                             @RequestParam(value = "objectName") String objectName,
+                             HttpServletRequest request, HttpServletResponse response) {
+        utils.downloadFile(bucketName, objectName, request, response);
+    }
+}
@@ -0,0 +1,53 @@
+package com.yuanshuai.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CacheEntry {
+
+    /**
+     * 桶名称
+     */
+    private String bucketName;
+
+    /**
+     * 对象名称
+     */
+    private String objectName;
+
+    /**
+     * 缓存时对象的etag
+     */
+    private String etag;
+
+    /**
+     * 对象大小，单位字节
+     */
+    private Long size;
+
+    /**
+     * 对象的最后修改时间，毫秒时间戳
+     */
+    private Long lastModified;
+
+    /**
+     * 对象的用户元数据
+     */
+    private Map<String, String> userMetadata;
+
+    /**
+     * 缓存目录下的文件名
+     */
+    private String fileName;
+
+    /**
+     * 最近一次与服务端比对etag的时间，毫秒时间戳，重启后为0
+     */
+    private Long validatedAt;
+}
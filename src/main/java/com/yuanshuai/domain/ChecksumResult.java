@@ -0,0 +1,58 @@
+package com.yuanshuai.domain;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.HexUtil;
+import com.yuanshuai.constants.ChecksumAlgorithm;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChecksumResult {
+
+    /**
+     * 计算的内容长度，单位字节
+     */
+    private Long size;
+
+    /**
+     * md5，十六进制，未计算时为空
+     */
+    private String md5;
+
+    /**
+     * crc32c，大端序的十六进制，未计算时为空
+     */
+    private String crc32c;
+
+    /**
+     * sha256，十六进制，未计算时为空
+     */
+    private String sha256;
+
+    /**
+     * 指定算法的十六进制摘要，未计算时为null
+     */
+    public String hex(ChecksumAlgorithm algorithm) {
+        switch (algorithm) {
+            case MD5:
+                return md5;
+            case CRC32C:
+                return crc32c;
+            case SHA256:
+                return sha256;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 指定算法在请求头中使用的base64值，未计算时为null
+     */
+    public String base64(ChecksumAlgorithm algorithm) {
+        String hex = hex(algorithm);
+        return hex == null ? null : Base64.encode(HexUtil.decodeHex(hex));
+    }
+}
@@ -0,0 +1,41 @@
+package com.yuanshuai.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ContentLocation {
+
+    /**
+     * 桶名称
+     */
+    private String bucketName;
+
+    /**
+     * 对象名称
+     */
+    private String objectName;
+
+    /**
+     * 文件大小，单位字节
+     */
+    private Long size;
+
+    /**
+     * 记录时对象的etag，使用前与服务端比对，不一致说明对象已被覆盖
+     */
+    private String etag;
+
+    /**
+     * 文件md5，分片上传合并的对象可能为空
+     */
+    private String fileMd5;
+
+    /**
+     * 记录时间，毫秒
+     */
+    private Long createTime;
+}
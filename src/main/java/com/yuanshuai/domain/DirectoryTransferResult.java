@@ -0,0 +1,53 @@
+package com.yuanshuai.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DirectoryTransferResult {
+
+    /**
+     * 文件总数
+     */
+    private Integer totalNum;
+
+    /**
+     * 成功数
+     */
+    private Integer successNum;
+
+    /**
+     * 失败数
+     */
+    private Integer failedNum;
+
+    /**
+     * 成功传输的字节数
+     */
+    private Long totalBytes;
+
+    /**
+     * 总耗时，单位毫秒
+     */
+    private Long costMillis;
+
+    /**
+     * 吞吐量，单位字节/秒
+     */
+    private Double bytesPerSecond;
+
+    /**
+     * 吞吐量，单位文件数/秒
+     */
+    private Double filesPerSecond;
+
+    /**
+     * 每个文件的传输结果
+     */
+    private List<FileTransferResult> files;
+}
@@ -0,0 +1,44 @@
+package com.yuanshuai.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DownloadCheckpoint {
+
+    /**
+     * 桶名称
+     */
+    private String bucketName;
+
+    /**
+     * 文件名称
+     */
+    private String objectName;
+
+    /**
+     * 开始下载时对象的etag，不含引号，对象被覆盖后断点失效
+     */
+    private String etag;
+
+    /**
+     * 对象大小，单位字节
+     */
+    private Long size;
+
+    /**
+     * 区间大小，单位字节
+     */
+    private Long partSize;
+
+    /**
+     * 已下载的区间，区间序号（从1开始） -> 区间内容md5
+     */
+    private Map<String, String> parts = new HashMap<>();
+}
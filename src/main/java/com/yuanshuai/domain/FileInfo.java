@@ -61,6 +61,11 @@ public class FileInfo {
          * 当前分片
          */
         private String currentNum;
+
+        /**
+         * 分片crc32c，十六进制，提供时优先用于分片校验
+         */
+        private String partCrc32c;
     }
 
 }
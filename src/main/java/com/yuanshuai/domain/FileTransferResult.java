@@ -0,0 +1,41 @@
+package com.yuanshuai.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FileTransferResult {
+
+    /**
+     * 本地文件路径
+     */
+    private String localPath;
+
+    /**
+     * 对象名
+     */
+    private String objectName;
+
+    /**
+     * 文件大小，单位字节
+     */
+    private Long size;
+
+    /**
+     * 是否传输成功
+     */
+    private Boolean isSuccess;
+
+    /**
+     * 失败原因
+     */
+    private String message;
+
+    /**
+     * 耗时，单位毫秒
+     */
+    private Long costMillis;
+}
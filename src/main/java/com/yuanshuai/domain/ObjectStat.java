@@ -0,0 +1,33 @@
+package com.yuanshuai.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ObjectStat {
+
+    /**
+     * 对象大小，单位字节
+     */
+    private Long size;
+
+    /**
+     * 对象的etag，不含引号
+     */
+    private String etag;
+
+    /**
+     * 最后修改时间，毫秒时间戳，未知时为null
+     */
+    private Long lastModified;
+
+    /**
+     * 用户元数据，键的大小写与各sdk返回的一致
+     */
+    private Map<String, String> userMetadata;
+}
@@ -0,0 +1,31 @@
+package com.yuanshuai.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PackEntry {
+
+    /**
+     * 条目名称，在同一个打包对象中唯一
+     */
+    private String name;
+
+    /**
+     * 条目内容在打包对象中的起始位置，单位字节
+     */
+    private Long offset;
+
+    /**
+     * 条目内容的长度，单位字节
+     */
+    private Long length;
+
+    /**
+     * 条目内容的md5
+     */
+    private String md5;
+}
@@ -0,0 +1,31 @@
+package com.yuanshuai.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PartResult {
+
+    /**
+     * 分片序号
+     */
+    private Integer partNumber;
+
+    /**
+     * 分片上传后返回的etag
+     */
+    private String etag;
+
+    /**
+     * 是否上传成功
+     */
+    private Boolean isSuccess;
+
+    /**
+     * 失败原因
+     */
+    private String message;
+}
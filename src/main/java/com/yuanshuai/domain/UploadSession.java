@@ -0,0 +1,55 @@
+package com.yuanshuai.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UploadSession {
+
+    /**
+     * 上传id
+     */
+    private String uploadId;
+
+    /**
+     * 会话类型，原生分片上传为multipart，临时分片对象合并为tmpParts
+     */
+    private String type;
+
+    /**
+     * 桶名称
+     */
+    private String bucketName;
+
+    /**
+     * 文件名称
+     */
+    private String objectName;
+
+    /**
+     * 临时分片对象的存放路径，仅tmpParts类型使用
+     */
+    private String tmpPath;
+
+    /**
+     * 已上传的分片，分片序号 -> etag或分片md5
+     * 登记表中的分片单独保存，通过UploadSessionRegistry.getParts读取，这里只用于读取旧版本的记录
+     */
+    private Map<String, String> parts = new HashMap<>();
+
+    /**
+     * 创建时间，毫秒
+     */
+    private Long createTime;
+
+    /**
+     * 最后一次上传分片的时间，毫秒，超过有效期未更新的会话由清理任务取消
+     */
+    private Long updateTime;
+}
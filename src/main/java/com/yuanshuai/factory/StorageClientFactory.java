@@ -7,6 +7,7 @@ import com.google.cloud.storage.StorageOptions;
 import com.yuanshuai.config.StorageConfig;
 import com.yuanshuai.constants.StorageType;
 import com.yuanshuai.interfaces.StorageClientBuilder;
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
 import com.obs.services.ObsClient;
 import com.obs.services.ObsConfiguration;
@@ -16,9 +17,13 @@ import com.aliyun.oss.OSSClientBuilder;
 import com.aliyun.oss.common.auth.DefaultCredentialProvider;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 
 import java.io.FileInputStream;
@@ -36,6 +41,8 @@ public class StorageClientFactory {
         switch (type) {
             case MINIO:
                 return (T) minioBuilder.buildClient(config, (MinioClient.Builder) clientConfig);
+            case MINIO_ASYNC:
+                return (T) minioAsyncBuilder.buildClient(config, (MinioAsyncClient.Builder) clientConfig);
             case GCS:
                 return (T) gcsBuilder.buildClient(config, (String) clientConfig);
             case OBS:
@@ -44,6 +51,10 @@ public class StorageClientFactory {
                 return (T) ossBuilder.buildClient(config, (ClientBuilderConfiguration) clientConfig);
             case S3:
                 return (T) s3Builder.buildClient(config, (S3ClientBuilder) clientConfig);
+            case S3_ASYNC:
+                return (T) s3AsyncBuilder.buildClient(config, (S3AsyncClientBuilder) clientConfig);
+            case S3_PRESIGNER:
+                return (T) s3PresignerBuilder.buildClient(config, (S3Presigner.Builder) clientConfig);
             default:
                 throw new IllegalArgumentException("不支持的存储类型: " + type);
         }
@@ -79,6 +90,21 @@ public class StorageClientFactory {
         }
     };
 
+    /**
+     * minio异步客户端，与minio客户端使用相同的端点和凭证，供原生分片上传使用
+     */
+    private static final StorageClientBuilder<MinioAsyncClient, MinioAsyncClient.Builder> minioAsyncBuilder = (config, clientConfig) -> {
+        try {
+            MinioAsyncClient.Builder builder = (clientConfig != null) ? clientConfig : MinioAsyncClient.builder();
+            return builder
+                    .endpoint(config.getEndpoint())
+                    .credentials(config.getAccessKey(), config.getSecretKey())
+                    .build();
+        } catch (Exception e) {
+            throw new RuntimeException("创建Minio异步客户端失败", e);
+        }
+    };
+
     private static final StorageClientBuilder<Storage, String> gcsBuilder = (config, clientConfig) -> {
         if (clientConfig == null) {
             throw new IllegalArgumentException("必须指定谷歌云存储客户端的json文件路径，如果不指定请用s3代替");
@@ -136,7 +162,47 @@ public class StorageClientFactory {
         }
     };
 
+    /**
+     * s3异步客户端，基于netty非阻塞IO，少量线程即可驱动大量并发请求
+     * 不指定clientConfig时连接池上限为S3_ASYNC_MAX_CONCURRENCY
+     */
+    private static final int S3_ASYNC_MAX_CONCURRENCY = 1000;
 
-}
+    private static final StorageClientBuilder<S3AsyncClient, S3AsyncClientBuilder> s3AsyncBuilder = (config, clientConfig) -> {
+        try {
+            Region region = Region.of(config.getRegion());
+            AwsBasicCredentials awsCreds = AwsBasicCredentials.create(config.getAccessKey(), config.getSecretKey());
+            URI endpointuri = URI.create(config.getEndpoint());
+            S3AsyncClientBuilder builder = (clientConfig != null) ? clientConfig : S3AsyncClient.builder()
+                    .httpClientBuilder(NettyNioAsyncHttpClient.builder().maxConcurrency(S3_ASYNC_MAX_CONCURRENCY));
+            return builder
+                    .region(region)
+                    .credentialsProvider(StaticCredentialsProvider.create(awsCreds))
+                    .endpointOverride(endpointuri)
+                    .build();
+        } catch (Exception e) {
+            throw new RuntimeException("创建S3异步客户端失败", e);
+        }
+    };
+
+    /**
+     * s3预签名器，只在本地计算签名，不发起请求，与s3客户端使用相同的端点和凭证
+     */
+    private static final StorageClientBuilder<S3Presigner, S3Presigner.Builder> s3PresignerBuilder = (config, clientConfig) -> {
+        try {
+            Region region = Region.of(config.getRegion());
+            AwsBasicCredentials awsCreds = AwsBasicCredentials.create(config.getAccessKey(), config.getSecretKey());
+            URI endpointuri = URI.create(config.getEndpoint());
+            S3Presigner.Builder builder = (clientConfig != null) ? clientConfig : S3Presigner.builder();
+            return builder
+                    .region(region)
+                    .credentialsProvider(StaticCredentialsProvider.create(awsCreds))
+                    .endpointOverride(endpointuri)
+                    .build();
+        } catch (Exception e) {
+            throw new RuntimeException("创建S3预签名器失败", e);
+        }
+    };
 
 
+}
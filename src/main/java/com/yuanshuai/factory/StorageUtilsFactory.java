@@ -7,6 +7,7 @@ import com.yuanshuai.constants.StorageType;
 import com.yuanshuai.interfaces.StorageUtilsBuilder;
 import com.yuanshuai.utils.*;
 import io.minio.MinioClient;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 
 import java.util.HashMap;
@@ -33,6 +34,9 @@ public class StorageUtilsFactory {
 
         // 注册 S3 工具构建器
         builders.put(StorageType.S3, (StorageUtilsBuilder<S3Tool, S3Client>) S3Tool::new);
+
+        // 注册 S3 异步工具构建器
+        builders.put(StorageType.S3_ASYNC, (StorageUtilsBuilder<S3AsyncTool, S3AsyncClient>) S3AsyncTool::new);
     }
 
 
@@ -0,0 +1,9 @@
+package com.yuanshuai.interfaces;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@FunctionalInterface
+public interface InputStreamSource {
+    InputStream open() throws IOException;
+}
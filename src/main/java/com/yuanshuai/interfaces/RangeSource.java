@@ -0,0 +1,34 @@
+package com.yuanshuai.interfaces;
+
+import com.yuanshuai.domain.ObjectStat;
+
+import java.io.InputStream;
+
+/**
+ * 按区间读取对象，供打包对象读取、分区间并发下载等只需要对象部分内容的场景使用
+ */
+public interface RangeSource {
+
+    /**
+     * 查询对象的大小和etag
+     */
+    ObjectStat stat(String bucketName, String objectName) throws Exception;
+
+    /**
+     * 读取对象的一个区间
+     *
+     * @param offset 起始位置
+     * @param length 读取长度，大于0
+     * @param etag   不为空时由服务端校验，对象已被覆盖时读取失败
+     */
+    InputStream openRange(String bucketName, String objectName, long offset, long length, String etag) throws Exception;
+
+    /**
+     * 分片上传的对象第一个分片的大小，用于按上传时的分片计算etag
+     *
+     * @return 不支持查询时返回-1
+     */
+    default long firstPartSize(String bucketName, String objectName) throws Exception {
+        return -1;
+    }
+}
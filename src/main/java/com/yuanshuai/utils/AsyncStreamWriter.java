@@ -0,0 +1,184 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.io.IoUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 下载内容通过servlet异步非阻塞写出：开启AsyncContext后请求线程立即返回容器，
+ * 客户端可写时容器回调onWritePossible，读取一个缓冲区的内容写出，直到isReady返回false，
+ * 客户端接收慢时不占用任何线程，并发下载数不再受容器线程池大小限制
+ * <p>
+ * 缓冲区从共享的缓冲池借出，下载结束、出错或超时后关闭输入流并归还；
+ * 没有请求对象或不支持异步时退化为在当前线程阻塞写出
+ */
+@Slf4j
+public class AsyncStreamWriter implements WriteListener, AsyncListener {
+
+    /** 异步下载的最长时间，单位毫秒 */
+    public static final long DEFAULT_TIMEOUT = 60 * 60 * 1000L;
+
+    private static final BufferPool DEFAULT_POOL = new BufferPool();
+
+    private final AsyncContext asyncContext;
+
+    private final InputStream inputStream;
+
+    private final ServletOutputStream outputStream;
+
+    private final BufferPool pool;
+
+    private byte[] buffer;
+
+    private boolean done;
+
+    private AsyncStreamWriter(AsyncContext asyncContext, InputStream inputStream, ServletOutputStream outputStream, BufferPool pool) {
+        this.asyncContext = asyncContext;
+        this.inputStream = inputStream;
+        this.outputStream = outputStream;
+        this.pool = pool;
+        this.buffer = pool.acquire();
+    }
+
+    /**
+     * 把输入流写出到响应，响应头需在调用前设置好；输入流由本方法负责关闭，调用后不能再写响应
+     *
+     * @param request 为null时在当前线程阻塞写出
+     */
+    public static void write(HttpServletRequest request, HttpServletResponse response, InputStream inputStream) throws IOException {
+        write(request, response, inputStream, DEFAULT_POOL, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param pool    缓冲池
+     * @param timeout 异步下载的最长时间，单位毫秒
+     */
+    public static void write(HttpServletRequest request, HttpServletResponse response, InputStream inputStream,
+                             BufferPool pool, long timeout) throws IOException {
+        if (request == null || !request.isAsyncSupported()) {
+            copy(inputStream, response.getOutputStream(), pool);
+            return;
+        }
+        AsyncContext asyncContext;
+        try {
+            asyncContext = request.startAsync(request, response);
+            asyncContext.setTimeout(timeout);
+        } catch (RuntimeException e) {
+            IoUtil.close(inputStream);
+            throw e;
+        }
+        write(asyncContext, inputStream, pool);
+    }
+
+    /**
+     * 在已开启的AsyncContext上写出，用于响应头要等异步结果才能设置的情况：
+     * 请求线程开启异步后立即返回，结果到达后设置好响应头再调用本方法；输入流由本方法负责关闭
+     */
+    public static void write(AsyncContext asyncContext, InputStream inputStream) throws IOException {
+        write(asyncContext, inputStream, DEFAULT_POOL);
+    }
+
+    private static void write(AsyncContext asyncContext, InputStream inputStream, BufferPool pool) throws IOException {
+        try {
+            AsyncStreamWriter writer = new AsyncStreamWriter(asyncContext, inputStream, asyncContext.getResponse().getOutputStream(), pool);
+            asyncContext.addListener(writer);
+            writer.outputStream.setWriteListener(writer);
+        } catch (IOException | RuntimeException e) {
+            IoUtil.close(inputStream);
+            throw e;
+        }
+    }
+
+    /**
+     * 阻塞写出，同样使用缓冲池中的缓冲区
+     */
+    public static void copy(InputStream inputStream, OutputStream outputStream, BufferPool pool) throws IOException {
+        byte[] buffer = pool.acquire();
+        try (InputStream in = inputStream) {
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, len);
+            }
+            outputStream.flush();
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    @Override
+    public synchronized void onWritePossible() {
+        try {
+            // write返回后容器已接收全部数据，缓冲区可以立即复用
+            while (!done && outputStream.isReady()) {
+                int len = inputStream.read(buffer);
+                if (len == -1) {
+                    finish();
+                    return;
+                }
+                outputStream.write(buffer, 0, len);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("异步下载时发生错误: " + e.getMessage());
+            finish();
+        }
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) {
+        // 通常是客户端断开连接
+        log.info("异步下载中断: {}", t.getMessage());
+        finish();
+    }
+
+    @Override
+    public synchronized void onTimeout(AsyncEvent event) {
+        log.warn("异步下载超时");
+        finish();
+    }
+
+    @Override
+    public synchronized void onError(AsyncEvent event) {
+        finish();
+    }
+
+    @Override
+    public synchronized void onComplete(AsyncEvent event) {
+        release();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    private void finish() {
+        if (!done) {
+            done = true;
+            release();
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // 容器已在结束异步请求
+                log.debug("异步请求已结束: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void release() {
+        done = true;
+        if (buffer != null) {
+            IoUtil.close(inputStream);
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+}
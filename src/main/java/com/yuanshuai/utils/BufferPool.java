@@ -0,0 +1,73 @@
+package com.yuanshuai.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 固定大小字节数组的缓冲池，下载时复用读写缓冲区，不必每个请求分配新的大数组
+ * 借出数量不限，池中最多保留maxPooled个，池满时归还的缓冲区直接丢弃
+ */
+public class BufferPool {
+
+    /** 缓冲区最小大小 */
+    public static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    /** 缓冲区最大大小 */
+    public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    /** 默认缓冲区大小 */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    /** 默认池中最多保留的缓冲区数 */
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    private final int bufferSize;
+
+    private final ArrayBlockingQueue<byte[]> pool;
+
+    public BufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * @param bufferSize 缓冲区大小，64KB到1MB
+     * @param maxPooled  池中最多保留的缓冲区数
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize < MIN_BUFFER_SIZE || bufferSize > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("缓冲区大小需在64KB到1MB之间: " + bufferSize);
+        }
+        if (maxPooled <= 0) {
+            throw new IllegalArgumentException("缓冲池大小必须大于0");
+        }
+        this.bufferSize = bufferSize;
+        this.pool = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * 借出一个缓冲区，池为空时新分配
+     */
+    public byte[] acquire() {
+        byte[] buffer = pool.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * 归还缓冲区，归还后调用方不能再使用
+     */
+    public void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            pool.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * 当前池中空闲的缓冲区数
+     */
+    public int getPooled() {
+        return pool.size();
+    }
+}
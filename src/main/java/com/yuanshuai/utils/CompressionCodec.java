@@ -0,0 +1,169 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 对象内容的压缩编码，编码名记录在用户元数据Content-Codec中
+ * 两种编码的多段压缩数据直接拼接仍是合法的压缩流，追加上传时只需压缩追加的内容
+ */
+public enum CompressionCodec {
+
+    /**
+     * gzip，与http的Content-Encoding: gzip一致，客户端支持时可直接透传
+     */
+    GZIP("gzip", true) {
+        @Override
+        public OutputStream compress(OutputStream outputStream) throws IOException {
+            return new GZIPOutputStream(outputStream, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream inputStream) throws IOException {
+            return new GZIPInputStream(new MemberAwareInputStream(inputStream), BUFFER_SIZE);
+        }
+    },
+
+    /**
+     * snappy分帧格式，压缩率低于gzip但速度快得多，下载时总是在服务端解压
+     */
+    SNAPPY("snappy", false) {
+        @Override
+        public OutputStream compress(OutputStream outputStream) throws IOException {
+            return new SnappyFramedOutputStream(outputStream);
+        }
+
+        @Override
+        public InputStream decompress(InputStream inputStream) throws IOException {
+            return new SnappyFramedInputStream(inputStream);
+        }
+    };
+
+    /** 记录编码的用户元数据 */
+    public static final String METADATA_KEY = "Content-Codec";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+
+    private final boolean httpEncoding;
+
+    CompressionCodec(String name, boolean httpEncoding) {
+        this.name = name;
+        this.httpEncoding = httpEncoding;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 是否为标准的http Content-Encoding
+     */
+    public boolean isHttpEncoding() {
+        return httpEncoding;
+    }
+
+    /**
+     * 包装输出流，关闭返回的流时写出剩余数据并关闭被包装的流
+     */
+    public abstract OutputStream compress(OutputStream outputStream) throws IOException;
+
+    public abstract InputStream decompress(InputStream inputStream) throws IOException;
+
+    /**
+     * 按编码名查找，大小写不敏感
+     *
+     * @return 未知的编码名返回null
+     */
+    public static CompressionCodec of(String name) {
+        for (CompressionCodec codec : values()) {
+            if (codec.name.equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从对象的用户元数据中读取编码，各sdk返回的元数据键大小写不一致，按大小写不敏感查找
+     *
+     * @return 未压缩的对象返回null
+     */
+    public static CompressionCodec fromMetadata(Map<String, ?> metadata) {
+        if (metadata == null) {
+            return null;
+        }
+        for (Map.Entry<String, ?> entry : metadata.entrySet()) {
+            if (METADATA_KEY.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null) {
+                return of(String.valueOf(entry.getValue()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 请求方是否接受该编码，接受时下载可直接透传压缩内容并设置Content-Encoding
+     */
+    public boolean isAcceptedBy(HttpServletRequest request) {
+        if (!httpEncoding || request == null) {
+            return false;
+        }
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        return StrUtil.isNotEmpty(acceptEncoding) && StrUtil.containsIgnoreCase(acceptEncoding, name);
+    }
+
+    /**
+     * 处理压缩对象的下载流：请求方接受该编码时设置Content-Encoding原样透传，否则在服务端解压
+     *
+     * @param codec 对象的编码，未压缩时为null，原样返回输入流
+     */
+    public static InputStream decodeForResponse(CompressionCodec codec, InputStream inputStream,
+                                                HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (codec == null) {
+            return inputStream;
+        }
+        response.setHeader("Vary", "Accept-Encoding");
+        if (codec.isAcceptedBy(request)) {
+            response.setHeader("Content-Encoding", codec.getName());
+            return inputStream;
+        }
+        return codec.decompress(inputStream);
+    }
+
+    /**
+     * GZIPInputStream读完一段后只在底层流available()大于0时继续解压下一段，
+     * 网络流和拼接的流在段边界处可能返回0，导致追加的内容被截断，这里预读一个字节判断是否真的到达末尾
+     */
+    private static final class MemberAwareInputStream extends PushbackInputStream {
+
+        MemberAwareInputStream(InputStream inputStream) {
+            super(inputStream, 1);
+        }
+
+        @Override
+        public int available() throws IOException {
+            int available = super.available();
+            if (available > 0) {
+                return available;
+            }
+            int b = read();
+            if (b == -1) {
+                return 0;
+            }
+            unread(b);
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.StrUtil;
+import com.yuanshuai.interfaces.InputStreamSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 上传压缩策略：按内容类型或文件后缀判断是否可压缩，压缩后大小不足原大小90%时放弃压缩
+ * 压缩的对象在用户元数据中记录编码和原始大小，下载时据此解压或透传
+ */
+public class CompressionPolicy {
+
+    /** 记录原始大小的用户元数据 */
+    public static final String ORIGINAL_SIZE_KEY = "Original-Size";
+
+    /** 默认的最小压缩大小，更小的内容压缩收益不足以抵消开销 */
+    public static final long DEFAULT_MIN_SIZE = 1024;
+
+    /** 压缩后与原大小之比超过该值时放弃压缩 */
+    private static final double MAX_RATIO = 0.9;
+
+    private static final Set<String> COMPRESSIBLE_TYPES = new HashSet<>(Arrays.asList(
+            "application/json", "application/xml", "application/javascript", "application/x-javascript",
+            "application/x-ndjson", "application/x-yaml", "application/yaml", "application/sql"));
+
+    private static final Set<String> COMPRESSIBLE_SUFFIXES = new HashSet<>(Arrays.asList(
+            "txt", "log", "json", "csv", "tsv", "xml", "ndjson", "jsonl", "yml", "yaml", "md", "html", "htm",
+            "js", "css", "sql"));
+
+    private final CompressionCodec codec;
+
+    private final long minSize;
+
+    public CompressionPolicy(CompressionCodec codec) {
+        this(codec, DEFAULT_MIN_SIZE);
+    }
+
+    /**
+     * @param codec   压缩编码
+     * @param minSize 最小压缩大小，单位字节
+     */
+    public CompressionPolicy(CompressionCodec codec, long minSize) {
+        if (codec == null) {
+            throw new IllegalArgumentException("压缩编码不能为空");
+        }
+        this.codec = codec;
+        this.minSize = minSize;
+    }
+
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * 内容类型或文件后缀可压缩且大小不小于最小压缩大小时压缩
+     */
+    public boolean shouldCompress(String contentType, String objectName, long size) {
+        if (size < minSize) {
+            return false;
+        }
+        return isCompressibleType(contentType) || isCompressibleName(objectName);
+    }
+
+    /**
+     * 按策略压缩暂存的内容，压缩时在用户元数据中记录编码和原始大小
+     *
+     * @param spool        未压缩的暂存内容
+     * @param userMetadata 上传使用的用户元数据，压缩时写入
+     * @return 压缩后的暂存内容，不需要压缩或压缩率不足时返回null
+     */
+    public DigestSpool compress(DigestSpool spool, String contentType, String objectName,
+                                Map<String, ? super String> userMetadata) throws IOException {
+        if (!shouldCompress(contentType, objectName, spool.getSize())) {
+            return null;
+        }
+        DigestSpool compressed = spool.compress(codec);
+        if (compressed.getSize() > spool.getSize() * MAX_RATIO) {
+            compressed.close();
+            return null;
+        }
+        userMetadata.put(CompressionCodec.METADATA_KEY, codec.getName());
+        userMetadata.put(ORIGINAL_SIZE_KEY, String.valueOf(spool.getSize()));
+        return compressed;
+    }
+
+    /**
+     * 秒传复制压缩对象时沿用源对象的编码和原始大小，各sdk返回的元数据键大小写不一致，按大小写不敏感查找
+     *
+     * @param source 源对象的用户元数据
+     * @param target 复制使用的用户元数据
+     */
+    public static void copyMetadata(Map<String, String> source, Map<String, ? super String> target) {
+        CompressionCodec codec = CompressionCodec.fromMetadata(source);
+        if (codec == null) {
+            return;
+        }
+        target.put(CompressionCodec.METADATA_KEY, codec.getName());
+        String originalSize = getIgnoreCase(source, ORIGINAL_SIZE_KEY);
+        if (originalSize != null) {
+            target.put(ORIGINAL_SIZE_KEY, originalSize);
+        }
+    }
+
+    /**
+     * 追加上传时压缩追加的内容：压缩对象的多段压缩数据拼接后仍能整体解压，只需压缩追加部分
+     * 同时把元数据中的原始大小加上追加内容的大小
+     *
+     * @param metadata 已有对象的用户元数据，追加后的对象沿用
+     * @param source   追加的内容，已有对象压缩时才打开
+     * @param size     追加内容的原始大小
+     * @return 压缩后的追加内容，已有对象未压缩时返回null
+     */
+    public static DigestSpool compressAppend(Map<String, String> metadata, InputStreamSource source, long size) throws IOException {
+        CompressionCodec codec = CompressionCodec.fromMetadata(metadata);
+        if (codec == null) {
+            return null;
+        }
+        DigestSpool compressed;
+        try (InputStream inputStream = source.open()) {
+            compressed = DigestSpool.spool(inputStream, codec);
+        }
+        String originalSize = getIgnoreCase(metadata, ORIGINAL_SIZE_KEY);
+        metadata.keySet().removeIf(ORIGINAL_SIZE_KEY::equalsIgnoreCase);
+        if (NumberUtil.isLong(originalSize)) {
+            metadata.put(ORIGINAL_SIZE_KEY, String.valueOf(Long.parseLong(originalSize) + size));
+        }
+        return compressed;
+    }
+
+    private static String getIgnoreCase(Map<String, String> metadata, String key) {
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            if (key.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCompressibleType(String contentType) {
+        if (StrUtil.isEmpty(contentType)) {
+            return false;
+        }
+        String type = StrUtil.subBefore(contentType, ";", false).trim().toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || COMPRESSIBLE_TYPES.contains(type)
+                || type.endsWith("+json") || type.endsWith("+xml");
+    }
+
+    private static boolean isCompressibleName(String objectName) {
+        if (StrUtil.isEmpty(objectName) || !objectName.contains(".")) {
+            return false;
+        }
+        return COMPRESSIBLE_SUFFIXES.contains(StrUtil.subAfter(objectName, ".", true).toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,54 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.yuanshuai.domain.ContentLocation;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 内容索引，用于秒传：以文件内容的hash查找已经存在的对象，命中时通过服务端复制完成上传
+ * hash为整个文件的md5，或分片上传的etag(md5(分片md5...)-n)，两者格式不同，共用一个索引
+ * 只记录本工具自己计算或经服务端校验过的hash，不记录客户端声明的md5，避免通过伪造md5获取他人文件
+ * 索引中的位置在使用前需要与服务端的etag比对，对象被删除或覆盖后的记录在查找时清理
+ */
+public class ContentIndex implements Closeable {
+
+    private final LocalKvStore<ContentLocation> store;
+
+    private ContentIndex(LocalKvStore<ContentLocation> store) {
+        this.store = store;
+    }
+
+    /**
+     * @param path 索引文件路径
+     */
+    public static ContentIndex open(String path) throws IOException {
+        return new ContentIndex(new LocalKvStore<>(path, ContentLocation.class));
+    }
+
+    public ContentLocation get(String hash) {
+        return StrUtil.isEmpty(hash) ? null : store.get(hash.toLowerCase());
+    }
+
+    public void put(String hash, ContentLocation location) {
+        if (StrUtil.isNotEmpty(hash)) {
+            store.put(hash.toLowerCase(), location);
+        }
+    }
+
+    public void remove(String hash) {
+        if (StrUtil.isNotEmpty(hash)) {
+            store.remove(hash.toLowerCase());
+        }
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+}
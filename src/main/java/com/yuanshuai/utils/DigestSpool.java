@@ -0,0 +1,197 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.HexUtil;
+import com.yuanshuai.constants.ChecksumAlgorithm;
+import com.yuanshuai.domain.ChecksumResult;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * 上传暂存区：只读取一次源流，同时写入本地临时文件并计算MD5
+ * 适用于需要提前知道MD5（Content-MD5 校验）或长度未知的不可重复读的流，上传时从临时文件读取
+ * MultipartFile直接转存为临时文件，上传时使用基于文件的请求体，不再经过堆内存复制；
+ * 容器保存在内存中的MultipartFile不写临时文件，读入字节数组计算校验和后直接从数组上传
+ * 可以额外指定crc32c、sha256等校验和，与md5在同一次读取中计算
+ */
+public class DigestSpool implements Closeable {
+
+    /** 临时文件，内容在内存中时为null */
+    private final Path path;
+
+    /** 内存中的内容，暂存在临时文件时为null */
+    private final byte[] data;
+
+    private final long size;
+
+    private final ChecksumResult checksums;
+
+    /** 除md5外额外计算的校验和，压缩后的暂存内容沿用 */
+    private final ChecksumAlgorithm[] algorithms;
+
+    private DigestSpool(Path path, byte[] data, long size, ChecksumResult checksums, ChecksumAlgorithm[] algorithms) {
+        this.path = path;
+        this.data = data;
+        this.size = size;
+        this.checksums = checksums;
+        this.algorithms = algorithms;
+    }
+
+    /**
+     * 将输入流暂存到临时文件，不会关闭传入的流
+     *
+     * @param inputStream 源流
+     * @return 暂存结果
+     */
+    public static DigestSpool spool(InputStream inputStream) throws IOException {
+        return spool(inputStream, null);
+    }
+
+    /**
+     * 将输入流压缩后暂存到临时文件，不会关闭传入的流，校验和与大小均为压缩后写入文件的内容
+     *
+     * @param inputStream 源流
+     * @param codec       压缩编码，为null时不压缩
+     * @param algorithms  除md5外需要额外计算的校验和
+     * @return 暂存结果
+     */
+    public static DigestSpool spool(InputStream inputStream, CompressionCodec codec, ChecksumAlgorithm... algorithms) throws IOException {
+        Path path = Files.createTempFile("storage-spool-", ".tmp");
+        try {
+            MultiChecksum checksum = new MultiChecksum(withMd5(algorithms));
+            try (OutputStream fileOutputStream = checksum.wrap(Files.newOutputStream(path));
+                 OutputStream outputStream = codec == null ? fileOutputStream : codec.compress(fileOutputStream)) {
+                byte[] buffer = new byte[64 * 1024];
+                int len;
+                while ((len = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, len);
+                }
+            }
+            return new DigestSpool(path, null, Files.size(path), checksum.getResult(), algorithms);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /**
+     * 压缩暂存的内容到新的临时文件，当前暂存文件不变
+     */
+    public DigestSpool compress(CompressionCodec codec) throws IOException {
+        try (InputStream inputStream = newInputStream()) {
+            return spool(inputStream, codec, algorithms);
+        }
+    }
+
+    /**
+     * 将MultipartFile转存到临时文件并计算MD5，之后从文件上传
+     * servlet容器已把上传内容暂存在磁盘时，transferTo只是移动暂存文件，不复制内容；
+     * 暂存在内存中的内容直接写出到文件。转存后MultipartFile不能再读取
+     *
+     * @param file       上传的文件
+     * @param algorithms 除md5外需要额外计算的校验和
+     * @return 暂存结果
+     */
+    public static DigestSpool spool(MultipartFile file, ChecksumAlgorithm... algorithms) throws IOException {
+        return spool(file, 0, algorithms);
+    }
+
+    /**
+     * 处理MultipartFile：不超过memoryThreshold的内容由servlet容器保存在内存中，
+     * 直接读入字节数组计算校验和，上传时从数组发送，不写临时文件；更大的内容转存为临时文件
+     * 解释：MultipartFile不提供内容是否在内存中的判断，按容器的阈值（spring.servlet.multipart.file-size-threshold）推断；
+     * 使用的http客户端都是阻塞读取堆内存中的请求体，直接内存只会多一次复制，这里不使用
+     *
+     * @param memoryThreshold 容器在内存中保存的上传内容大小上限，单位字节，0为全部转存
+     */
+    public static DigestSpool spool(MultipartFile file, long memoryThreshold, ChecksumAlgorithm... algorithms) throws IOException {
+        if (memoryThreshold > 0 && file.getSize() <= memoryThreshold) {
+            byte[] bytes = file.getBytes();
+            MultiChecksum checksum = new MultiChecksum(withMd5(algorithms));
+            checksum.update(bytes, 0, bytes.length);
+            return new DigestSpool(null, bytes, bytes.length, checksum.getResult(), algorithms);
+        }
+        Path path = Files.createTempFile("storage-spool-", ".tmp");
+        try {
+            // 目标文件已存在时容器无法移动暂存文件，会退化为复制
+            Files.delete(path);
+            file.transferTo(path.toFile());
+            return new DigestSpool(path, null, Files.size(path), MultiChecksum.compute(path, withMd5(algorithms)), algorithms);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    private static ChecksumAlgorithm[] withMd5(ChecksumAlgorithm[] algorithms) {
+        ChecksumAlgorithm[] all = Arrays.copyOf(algorithms, algorithms.length + 1);
+        all[algorithms.length] = ChecksumAlgorithm.MD5;
+        return all;
+    }
+
+    /**
+     * 内容是否在内存中，在内存中时通过getData读取，没有临时文件
+     */
+    public boolean isInMemory() {
+        return data != null;
+    }
+
+    /**
+     * 临时文件，内容在内存中时为null
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 内存中的内容，不复制，调用方不能修改；暂存在临时文件时为null
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getMd5Hex() {
+        return checksums.getMd5();
+    }
+
+    public String getMd5Base64() {
+        return Base64.encode(HexUtil.decodeHex(checksums.getMd5()));
+    }
+
+    /**
+     * 暂存内容的全部校验和，未指定的算法为空
+     */
+    public ChecksumResult getChecksums() {
+        return checksums;
+    }
+
+    /**
+     * 指定算法在请求头中使用的base64值，暂存时未计算该算法返回null
+     */
+    public String getChecksumBase64(ChecksumAlgorithm algorithm) {
+        return checksums.base64(algorithm);
+    }
+
+    public InputStream newInputStream() throws IOException {
+        return data != null ? new ByteArrayInputStream(data) : Files.newInputStream(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (path != null) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.yuanshuai.domain.DirectoryTransferResult;
+import com.yuanshuai.domain.FileTransferResult;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * 目录上传/下载：遍历本地目录或远程前缀，每个文件作为一个任务并发传输，汇总每个文件的结果和吞吐量
+ * 每次调用使用独立的TransferExecutor，单个文件内部的分片任务仍由各工具自己的线程池执行，两者不共用线程池，
+ * 避免文件任务占满线程池后等待分片任务
+ */
+@Slf4j
+public class DirectoryTransfer {
+
+    /**
+     * 单个文件的传输操作，返回是否成功
+     */
+    @FunctionalInterface
+    public interface FileAction {
+        Boolean transfer(Path localFile, String objectName, long size) throws Exception;
+    }
+
+    /**
+     * 远程对象
+     */
+    public static class RemoteFile {
+
+        private final String objectName;
+
+        private final long size;
+
+        public RemoteFile(String objectName, long size) {
+            this.objectName = objectName;
+            this.size = size;
+        }
+
+        public String getObjectName() {
+            return objectName;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * 上传目录，对象名为前缀加上相对路径，路径分隔符统一为/
+     *
+     * @param directory 本地目录
+     * @param prefix    对象名前缀，为空时上传到桶根目录
+     * @param taskNum   同时传输的文件数
+     * @param action    单个文件的上传操作
+     */
+    public static DirectoryTransferResult upload(Path directory, String prefix, int taskNum, FileAction action) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("本地目录不存在: " + directory);
+        }
+        String normalizedPrefix = normalizePrefix(prefix);
+        long startTime = System.nanoTime();
+        List<Future<FileTransferResult>> futures = new ArrayList<>();
+        try (TransferExecutor executor = new TransferExecutor("directory-upload-", taskNum);
+             Stream<Path> paths = Files.walk(directory)) {
+            Iterator<Path> iterator = paths.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                String relative = directory.relativize(path).toString().replace(File.separatorChar, '/');
+                String objectName = normalizedPrefix + relative;
+                futures.add(executor.submit(() -> transfer(action, path, objectName, -1)));
+            }
+            return collect(futures, startTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("目录上传被中断", e);
+        }
+    }
+
+    /**
+     * 下载前缀下的所有对象到本地目录，本地路径为目录加上去掉前缀后的对象名
+     *
+     * @param objects   前缀下的对象，可以是分页懒加载的迭代器
+     * @param prefix    对象名前缀
+     * @param directory 本地目录
+     * @param override  是否覆盖本地已有文件，不覆盖时已有文件记为失败
+     * @param taskNum   同时传输的文件数
+     * @param action    单个文件的下载操作，本地父目录已创建，已有文件已按override处理
+     */
+    public static DirectoryTransferResult download(Iterable<RemoteFile> objects, String prefix, Path directory, boolean override,
+                                                   int taskNum, FileAction action) throws IOException {
+        String normalizedPrefix = normalizePrefix(prefix);
+        Path root = directory.toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        long startTime = System.nanoTime();
+        List<Future<FileTransferResult>> futures = new ArrayList<>();
+        try (TransferExecutor executor = new TransferExecutor("directory-download-", taskNum)) {
+            for (RemoteFile object : objects) {
+                String objectName = object.getObjectName();
+                // 以/结尾的是目录占位对象
+                if (objectName.endsWith("/") || !objectName.startsWith(normalizedPrefix)) {
+                    continue;
+                }
+                Path path = root.resolve(objectName.substring(normalizedPrefix.length())).normalize();
+                if (!path.startsWith(root)) {
+                    futures.add(CompletableFuture.completedFuture(new FileTransferResult(path.toString(), objectName, object.getSize(), false, "对象名超出下载目录", 0L)));
+                    continue;
+                }
+                if (!override && Files.exists(path)) {
+                    futures.add(CompletableFuture.completedFuture(new FileTransferResult(path.toString(), objectName, object.getSize(), false, "本地文件已存在", 0L)));
+                    continue;
+                }
+                futures.add(executor.submit(() -> transfer((localFile, name, size) -> {
+                    Files.deleteIfExists(localFile);
+                    Files.createDirectories(localFile.getParent());
+                    return action.transfer(localFile, name, size);
+                }, path, objectName, object.getSize())));
+            }
+            return collect(futures, startTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("目录下载被中断", e);
+        }
+    }
+
+    /**
+     * @param size 文件大小，小于0时读取本地文件大小
+     */
+    private static FileTransferResult transfer(FileAction action, Path path, String objectName, long size) {
+        long startTime = System.nanoTime();
+        try {
+            if (size < 0) {
+                size = Files.size(path);
+            }
+            Boolean success = action.transfer(path, objectName, size);
+            return new FileTransferResult(path.toString(), objectName, size, Boolean.TRUE.equals(success),
+                    Boolean.TRUE.equals(success) ? null : "传输失败", elapsedMillis(startTime));
+        } catch (Exception e) {
+            log.error("{}传输失败: {}", objectName, e.getMessage());
+            return new FileTransferResult(path.toString(), objectName, Math.max(size, 0), false, e.getMessage(), elapsedMillis(startTime));
+        }
+    }
+
+    private static DirectoryTransferResult collect(List<Future<FileTransferResult>> futures, long startTime) throws InterruptedException {
+        List<FileTransferResult> files = new ArrayList<>(futures.size());
+        int successNum = 0;
+        long totalBytes = 0;
+        for (Future<FileTransferResult> future : futures) {
+            FileTransferResult result;
+            try {
+                result = future.get();
+            } catch (ExecutionException e) {
+                result = new FileTransferResult(null, null, 0L, false, e.getCause().getMessage(), 0L);
+            }
+            if (result.getIsSuccess()) {
+                successNum++;
+                totalBytes += result.getSize();
+            }
+            files.add(result);
+        }
+        long costMillis = elapsedMillis(startTime);
+        double seconds = Math.max(costMillis, 1) / 1000.0;
+        log.info("目录传输完成，共{}个文件，失败{}个，耗时{}ms", files.size(), files.size() - successNum, costMillis);
+        return new DirectoryTransferResult(files.size(), successNum, files.size() - successNum, totalBytes, costMillis,
+                totalBytes / seconds, successNum / seconds, files);
+    }
+
+    private static String normalizePrefix(String prefix) {
+        if (StrUtil.isEmpty(prefix)) {
+            return "";
+        }
+        return prefix.endsWith("/") ? prefix : prefix + "/";
+    }
+
+    private static long elapsedMillis(long startTime) {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+}
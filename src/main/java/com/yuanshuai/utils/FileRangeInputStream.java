@@ -0,0 +1,62 @@
+package com.yuanshuai.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 文件区间输入流，使用FileChannel按位置读取，多个分片可共享同一个FileChannel并发读取
+ * 关闭流不会关闭FileChannel
+ */
+public class FileRangeInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    private final long end;
+
+    private long position;
+
+    /**
+     * @param channel 文件通道
+     * @param start   起始位置
+     * @param length  读取长度
+     */
+    public FileRangeInputStream(FileChannel channel, long start, long length) {
+        this.channel = channel;
+        this.position = start;
+        this.end = start + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (position >= end) {
+            return -1;
+        }
+        int toRead = (int) Math.min(len, end - position);
+        int n = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+}
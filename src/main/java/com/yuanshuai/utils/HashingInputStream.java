@@ -0,0 +1,113 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * 边读边计算MD5的输入流，上传时字节流经一次即可得到文件MD5
+ * 解释：SDK重试时会mark/reset回退，这里只对首次读到的字节计算摘要，回退后重读的部分不会重复计算
+ */
+public class HashingInputStream extends FilterInputStream {
+
+    private final MessageDigest md5 = DigestUtil.digester("MD5").getDigest();
+
+    /** 当前读取位置 */
+    private long position;
+
+    /** 已计算摘要的字节数 */
+    private long hashed;
+
+    private long markPosition = -1;
+
+    private byte[] digest;
+
+    public HashingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            if (position == hashed) {
+                md5.update((byte) b);
+                hashed++;
+            }
+            position++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            long end = position + n;
+            if (end > hashed) {
+                int skip = (int) (hashed - position);
+                md5.update(b, off + skip, n - skip);
+                hashed = end;
+            }
+            position = end;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // 跳过的字节也必须参与摘要，否则MD5不完整
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        while (total < n) {
+            int len = read(buffer, 0, (int) Math.min(buffer.length, n - total));
+            if (len == -1) {
+                break;
+            }
+            total += len;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        super.mark(readlimit);
+        markPosition = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        super.reset();
+        position = markPosition;
+    }
+
+    /**
+     * 已读取的字节数
+     */
+    public long getCount() {
+        return hashed;
+    }
+
+    /**
+     * 流读取完毕后获取MD5，调用后不能再继续读取
+     */
+    public byte[] getMd5() {
+        if (digest == null) {
+            digest = md5.digest();
+        }
+        return digest;
+    }
+
+    public String getMd5Hex() {
+        return HexUtil.encodeHexStr(getMd5());
+    }
+
+    public String getMd5Base64() {
+        return Base64.encode(getMd5());
+    }
+}
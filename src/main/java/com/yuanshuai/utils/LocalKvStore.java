@@ -0,0 +1,182 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * 本地文件存储的键值表，数据全部保存在内存中，每次修改以一行json追加写入日志文件
+ * 打开时重放日志恢复数据，打开或追加时日志中的失效记录过多则重写为只包含当前数据的新日志
+ * 解释：写入只追加一行，不需要引入嵌入式数据库；进程崩溃最多丢失最后一行未写完的记录
+ *
+ * @param <V> 值类型，需要能被hutool json序列化
+ */
+@Slf4j
+public class LocalKvStore<V> implements Closeable {
+
+    /** 日志行数超过有效记录数的倍数时重写日志 */
+    private static final int COMPACT_RATIO = 2;
+
+    /** 日志行数低于该值时不重写 */
+    private static final int COMPACT_MIN_LINES = 1024;
+
+    private final Path path;
+
+    private final Class<V> valueType;
+
+    private final Map<String, V> data = new ConcurrentHashMap<>();
+
+    private BufferedWriter writer;
+
+    private int lines;
+
+    /**
+     * @param path      日志文件路径，不存在时自动创建
+     * @param valueType 值类型
+     */
+    public LocalKvStore(String path, Class<V> valueType) throws IOException {
+        this.path = Paths.get(path).toAbsolutePath();
+        this.valueType = valueType;
+        if (this.path.getParent() != null) {
+            Files.createDirectories(this.path.getParent());
+        }
+        load();
+        if (needsCompact()) {
+            compact();
+        }
+        this.writer = openWriter();
+    }
+
+    public V get(String key) {
+        return data.get(key);
+    }
+
+    public synchronized void put(String key, V value) {
+        data.put(key, value);
+        JSONObject line = new JSONObject();
+        line.set("k", key);
+        line.set("v", value);
+        append(line);
+    }
+
+    public synchronized void remove(String key) {
+        if (data.remove(key) != null) {
+            JSONObject line = new JSONObject();
+            line.set("k", key);
+            line.set("d", true);
+            append(line);
+        }
+    }
+
+    public void forEach(BiConsumer<String, V> action) {
+        data.forEach(action);
+    }
+
+    public Map<String, V> snapshot() {
+        return Collections.unmodifiableMap(new HashMap<>(data));
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private void append(JSONObject line) {
+        try {
+            writer.write(line.toString());
+            writer.newLine();
+            writer.flush();
+            lines++;
+        } catch (IOException e) {
+            log.error("写入本地存储{}失败: {}", path, e.getMessage());
+            return;
+        }
+        if (needsCompact()) {
+            try {
+                writer.close();
+                compact();
+            } catch (IOException e) {
+                log.error("重写本地存储{}失败: {}", path, e.getMessage());
+            }
+            try {
+                writer = openWriter();
+            } catch (IOException e) {
+                log.error("打开本地存储{}失败: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private boolean needsCompact() {
+        return lines > COMPACT_MIN_LINES && lines > data.size() * COMPACT_RATIO;
+    }
+
+    private BufferedWriter openWriter() throws IOException {
+        return Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                lines++;
+                try {
+                    JSONObject json = JSONUtil.parseObj(line);
+                    String key = json.getStr("k");
+                    if (json.getBool("d", false)) {
+                        data.remove(key);
+                    } else {
+                        data.put(key, json.getBean("v", valueType));
+                    }
+                } catch (Exception e) {
+                    // 进程崩溃时最后一行可能不完整，跳过
+                    log.warn("跳过本地存储{}中无法解析的记录: {}", path, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        try (BufferedWriter compactWriter = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, V> entry : data.entrySet()) {
+                JSONObject line = new JSONObject();
+                line.set("k", entry.getKey());
+                line.set("v", entry.getValue());
+                compactWriter.write(line.toString());
+                compactWriter.newLine();
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("本地存储{}重写完成，日志行数{}->{}", path, lines, data.size());
+        lines = data.size();
+    }
+}
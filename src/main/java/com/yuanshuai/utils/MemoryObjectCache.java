@@ -0,0 +1,363 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.util.StrUtil;
+import com.yuanshuai.domain.ObjectStat;
+import com.yuanshuai.interfaces.RangeSource;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 进程内的小对象缓存，包装对象的区间读取方式：不超过maxObjectSize的对象在查询信息时整体读入内存，
+ * 之后的完整下载和区间请求都不访问对象存储
+ * <p>
+ * 按内容大小计算权重，总权重超过上限时按分段LRU淘汰：新对象进入试用段，之后的另一次访问在stat中命中时升入保护段
+ * （同一次访问中stat之后的读取不算命中），
+ * 保护段超过总上限的五分之四时把最久未使用的降回试用段，淘汰总是先从试用段最久未使用的开始，
+ * 只访问一次的对象不会挤掉反复访问的热点对象
+ * <p>
+ * 命中的条目超过revalidateTtl未校验时先HEAD比对etag；同一节点上的上传、删除和复制由存储工具调用invalidate立即失效
+ * 开启offHeap时内容存放在直接内存中，不参与堆内存的垃圾回收扫描
+ */
+@Slf4j
+public class MemoryObjectCache implements RangeSource {
+
+    /** 默认缓存的单个对象大小上限 */
+    public static final long DEFAULT_MAX_OBJECT_SIZE = 256 * 1024L;
+
+    /** 默认的etag校验间隔，单位毫秒 */
+    public static final long DEFAULT_REVALIDATE_TTL = 30_000L;
+
+    /** 每个条目除内容外的估算开销，计入权重 */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final RangeSource source;
+
+    private final long maxBytes;
+
+    private final long protectedMaxBytes;
+
+    private final long maxObjectSize;
+
+    private final long revalidateTtl;
+
+    private final boolean offHeap;
+
+    /** 试用段，按访问顺序排列，最久未使用的在前，读写都需持有this锁 */
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** 保护段，按访问顺序排列，最久未使用的在前，读写都需持有this锁 */
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long probationBytes;
+
+    private long protectedBytes;
+
+    private final RangeServer rangeServer = new RangeServer(this);
+
+    /**
+     * @param source   对象的区间读取方式，通常是存储工具本身或磁盘缓存
+     * @param maxBytes 缓存的总权重上限，单位字节
+     */
+    public MemoryObjectCache(RangeSource source, long maxBytes) {
+        this(source, maxBytes, Math.min(DEFAULT_MAX_OBJECT_SIZE, maxBytes / 8), DEFAULT_REVALIDATE_TTL, false);
+    }
+
+    /**
+     * @param maxObjectSize 单个对象的大小上限，超过的对象不缓存
+     * @param revalidateTtl etag校验间隔，单位毫秒，0为每次命中都校验
+     * @param offHeap       是否把内容存放在直接内存中
+     */
+    public MemoryObjectCache(RangeSource source, long maxBytes, long maxObjectSize, long revalidateTtl, boolean offHeap) {
+        if (maxBytes <= 0 || maxObjectSize <= 0 || maxObjectSize > maxBytes || maxObjectSize > Integer.MAX_VALUE - ENTRY_OVERHEAD) {
+            throw new IllegalArgumentException("缓存大小必须大于0且不小于单个对象的上限");
+        }
+        this.source = source;
+        this.maxBytes = maxBytes;
+        this.protectedMaxBytes = maxBytes / 5 * 4;
+        this.maxObjectSize = maxObjectSize;
+        this.revalidateTtl = revalidateTtl;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * 以缓存的对象响应区间请求，缓存的对象直接读内存
+     */
+    public RangeServer getRangeServer() {
+        return rangeServer;
+    }
+
+    /**
+     * 查询对象信息：命中且在校验间隔内时不访问对象存储，否则HEAD后把足够小的对象读入缓存
+     */
+    @Override
+    public ObjectStat stat(String bucketName, String objectName) throws Exception {
+        String key = cacheKey(bucketName, objectName);
+        Entry entry = get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && now - entry.validatedAt < revalidateTtl) {
+            return entry.stat;
+        }
+        ObjectStat stat = source.stat(bucketName, objectName);
+        if (entry != null) {
+            if (StrUtil.equals(entry.stat.getEtag(), stat.getEtag()) && entry.stat.getSize().equals(stat.getSize())) {
+                entry.validatedAt = now;
+                return stat;
+            }
+            remove(key, entry);
+        }
+        if (stat.getSize() <= maxObjectSize) {
+            try {
+                put(key, new Entry(stat, load(bucketName, objectName, stat), now));
+            } catch (Exception e) {
+                log.warn("缓存{}失败: {}", objectName, e.getMessage());
+            }
+        }
+        return stat;
+    }
+
+    /**
+     * 缓存中有该对象且etag一致时读内存，否则读对象存储
+     * 读取总是跟在同一次访问的stat之后，这里不再把条目升入保护段
+     */
+    @Override
+    public InputStream openRange(String bucketName, String objectName, long offset, long length, String etag) throws Exception {
+        Entry entry = peek(cacheKey(bucketName, objectName));
+        if (entry != null && (etag == null || etag.equals(entry.stat.getEtag())) && offset + length <= entry.stat.getSize()) {
+            ByteBuffer buffer = entry.content.duplicate();
+            buffer.position((int) offset);
+            buffer.limit((int) (offset + length));
+            return new BufferInputStream(buffer);
+        }
+        return source.openRange(bucketName, objectName, offset, length, etag);
+    }
+
+    /**
+     * 完整下载，设置文件名；压缩对象按请求方是否接受该编码决定透传或解压
+     */
+    public void download(String bucketName, String objectName, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        ObjectStat stat = stat(bucketName, objectName);
+        InputStream inputStream = stat.getSize() == 0 ? new ByteArrayInputStream(new byte[0])
+                : openRange(bucketName, objectName, 0, stat.getSize(), stat.getEtag());
+        try {
+            inputStream = CompressionCodec.decodeForResponse(CompressionCodec.fromMetadata(stat.getUserMetadata()),
+                    inputStream, request, response);
+        } catch (IOException e) {
+            IoUtil.close(inputStream);
+            throw e;
+        }
+        response.setContentType("application/octet-stream");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + objectName + "\"");
+        AsyncStreamWriter.write(request, response, inputStream);
+    }
+
+    /**
+     * 对象被覆盖或删除后丢弃缓存
+     */
+    public void invalidate(String bucketName, String objectName) {
+        removeKey(cacheKey(bucketName, objectName));
+        rangeServer.invalidate(bucketName, objectName);
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        probation.clear();
+        protectedSegment.clear();
+        probationBytes = 0;
+        protectedBytes = 0;
+    }
+
+    /**
+     * 已缓存的总权重，单位字节
+     */
+    public synchronized long getTotalBytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    /**
+     * 已缓存的对象数
+     */
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    private ByteBuffer load(String bucketName, String objectName, ObjectStat stat) throws Exception {
+        int size = stat.getSize().intValue();
+        ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        if (size > 0) {
+            try (InputStream inputStream = source.openRange(bucketName, objectName, 0, size, stat.getEtag())) {
+                byte[] chunk = new byte[Math.min(size, 64 * 1024)];
+                int read;
+                while (buffer.hasRemaining() && (read = inputStream.read(chunk, 0, Math.min(chunk.length, buffer.remaining()))) != -1) {
+                    buffer.put(chunk, 0, read);
+                }
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("读取的大小与对象大小不一致: " + objectName);
+            }
+            buffer.flip();
+        }
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * 查找条目，试用段中命中的升入保护段，每次访问只在stat中调用一次
+     */
+    private synchronized Entry get(String key) {
+        Entry entry = protectedSegment.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        entry = probation.remove(key);
+        if (entry != null) {
+            probationBytes -= entry.weight;
+            protectedSegment.put(key, entry);
+            protectedBytes += entry.weight;
+            demote();
+        }
+        return entry;
+    }
+
+    /**
+     * 查找条目，不改变所在的段，只调整段内的访问顺序
+     */
+    private synchronized Entry peek(String key) {
+        Entry entry = protectedSegment.get(key);
+        return entry != null ? entry : probation.get(key);
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        removeKey(key);
+        probation.put(key, entry);
+        probationBytes += entry.weight;
+        evict();
+    }
+
+    private synchronized void remove(String key, Entry entry) {
+        // 期间可能已被重新读入，只删除传入的条目
+        if (probation.get(key) == entry || protectedSegment.get(key) == entry) {
+            removeKey(key);
+        }
+    }
+
+    private synchronized void removeKey(String key) {
+        Entry previous = probation.remove(key);
+        if (previous != null) {
+            probationBytes -= previous.weight;
+        }
+        previous = protectedSegment.remove(key);
+        if (previous != null) {
+            protectedBytes -= previous.weight;
+        }
+    }
+
+    /**
+     * 保护段超出上限时，把最久未使用的条目降回试用段
+     */
+    private synchronized void demote() {
+        Iterator<Map.Entry<String, Entry>> iterator = protectedSegment.entrySet().iterator();
+        while (protectedBytes > protectedMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            protectedBytes -= eldest.getValue().weight;
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationBytes += eldest.getValue().weight;
+        }
+    }
+
+    /**
+     * 总权重超出上限时，先淘汰试用段最久未使用的条目，试用段为空时再淘汰保护段的
+     */
+    private synchronized void evict() {
+        evict(probation.entrySet().iterator(), true);
+        evict(protectedSegment.entrySet().iterator(), false);
+    }
+
+    private void evict(Iterator<Map.Entry<String, Entry>> iterator, boolean probationSegment) {
+        while (probationBytes + protectedBytes > maxBytes && iterator.hasNext()) {
+            long weight = iterator.next().getValue().weight;
+            iterator.remove();
+            if (probationSegment) {
+                probationBytes -= weight;
+            } else {
+                protectedBytes -= weight;
+            }
+        }
+    }
+
+    private static String cacheKey(String bucketName, String objectName) {
+        return StrUtil.nullToEmpty(bucketName) + "/" + objectName;
+    }
+
+    private static class Entry {
+
+        private final ObjectStat stat;
+
+        /** 对象的完整内容，只通过duplicate读取 */
+        private final ByteBuffer content;
+
+        private final long weight;
+
+        private volatile long validatedAt;
+
+        private Entry(ObjectStat stat, ByteBuffer content, long validatedAt) {
+            this.stat = stat;
+            this.content = content;
+            this.weight = content.capacity() + ENTRY_OVERHEAD;
+            this.validatedAt = validatedAt;
+        }
+    }
+
+    /**
+     * 读取ByteBuffer剩余内容的输入流
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.yuanshuai.utils;
+
+import com.google.common.collect.Multimap;
+import io.minio.MinioAsyncClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.S3Escaper;
+import io.minio.messages.ListPartsResult;
+import io.minio.messages.Part;
+
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * minio原生分片上传客户端
+ * minio-java只在S3Base中以protected方法提供分片接口，这里继承MinioAsyncClient并公开为同步方法，
+ * 传入的异步客户端由StorageClientFactory按MINIO_ASYNC创建，与MinioClient使用相同的端点和凭证
+ */
+public class MinioMultipartClient extends MinioAsyncClient {
+
+    private static final int MAX_PARTS = 1000;
+
+    public MinioMultipartClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    /**
+     * 初始化分片上传
+     *
+     * @param headers 请求头，用户元数据需带x-amz-meta-前缀
+     * @return uploadId
+     */
+    public String createMultipartUpload(String bucketName, String objectName, Map<String, String> headers) throws Exception {
+        return join(createMultipartUploadAsync(bucketName, null, objectName, newMultimap(headers), null))
+                .result()
+                .uploadId();
+    }
+
+    /**
+     * 上传分片
+     *
+     * @return 分片etag
+     */
+    public String uploadPart(String bucketName, String objectName, String uploadId, int partNumber, byte[] data, Map<String, String> headers) throws Exception {
+        Multimap<String, String> extraHeaders = headers == null ? null : newMultimap(headers);
+        return join(uploadPartAsync(bucketName, null, objectName, data, data.length, uploadId, partNumber, extraHeaders, null))
+                .etag();
+    }
+
+    /**
+     * 从本地文件的当前位置读取length字节上传分片，分片内容不读入内存
+     *
+     * @return 分片etag
+     */
+    public String uploadPart(String bucketName, String objectName, String uploadId, int partNumber, RandomAccessFile file, long length,
+                             Map<String, String> headers) throws Exception {
+        Multimap<String, String> extraHeaders = headers == null ? null : newMultimap(headers);
+        return join(uploadPartAsync(bucketName, null, objectName, file, length, uploadId, partNumber, extraHeaders, null))
+                .etag();
+    }
+
+    /**
+     * 复制已有对象的一段作为分片，length为0时复制整个对象
+     *
+     * @param matchETag 源对象etag不一致时复制失败，为null时不校验
+     * @return 分片etag
+     */
+    public String uploadPartCopy(String bucketName, String objectName, String uploadId, int partNumber,
+                                 String sourceBucketName, String sourceObjectName, long start, long length, String matchETag) throws Exception {
+        Multimap<String, String> headers = newMultimap("x-amz-copy-source", S3Escaper.encodePath(sourceBucketName + "/" + sourceObjectName));
+        if (length > 0) {
+            headers.put("x-amz-copy-source-range", "bytes=" + start + "-" + (start + length - 1));
+        }
+        if (matchETag != null) {
+            headers.put("x-amz-copy-source-if-match", matchETag);
+        }
+        return join(uploadPartCopyAsync(bucketName, null, objectName, uploadId, partNumber, headers, null))
+                .result()
+                .etag();
+    }
+
+    /**
+     * 查询已上传的分片
+     */
+    public List<Part> listParts(String bucketName, String objectName, String uploadId) throws Exception {
+        List<Part> parts = new ArrayList<>();
+        Integer marker = null;
+        while (true) {
+            ListPartsResult result = join(listPartsAsync(bucketName, null, objectName, MAX_PARTS, marker, uploadId, null, null)).result();
+            parts.addAll(result.partList());
+            if (!result.isTruncated()) {
+                return parts;
+            }
+            marker = result.nextPartNumberMarker();
+        }
+    }
+
+    /**
+     * 合并分片
+     */
+    public ObjectWriteResponse completeMultipartUpload(String bucketName, String objectName, String uploadId, Part[] parts) throws Exception {
+        return join(completeMultipartUploadAsync(bucketName, null, objectName, uploadId, parts, null, null));
+    }
+
+    /**
+     * 取消分片上传
+     */
+    public void abortMultipartUpload(String bucketName, String objectName, String uploadId) throws Exception {
+        join(abortMultipartUploadAsync(bucketName, null, objectName, uploadId, null, null));
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+}
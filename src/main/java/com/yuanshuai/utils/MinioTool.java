@@ -4,45 +4,198 @@ package com.yuanshuai.utils;
 import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.io.IoUtil;
 import cn.hutool.core.util.HexUtil;
 import cn.hutool.core.util.IdUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.crypto.digest.DigestUtil;
+import com.yuanshuai.constants.ChecksumAlgorithm;
+import com.yuanshuai.domain.ChecksumResult;
+import com.yuanshuai.domain.ContentLocation;
+import com.yuanshuai.domain.DirectoryTransferResult;
 import com.yuanshuai.domain.FileInfo;
 import com.yuanshuai.domain.ListResult;
+import com.yuanshuai.domain.ObjectStat;
+import com.yuanshuai.domain.PackEntry;
+import com.yuanshuai.domain.UploadSession;
+import com.yuanshuai.interfaces.InputStreamSource;
+import com.yuanshuai.interfaces.RangeSource;
 import io.minio.*;
+import io.minio.errors.ErrorResponseException;
+import io.minio.http.Method;
 import io.minio.messages.Bucket;
 import io.minio.messages.DeleteObject;
 import io.minio.messages.Item;
+import io.minio.messages.Part;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.ZoneId;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 @Slf4j
-public class MinioTool {
+public class MinioTool implements RangeSource {
 
     private final MinioClient minioClient;
 
+    private volatile MinioMultipartClient multipartClient;
+
+    /** 内容索引，为空时不启用秒传 */
+    private volatile ContentIndex contentIndex;
+
+    /** 分片上传会话登记表，为空时不记录会话 */
+    private volatile UploadSessionRegistry sessionRegistry;
+
+    /** 上传压缩策略，为空时不压缩 */
+    private volatile CompressionPolicy compression;
+
+    /** 本地磁盘对象缓存，为空时下载直接读对象存储 */
+    private volatile ObjectCache objectCache;
+
+    /** 进程内的小对象缓存，为空时不使用 */
+    private volatile MemoryObjectCache memoryCache;
+
+    /** 容器在内存中保存的上传内容大小上限，不超过的MultipartFile直接从内存上传 */
+    private volatile long multipartMemoryThreshold;
+
+    /** 上传时携带的附加校验和，为空时不携带 */
+    private volatile ChecksumAlgorithm checksumAlgorithm;
+
+    /** 打包对象读取，缓存打包索引 */
+    private final PackReader packReader = new PackReader(this);
+
+    /** 合并同一对象的并发读取，区间请求经过它读取对象 */
+    private final SingleFlightSource singleFlight = new SingleFlightSource(this);
+
+    private final RangeServer rangeServer = new RangeServer(singleFlight);
+
+    private final PresignedUrlCache presignedUrlCache = new PresignedUrlCache();
+
+    /** 分片上传除最后一个分片外的最小分片大小 */
+    private static final long MIN_PART_SIZE = 5 * 1024 * 1024L;
+
+    /** 单个复制分片的最大长度 */
+    private static final long MAX_COPY_PART_SIZE = 5 * 1024 * 1024 * 1024L;
+
+    /** URL长度未知时流式上传的分片大小 */
+    private static final long URL_PART_SIZE = 8 * 1024 * 1024L;
+
+    /** 追加内容前的分隔符 */
+    private static final byte[] APPEND_SEPARATOR = "\n".getBytes();
+
     public MinioTool(MinioClient minioClient) {
         this.minioClient = minioClient;
     }
 
+    /**
+     * 设置异步客户端，开启原生分片上传和已有对象的追加分片，由StorageClientFactory按MINIO_ASYNC创建
+     */
+    public void setAsyncClient(MinioAsyncClient asyncClient) {
+        this.multipartClient = asyncClient == null ? null : new MinioMultipartClient(asyncClient);
+    }
+
+    /**
+     * 设置内容索引，开启秒传，传入null关闭
+     * 开启后上传前先计算md5，相同内容的对象已存在时通过服务端复制完成上传
+     */
+    public void setContentIndex(ContentIndex contentIndex) {
+        this.contentIndex = contentIndex;
+    }
+
+    /**
+     * 设置分片上传会话登记表并启动过期会话清理任务，传入null关闭
+     * 开启后分片上传会话及其已上传分片记录在登记表中，续传时不再查询服务端，
+     * 过期的原生分片上传被取消，临时分片对象被删除
+     */
+    public void setUploadSessionRegistry(UploadSessionRegistry sessionRegistry) {
+        this.sessionRegistry = sessionRegistry;
+        if (sessionRegistry != null) {
+            sessionRegistry.startReaper(this::cleanSession);
+        }
+    }
+
+    /**
+     * 设置上传压缩策略，传入null关闭
+     * 开启后可压缩的内容压缩后上传，编码记录在用户元数据中，下载时解压或按Content-Encoding透传
+     */
+    public void setCompression(CompressionPolicy compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * 设置本地磁盘对象缓存，传入null关闭
+     * 开启后downloadFile和checkpointDownload优先读缓存的本地文件，未命中的对象在后台缓存
+     */
+    public void setObjectCache(ObjectCache objectCache) {
+        this.objectCache = objectCache;
+    }
+
+    /**
+     * 设置进程内的小对象缓存，传入null关闭
+     * 开启后downloadFile和checkpointDownload先查内存缓存，其次是本地磁盘缓存；本工具的上传、删除和复制会使对应对象的缓存失效
+     */
+    public void setMemoryCache(MemoryObjectCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * 设置容器在内存中保存的上传内容大小上限，单位字节，与spring.servlet.multipart.file-size-threshold一致
+     * 不超过该大小的MultipartFile读入内存后直接上传，不转存临时文件；默认0，全部转存
+     */
+    public void setMultipartMemoryThreshold(long multipartMemoryThreshold) {
+        this.multipartMemoryThreshold = multipartMemoryThreshold;
+    }
+
+    /**
+     * 合并并发读取的区间读取方式，只有一个读取方时直接读对象存储；本地缓存自身合并填充，不以它作为数据来源
+     */
+    public SingleFlightSource getSingleFlightSource() {
+        return singleFlight;
+    }
+
+    /**
+     * 对象被本工具覆盖或删除后，丢弃本节点上该对象的各级缓存
+     */
+    private void invalidateCaches(String bucketName, String objectName) {
+        rangeServer.invalidate(bucketName, objectName);
+        ObjectCache cache = objectCache;
+        if (cache != null) {
+            cache.invalidate(bucketName, objectName);
+        }
+        MemoryObjectCache memory = memoryCache;
+        if (memory != null) {
+            memory.invalidate(bucketName, objectName);
+        }
+    }
+
+    /**
+     * 设置上传时携带的附加校验和，支持CRC32C和SHA256，传入null关闭
+     * 开启后单次PUT完成的简单上传和临时分片对象携带x-amz-checksum-*请求头由服务端校验，校验和与md5在同一次读取中计算
+     */
+    public void setChecksumAlgorithm(ChecksumAlgorithm checksumAlgorithm) {
+        if (checksumAlgorithm == ChecksumAlgorithm.MD5) {
+            throw new IllegalArgumentException("附加校验和只支持CRC32C和SHA256");
+        }
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
     public void shutdown() {
         try {
             if (minioClient != null) {
@@ -347,6 +500,7 @@ public class MinioTool {
                     .bucket(bucketName)
                     .object(objectName)
                     .build());
+            invalidateCaches(bucketName, objectName);
             return true;
         } catch (Exception e) {
             log.error("删除对象失败: " + e.getMessage());
@@ -367,6 +521,7 @@ public class MinioTool {
                     .build();
 
             minioClient.removeObjects(build);
+            objectNames.forEach(item -> invalidateCaches(bucketName, item));
             return true; // 此处返回true，即使部分删除失败
         } catch (Exception e) {
             log.error("删除对象失败: " + e.getMessage(), e);
@@ -421,6 +576,7 @@ public class MinioTool {
                     .object(targetObjectName)
                     .build();
             minioClient.copyObject(copyObjectArgs);
+            invalidateCaches(targetBucketName, targetObjectName);
             return true;
         } catch (Exception e) {
             log.error("复制对象失败: " + e.getMessage());
@@ -471,6 +627,8 @@ public class MinioTool {
     /********** 上传操作 **********/
     /**
      * 简单上传，MultipartFile类型上传单文件
+     * 文件先转存为本地临时文件（容器已暂存到磁盘时只移动文件）并计算md5，再由minio按文件上传，容器保存在内存中的文件直接从内存上传，
+     * File-Md5元数据随上传一起写入；开启秒传时相同内容的对象已存在则直接复制
      *
      * @param bucketName 桶名
      * @param objectName 对象名
@@ -478,21 +636,24 @@ public class MinioTool {
      * @return true/false
      */
     public Boolean uploadFile(String bucketName, String objectName, MultipartFile file,Map<String, String> userMetadata) {
-        try (InputStream fis = file.getInputStream()) {
-            String md5 = DigestUtil.md5Hex(fis);
-            userMetadata.put("File-Md5", md5);
-            PutObjectArgs build = PutObjectArgs.builder()
-                    .bucket(bucketName)
-                    .object(objectName)
-                    .stream(file.getInputStream(), file.getSize(), -1)
-                    .contentType(file.getContentType())
-                    .userMetadata(userMetadata)
-                    .build();
-            minioClient.putObject(build);
+        ChecksumAlgorithm algorithm = checksumAlgorithm;
+        try (DigestSpool spool = DigestSpool.spool(file, multipartMemoryThreshold, checksumAlgorithms(algorithm))) {
+            String contentType = file.getContentType() == null ? "application/octet-stream" : file.getContentType();
+            if (instantUpload(spool.getMd5Hex(), bucketName, objectName, contentType, userMetadata)) {
+                return true;
+            }
+            userMetadata.put("File-Md5", spool.getMd5Hex());
+            try (DigestSpool compressed = compress(spool, contentType, objectName, userMetadata)) {
+                DigestSpool body = compressed == null ? spool : compressed;
+                uploadSpool(bucketName, objectName, body, contentType, userMetadata, checksumHeaders(algorithm, body));
+            }
+            recordContent(spool.getMd5Hex(), spool.getMd5Hex(), bucketName, objectName);
             log.info("上传文件" + objectName + "成功");
             return true;
         } catch (Exception e) {
             log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
         }
         return false;
     }
@@ -502,6 +663,7 @@ public class MinioTool {
 
     /**
      * 简单上传，InputStream类型上传单文件
+     * 输入流只能读取一次且长度未知，先边读边算md5暂存到本地临时文件，再从临时文件上传
      *
      * @param bucketName  桶名
      * @param objectName  对象名
@@ -510,21 +672,33 @@ public class MinioTool {
      * @return true/false
      */
     public Boolean uploadFile(String bucketName, String objectName, InputStream inputStream, String contentType,Map<String, String> userMetadata) {
-        try {
-            String md5 = DigestUtil.md5Hex(inputStream);
-            userMetadata.put("File-Md5", md5);
-            PutObjectArgs build = PutObjectArgs.builder()
-                    .bucket(bucketName)
-                    .object(objectName)
-                    .stream(inputStream, inputStream.available(), -1)
-                    .contentType(contentType)
-                    .userMetadata(userMetadata)
-                    .build();
-            minioClient.putObject(build);
+        ChecksumAlgorithm algorithm = checksumAlgorithm;
+        try (DigestSpool spool = DigestSpool.spool(inputStream, null, checksumAlgorithms(algorithm))) {
+            if (instantUpload(spool.getMd5Hex(), bucketName, objectName, contentType, userMetadata)) {
+                return true;
+            }
+            userMetadata.put("File-Md5", spool.getMd5Hex());
+            try (DigestSpool compressed = compress(spool, contentType, objectName, userMetadata)) {
+                DigestSpool body = compressed == null ? spool : compressed;
+                try (InputStream spoolInputStream = body.newInputStream()) {
+                    PutObjectArgs build = PutObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .stream(spoolInputStream, body.getSize(), -1)
+                            .contentType(contentType)
+                            .userMetadata(userMetadata)
+                            .extraHeaders(checksumHeaders(algorithm, body))
+                            .build();
+                    minioClient.putObject(build);
+                }
+            }
+            recordContent(spool.getMd5Hex(), spool.getMd5Hex(), bucketName, objectName);
             log.info("上传文件" + objectName + "成功");
             return true;
         } catch (Exception e) {
             log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
         }
         return false;
     }
@@ -546,21 +720,15 @@ public class MinioTool {
             log.error("分片大小不能小于5MB");
             return false;
         }
-        try (InputStream fis = Files.newInputStream(Paths.get(filePath))) {
-            String md5 = DigestUtil.md5Hex(fis);
-            userMetadata.put("File-Md5", md5);
-
-            UploadObjectArgs build = UploadObjectArgs.builder()
-                    .bucket(bucketName)
-                    .object(objectName)
-                    .userMetadata(userMetadata)
-                    .filename(filePath, partSize)
-                    .build();
-            minioClient.uploadObject(build);
+        try {
+            Path path = Paths.get(filePath);
+            putObjectHashed(bucketName, objectName, "application/octet-stream", userMetadata, () -> Files.newInputStream(path), Files.size(path), partSize);
             log.info("上传文件" + objectName + "成功");
             return true;
         } catch (Exception e) {
             log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
         }
         return false;
     }
@@ -569,244 +737,585 @@ public class MinioTool {
     }
 
     /**
-     * 简单上传，文件URL类型上传单文件
-     *
-     * @param bucketName 桶名
-     * @param objectName 对象名
-     * @param fileUrl    文件URL
-     * @return true/false
+     * 边上传边计算md5，上传完成后通过复制自身替换元数据的方式写入File-Md5，只用于不能重复读取的流
+     * 解释：minio对同一对象只替换元数据的复制不会重写数据；复制失败时对象已上传成功，只记录警告
      */
-    public Boolean uploadUrlFile(String bucketName, String objectName, String fileUrl, Map<String, String> userMetadata) {
-        try (InputStream uploadInputStream = new URL(fileUrl).openStream()) {
-            // 获取文件大小
-            HttpURLConnection connection = (HttpURLConnection) new URL(fileUrl).openConnection();
-            connection.setRequestMethod("GET");
-            long fileSize = connection.getContentLengthLong();
-
-            PutObjectArgs.Builder builder = PutObjectArgs.builder()
+    private void putObjectHashing(String bucketName, String objectName, String contentType, Map<String, String> userMetadata,
+                                  InputStreamSource source, long size, long partSize) throws Exception {
+        if (contentType == null) {
+            contentType = "application/octet-stream";
+        }
+        String realMd5;
+        try (HashingInputStream hashingInputStream = new HashingInputStream(source.open())) {
+            ObjectWriteResponse response = minioClient.putObject(PutObjectArgs.builder()
                     .bucket(bucketName)
                     .object(objectName)
-                    .stream(uploadInputStream, fileSize, -1)
-                    .contentType("application/octet-stream");
-
-            // 读取流会造成流的指针位置改变，导致无法获取流的MD5值，因此需要重新读取流
-            InputStream md5InputStream = new URL(fileUrl).openStream();
-            String md5 = DigestUtil.md5Hex(md5InputStream);
-            userMetadata.put("File-Md5", md5);
-            builder.userMetadata(userMetadata);
-
-            minioClient.putObject(builder.build());
-            log.info("上传文件" + objectName + "成功");
-            return true;
+                    .stream(hashingInputStream, size, partSize)
+                    .contentType(contentType)
+                    .userMetadata(userMetadata)
+                    .build());
+            realMd5 = hashingInputStream.getMd5Hex();
+            checkEtag(response, realMd5);
+        }
+        userMetadata.put("File-Md5", realMd5);
+        try {
+            minioClient.copyObject(CopyObjectArgs.builder()
+                    .source(CopySource.builder().bucket(bucketName).object(objectName).build())
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .headers(Collections.singletonMap("Content-Type", contentType))
+                    .userMetadata(userMetadata)
+                    .metadataDirective(Directive.REPLACE)
+                    .build());
         } catch (Exception e) {
-            log.error("上传文件时发生错误: " + e.getMessage());
+            log.warn("{}文件写入File-Md5失败: {}", objectName, e.getMessage());
         }
-        return false;
     }
-    public Boolean uploadUrlFile(String bucketName, String objectName, String fileUrl) {
-        return uploadUrlFile(bucketName, objectName, fileUrl, new HashMap<>());
+
+    /**
+     * 可以重复读取的内容：先计算md5查找秒传，未命中时File-Md5随上传请求一起写入，
+     * 不超过一个分片时同时携带Content-MD5由服务端校验，完成后记录到内容索引
+     */
+    private void putObjectHashed(String bucketName, String objectName, String contentType, Map<String, String> userMetadata,
+                                 InputStreamSource source, long size, long partSize) throws Exception {
+        if (contentType == null) {
+            contentType = "application/octet-stream";
+        }
+        String realMd5;
+        try (InputStream inputStream = source.open()) {
+            realMd5 = DigestUtil.md5Hex(inputStream);
+        }
+        if (instantUpload(realMd5, bucketName, objectName, contentType, userMetadata)) {
+            return;
+        }
+        userMetadata.put("File-Md5", realMd5);
+        Map<String, String> headers = size <= partSize
+                ? Collections.singletonMap("Content-MD5", Base64.getEncoder().encodeToString(HexUtil.decodeHex(realMd5)))
+                : Collections.emptyMap();
+        try (InputStream inputStream = source.open()) {
+            ObjectWriteResponse response = minioClient.putObject(PutObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .stream(inputStream, size, partSize)
+                    .contentType(contentType)
+                    .headers(headers)
+                    .userMetadata(userMetadata)
+                    .build());
+            checkEtag(response, realMd5);
+        }
+        recordContent(realMd5, realMd5, bucketName, objectName);
+    }
+
+    /**
+     * 单次上传的etag就是内容md5，不一致说明上传的内容有误；分片上传的etag带有"-"，不比对
+     */
+    private static void checkEtag(ObjectWriteResponse response, String realMd5) throws IOException {
+        String etag = response.etag() == null ? null : response.etag().replace("\"", "");
+        if (etag != null && !etag.contains("-") && !etag.equalsIgnoreCase(realMd5)) {
+            throw new IOException("上传后etag与计算的md5不一致，etag: " + etag + "，md5: " + realMd5);
+        }
     }
 
     /**
-     * 追加新内容上传，适用于问本，不计算md5
+     * 秒传：内容索引中有相同hash的对象时，通过服务端复制完成上传
+     * 源对象已删除或etag已变化时清理该记录；复制失败（如源对象超过5g）时返回false，由调用方继续正常上传
      *
-     * @param bucketName
-     * @param targetObjectName
-     * @param file
-     * @return true/false
+     * @param hash 文件md5或分片上传etag
+     * @return 是否已通过复制完成上传
      */
-    public Boolean appendUpload(String bucketName, String targetObjectName, MultipartFile file) {
-        try (InputStream inputStream = minioClient.getObject(GetObjectArgs.builder()
-                .bucket(bucketName)
-                .object(targetObjectName)
-                .build());
-             ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            // 读取现有对象内容并写入输出流
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, len);
-            }
-
-            // 追加新文件内容，分批次写入
-            outputStream.write("\n".getBytes());
-            try (InputStream fileInputStream = file.getInputStream()) {
-                while ((len = fileInputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, len);
+    private boolean instantUpload(String hash, String bucketName, String objectName, String contentType, Map<String, String> userMetadata) {
+        ContentIndex index = contentIndex;
+        ContentLocation location = index == null ? null : index.get(hash);
+        if (location == null) {
+            return false;
+        }
+        try {
+            StatObjectResponse source;
+            try {
+                source = minioClient.statObject(StatObjectArgs.builder()
+                        .bucket(location.getBucketName())
+                        .object(location.getObjectName())
+                        .build());
+            } catch (ErrorResponseException e) {
+                if (!"NoSuchKey".equals(e.errorResponse().code())) {
+                    throw e;
                 }
+                source = null;
             }
-
-            // 使用新的内容直接上传到Minio，无需删除旧对象
-            try (InputStream finalInputStream = new ByteArrayInputStream(outputStream.toByteArray())) {
-                minioClient.putObject(PutObjectArgs.builder()
-                        .bucket(bucketName)
-                        .object(targetObjectName)
-                        .stream(finalInputStream, finalInputStream.available(), -1)
-                        .contentType(file.getContentType())
-                        .build());
+            if (source == null || !source.etag().replace("\"", "").equals(location.getEtag())) {
+                log.info("秒传记录已失效，源对象{}/{}已删除或被覆盖", location.getBucketName(), location.getObjectName());
+                index.remove(hash);
+                return false;
             }
-
+            if (location.getFileMd5() != null) {
+                userMetadata.put("File-Md5", location.getFileMd5());
+            }
+            CompressionPolicy.copyMetadata(source.userMetadata(), userMetadata);
+            minioClient.copyObject(CopyObjectArgs.builder()
+                    .source(CopySource.builder()
+                            .bucket(location.getBucketName())
+                            .object(location.getObjectName())
+                            .matchETag(source.etag())
+                            .build())
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .headers(Collections.singletonMap("Content-Type", contentType == null ? source.contentType() : contentType))
+                    .userMetadata(userMetadata)
+                    .metadataDirective(Directive.REPLACE)
+                    .build());
+            invalidateCaches(bucketName, objectName);
+            log.info("{}秒传成功，从{}/{}复制", objectName, location.getBucketName(), location.getObjectName());
             return true;
         } catch (Exception e) {
-            log.error("追加上传文件时发生错误: " + e.getMessage(), e);
-            return false;
+            log.warn("{}秒传失败，继续上传: {}", objectName, e.getMessage());
         }
+        return false;
     }
 
     /**
-     * 获取上传ID
+     * 按压缩策略压缩暂存的内容，压缩时在用户元数据中记录编码和原始大小
      *
-     * @return 上传ID 年月日/时分秒/uuid
+     * @return 压缩后的暂存内容，未开启压缩或不需要压缩时返回null
      */
-    public String getUploadId(String timezone) {
-        cn.hutool.core.date.DateTime dateTime = DateUtil.convertTimeZone(DateUtil.date(), ZoneId.of(timezone));
-        String datePart = DateUtil.format(dateTime, "yyyy-MM-dd");
-        String timePart = DateUtil.format(dateTime, "HH-mm-ss");
-        String uuid = IdUtil.fastUUID();
-        return datePart + "/" + timePart + "/" + uuid;
+    private DigestSpool compress(DigestSpool spool, String contentType, String objectName, Map<String, String> userMetadata) throws IOException {
+        CompressionPolicy policy = compression;
+        return policy == null ? null : policy.compress(spool, contentType, objectName, userMetadata);
     }
-    public String getUploadId() {
-        return getUploadId("Asia/Shanghai");
+
+    private static ChecksumAlgorithm[] checksumAlgorithms(ChecksumAlgorithm algorithm) {
+        return algorithm == null ? new ChecksumAlgorithm[0] : new ChecksumAlgorithm[]{algorithm};
     }
 
-    // 简单获取文件信息
-    public FileInfo createMinioFileInfo(String filePath, Long partSize, String bucketName, String objectName, String uploadId) {
-        Path path = Paths.get(filePath);
-        try (InputStream fis = Files.newInputStream(path)) {
-            String fileMd5 = DigestUtil.md5Hex(fis);
-            // 计算总分片数，并计算每个分片的MD5
-            long fileSize = Files.size(path);
-            long totalNum = fileSize / partSize + (fileSize % partSize > 0 ? 1 : 0);
-            List<FileInfo.PartInfo> parts = new ArrayList<>();
-            for (int i = 1; i <= totalNum; i++) {
-                long start = (i - 1) * partSize;
-                long end = i * partSize - 1;
-                if (i == totalNum) {
-                    end = fileSize - 1;
-                }
-                // 计算bytes[]
-                byte[] bytes = new byte[(int) (end - start + 1)];
-                String partMd5 = DigestUtil.md5Hex(bytes);
-                FileInfo.PartInfo partInfo = new FileInfo.PartInfo();
-                partInfo.setCurrentNum(StrUtil.toString(i));
-                partInfo.setPartMd5(partMd5);
-                parts.add(partInfo);
+    /**
+     * 附加校验和请求头，值为暂存内容的校验和
+     * 超过最小分片大小时minio客户端改为分片上传，整个对象的校验和不适用于各分片，不携带
+     */
+    private static Map<String, String> checksumHeaders(ChecksumAlgorithm algorithm, DigestSpool body) {
+        if (algorithm == null || body.getSize() > ObjectWriteArgs.MIN_MULTIPART_SIZE) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(algorithm.getHeader(), body.getChecksumBase64(algorithm));
+    }
+
+    /**
+     * 上传暂存的内容，内存中的内容从数组发送，临时文件由minio按文件上传
+     */
+    private void uploadSpool(String bucketName, String objectName, DigestSpool spool, String contentType,
+                             Map<String, String> userMetadata, Map<String, String> extraHeaders) throws Exception {
+        if (spool.isInMemory()) {
+            PutObjectArgs.Builder builder = PutObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .stream(new ByteArrayInputStream(spool.getData()), spool.getSize(), -1)
+                    .userMetadata(userMetadata)
+                    .extraHeaders(extraHeaders);
+            if (contentType != null) {
+                builder.contentType(contentType);
             }
+            minioClient.putObject(builder.build());
+            return;
+        }
+        UploadObjectArgs.Builder builder = UploadObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName)
+                .filename(spool.getPath().toString())
+                .userMetadata(userMetadata)
+                .extraHeaders(extraHeaders);
+        if (contentType != null) {
+            builder.contentType(contentType);
+        }
+        minioClient.uploadObject(builder.build());
+    }
 
-            FileInfo fileInfo = new FileInfo();
-            fileInfo.setBucketName(bucketName);
-            fileInfo.setObjectName(objectName);
-            fileInfo.setUploadId(uploadId);
-            fileInfo.setTotalNum(StrUtil.toString(totalNum));
-            fileInfo.setFileMd5(fileMd5);
-            fileInfo.setParts(parts);
-            return fileInfo;
+    /**
+     * 上传完成后记录到内容索引，同时记录服务端etag，供秒传前校验源对象未被覆盖
+     * hash为分片上传etag时，只有与服务端etag一致才记录，保证分片md5经过服务端校验
+     *
+     * @param hash    文件md5或分片上传etag
+     * @param fileMd5 本工具计算的文件md5，未知时为null
+     */
+    private void recordContent(String hash, String fileMd5, String bucketName, String objectName) {
+        ContentIndex index = contentIndex;
+        if (index == null || hash == null) {
+            return;
+        }
+        try {
+            StatObjectResponse object = minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .build());
+            String etag = object.etag().replace("\"", "");
+            if (hash.contains("-") && !hash.equalsIgnoreCase(etag)) {
+                return;
+            }
+            index.put(hash, new ContentLocation(bucketName, objectName, object.size(), etag, fileMd5, System.currentTimeMillis()));
         } catch (Exception e) {
-            log.error("计算分片MD5时发生错误: " + e.getMessage());
+            log.warn("记录{}到内容索引失败: {}", objectName, e.getMessage());
         }
-        return null;
     }
 
     /**
-     * 上传分片，仅支持分片小于5mb的分片
-     *
-     * @param tmpPath       分片上传的临时路径，若不指定，则默认在tmpFilePart/uploadId/下
-     * @param fileInfo 文件详细信息
-     * @param files         分片文件列表
-     * @param Md5           是否开启md5校验，不开启为普通分片上传，开启为断点续传上传
-     * @return true/false
-     * minioFileInfo和file，需要使用RequestPart注解
-     * fileInfo 需要content-type为application/json
+     * 计算分片上传的内容hash，用于分片上传前查找秒传
+     * 仅在开启秒传、本次提交了全部分片且每个分片的实际md5与声明一致时返回，否则为null
      */
-    public Boolean multipartUpload(String tmpPath, FileInfo fileInfo, List<MultipartFile> files , Map<String, String> userMetadata, Boolean Md5) {
+    private String partsContentHash(FileInfo fileInfo, List<MultipartFile> files) throws IOException {
         List<FileInfo.PartInfo> parts = fileInfo.getParts();
-        if (CollectionUtil.isEmpty(parts) || CollectionUtil.isEmpty(files) || parts.size() != files.size()) {
-            log.error("分片信息与分片文件数量不匹配");
-            return false;
+        if (contentIndex == null || Convert.toInt(fileInfo.getTotalNum(), -1) != parts.size()) {
+            return null;
         }
+        List<String> partMd5List = new ArrayList<>(parts.size());
         for (int i = 0; i < files.size(); i++) {
+            String partMd5;
             try (InputStream inputStream = files.get(i).getInputStream()) {
-                String tempPartName = tmpPath + "/" + fileInfo.getUploadId() + "/part-" + parts.get(i).getCurrentNum();
-                if (Md5) {
-                    String filePartMd5 = DigestUtil.md5Hex(inputStream);
-                    String partMd5 = parts.get(i).getPartMd5();
-
-                    // 检验分片MD5
-                    if (!filePartMd5.equals(partMd5)) {
-                        log.error("{}文件的分片{} MD5 异常，请检查", fileInfo.getObjectName(), parts.get(i).getCurrentNum());
-                        return false;
-                    }
-
-                    // 检验分片是否已上传
-
-                    if (isObjectExists(fileInfo.getBucketName(), tempPartName)) {
-                        log.info("{}文件的分片{}已存在，无需上传", fileInfo.getObjectName(), parts.get(i).getCurrentNum());
-                        continue;
-                    }
-                }
-                log.info("开始上传 {} 文件的分片{}", fileInfo.getObjectName(), parts.get(i).getCurrentNum());
-                userMetadata.put("Upload-Id", fileInfo.getUploadId());
-                userMetadata.put("Total-Num", fileInfo.getTotalNum());
-                userMetadata.put("Current-Num", parts.get(i).getCurrentNum());
-                userMetadata.put("Part-Md5", parts.get(i).getPartMd5());
-
-                PutObjectArgs builder = PutObjectArgs.builder()
-                        .bucket(fileInfo.getBucketName())
-                        .object(tempPartName)
-                        .stream(files.get(i).getInputStream(), files.get(i).getSize(), -1)
-                        .userMetadata(userMetadata)
-                        .contentType(files.get(i).getContentType())
-                        .build();
-
-                minioClient.putObject(builder);
-                log.info("分片{}上传成功", parts.get(i).getCurrentNum());
-            } catch (Exception e) {
-                log.error(StrUtil.format("{}文件的分片{}上传文件时发生错误: {}", fileInfo.getObjectName(), parts.get(i).getCurrentNum(), e.getMessage()));
-                return false;
+                partMd5 = DigestUtil.md5Hex(inputStream);
             }
+            if (!partMd5.equalsIgnoreCase(parts.get(i).getPartMd5())) {
+                return null;
+            }
+            partMd5List.add(partMd5);
         }
-        log.info("{}文件的分片上传完成", fileInfo.getObjectName());
-        return true;
-    }
-    public Boolean multipartUpload(FileInfo fileInfo, List<MultipartFile> files) {
-        return multipartUpload("tmpFilePart", fileInfo, files,new HashMap<>(), false);
-    }
-    public Boolean multipartUpload(FileInfo fileInfo, List<MultipartFile> files, Boolean Md5) {
-        return multipartUpload("tmpFilePart", fileInfo, files, new HashMap<>(),Md5);
+        return calculateETag(partMd5List, partMd5List.size());
     }
 
     /**
-     * 合并分片上传
+     * 简单上传，文件URL类型上传单文件
+     * 远程文件只下载一次，边上传边计算md5，长度未知时由minio按分片大小流式分片上传
      *
-     * @param tmpPath       分片上传的临时路径，若不指定，则默认在tmpFilePart/uploadId/下
-     * @param fileInfo 文件详细信息
-     * @param Md5           是否开启md5校验，不开启为普通分片合并，开启可启动秒传
-     *                      开启md5多一次api调用，但可以保证上传的完整性
-     * @return
+     * @param bucketName     桶名
+     * @param objectName     对象名
+     * @param fileUrl        文件URL
+     * @param connectTimeout 连接超时，毫秒
+     * @param readTimeout    读取超时，毫秒
+     * @return true/false
+     */
+    public Boolean uploadUrlFile(String bucketName, String objectName, String fileUrl, Map<String, String> userMetadata,
+                                 int connectTimeout, int readTimeout) {
+        try (UrlSource urlSource = UrlSource.open(fileUrl, connectTimeout, readTimeout)) {
+            long fileSize = urlSource.getContentLength();
+            putObjectHashing(bucketName, objectName, urlSource.getContentType(), userMetadata, urlSource::getInputStream,
+                    fileSize, fileSize < 0 ? URL_PART_SIZE : -1);
+            log.info("上传文件" + objectName + "成功");
+            return true;
+        } catch (Exception e) {
+            log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
+        }
+        return false;
+    }
+    public Boolean uploadUrlFile(String bucketName, String objectName, String fileUrl, Map<String, String> userMetadata) {
+        return uploadUrlFile(bucketName, objectName, fileUrl, userMetadata, UrlSource.DEFAULT_CONNECT_TIMEOUT, UrlSource.DEFAULT_READ_TIMEOUT);
+    }
+    public Boolean uploadUrlFile(String bucketName, String objectName, String fileUrl) {
+        return uploadUrlFile(bucketName, objectName, fileUrl, new HashMap<>());
+    }
+
+    /**
+     * 流式上传长度未知的输入流，由minio按分片大小流式分片上传，不暂存到本地，没有大小限制
+     * 适用于直接读取请求体的上传，不会关闭传入的流
+     *
+     * @param bucketName   桶名
+     * @param objectName   对象名
+     * @param inputStream  输入流
+     * @param contentType  文件类型
+     * @param userMetadata 用户自定义元数据
+     * @return true/false
+     */
+    public Boolean uploadStream(String bucketName, String objectName, InputStream inputStream, String contentType,
+                                Map<String, String> userMetadata) {
+        try {
+            putObjectHashing(bucketName, objectName, contentType, userMetadata, () -> new FilterInputStream(inputStream) {
+                @Override
+                public void close() {
+                    // 不关闭调用方的流
+                }
+            }, -1, URL_PART_SIZE);
+            log.info("上传文件" + objectName + "成功");
+            return true;
+        } catch (Exception e) {
+            log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
+        }
+        return false;
+    }
+
+    /**
+     * 流式上传multipart/form-data请求中的全部文件，直接解析请求体，文件内容边接收边分片上传
+     * 对象名为表单项prefix加上文件名，prefix需放在文件之前
+     *
+     * @return 每个文件的上传结果
+     */
+    public List<ListResult> streamUpload(String bucketName, HttpServletRequest request) {
+        return MultipartFormReader.uploadFiles(request, (objectName, contentType, inputStream) ->
+                uploadStream(bucketName, objectName, inputStream, contentType, new HashMap<>()));
+    }
+
+    /**
+     * 追加新内容上传，适用于文本，不计算md5
+     * 已有对象不小于5MB时通过原生分片上传追加：已有内容按不超过5GB的区间在服务端复制为前面的分片，
+     * 只上传换行符和新内容作为最后一个分片，新内容暂存为本地临时文件后流式上传，不读入堆内存
+     * 已有对象小于5MB时不能作为复制分片，改为把已有对象流和新内容流顺序拼接后重新上传
+     * 追加后原有的File-Md5元数据不再准确，会被去掉，其余元数据保留
+     * 已有对象是压缩存储的，追加内容用同一编码压缩后拼接，并更新原始大小
+     *
+     * @param bucketName
+     * @param targetObjectName
+     * @param file
+     * @return true/false
+     */
+    public Boolean appendUpload(String bucketName, String targetObjectName, MultipartFile file) {
+        try {
+            StatObjectResponse stat = minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(targetObjectName)
+                    .build());
+            Map<String, String> userMetadata = new HashMap<>(stat.userMetadata());
+            userMetadata.remove("File-Md5");
+            userMetadata.remove("file-md5");
+            String contentType = file.getContentType() != null ? file.getContentType() : stat.contentType();
+            try (DigestSpool compressed = CompressionPolicy.compressAppend(userMetadata, () -> appendStream(file),
+                    APPEND_SEPARATOR.length + file.getSize())) {
+                InputStreamSource appendSource = compressed == null ? () -> appendStream(file) : compressed::newInputStream;
+                long appendSize = compressed == null ? APPEND_SEPARATOR.length + file.getSize() : compressed.getSize();
+                appendUpload(bucketName, targetObjectName, stat, userMetadata, contentType, appendSource, appendSize, compressed);
+                invalidateCaches(bucketName, targetObjectName);
+                return true;
+            }
+        } catch (Exception e) {
+            log.error("追加上传文件时发生错误: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 从暂存的临时文件上传一个分片，由minio按文件流式发送，不把分片内容读入堆内存
+     */
+    private static String uploadFilePart(MinioMultipartClient client, String bucketName, String objectName, String uploadId,
+                                         int partNumber, DigestSpool spool) throws Exception {
+        if (spool.getSize() > MAX_COPY_PART_SIZE) {
+            throw new IOException("追加内容超过单个分片5GB的上限");
+        }
+        try (RandomAccessFile file = new RandomAccessFile(spool.getPath().toFile(), "r")) {
+            return client.uploadPart(bucketName, objectName, uploadId, partNumber, file, spool.getSize(), null);
+        }
+    }
+
+    private static InputStream appendStream(MultipartFile file) throws IOException {
+        return new SequenceInputStream(new ByteArrayInputStream(APPEND_SEPARATOR), file.getInputStream());
+    }
+
+    /**
+     * 把追加内容拼接到已有对象之后
+     *
+     * @param appendSource 追加的内容，包括分隔符
+     * @param appendSize   追加内容的大小
+     * @param appendSpool  已暂存的追加内容，为null时需要分片上传才从appendSource暂存到临时文件
+     */
+    private void appendUpload(String bucketName, String targetObjectName, StatObjectResponse stat, Map<String, String> userMetadata,
+                              String contentType, InputStreamSource appendSource, long appendSize, DigestSpool appendSpool) throws Exception {
+        if (stat.size() < MIN_PART_SIZE) {
+            try (InputStream existingInputStream = minioClient.getObject(GetObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(targetObjectName)
+                    .matchETag(stat.etag())
+                    .build());
+                 InputStream appendInputStream = appendSource.open();
+                 InputStream finalInputStream = new SequenceInputStream(existingInputStream, appendInputStream)) {
+                minioClient.putObject(PutObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(targetObjectName)
+                        .stream(finalInputStream, stat.size() + appendSize, -1)
+                        .contentType(contentType)
+                        .userMetadata(userMetadata)
+                        .build());
+            }
+            return;
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", contentType);
+        userMetadata.forEach((key, value) -> headers.put("x-amz-meta-" + key, value));
+        MinioMultipartClient client = getMultipartClient();
+        String uploadId = client.createMultipartUpload(bucketName, targetObjectName, headers);
+        try {
+            List<Part> parts = new ArrayList<>();
+            long objectSize = stat.size();
+            int copyNum = (int) ((objectSize + MAX_COPY_PART_SIZE - 1) / MAX_COPY_PART_SIZE);
+            long copySize = (objectSize + copyNum - 1) / copyNum;
+            for (int partNumber = 1; partNumber <= copyNum; partNumber++) {
+                long start = (partNumber - 1) * copySize;
+                long length = Math.min(copySize, objectSize - start);
+                // 复制时校验etag，避免复制到追加过程中被修改的对象
+                String etag = client.uploadPartCopy(bucketName, targetObjectName, uploadId, partNumber,
+                        bucketName, targetObjectName, start, length, stat.etag());
+                parts.add(new Part(partNumber, etag));
+            }
+
+            int appendPartNumber = copyNum + 1;
+            String etag;
+            if (appendSpool != null && !appendSpool.isInMemory()) {
+                etag = uploadFilePart(client, bucketName, targetObjectName, uploadId, appendPartNumber, appendSpool);
+            } else {
+                try (InputStream appendInputStream = appendSource.open();
+                     DigestSpool spool = DigestSpool.spool(appendInputStream)) {
+                    etag = uploadFilePart(client, bucketName, targetObjectName, uploadId, appendPartNumber, spool);
+                }
+            }
+            parts.add(new Part(appendPartNumber, etag));
+
+            client.completeMultipartUpload(bucketName, targetObjectName, uploadId, parts.toArray(new Part[0]));
+        } catch (Exception e) {
+            abortMultipartUpload(bucketName, targetObjectName, uploadId);
+            throw e;
+        }
+    }
+
+    /**
+     * 获取上传ID
+     *
+     * @return 上传ID 年月日/时分秒/uuid
+     */
+    public String getUploadId(String timezone) {
+        cn.hutool.core.date.DateTime dateTime = DateUtil.convertTimeZone(DateUtil.date(), ZoneId.of(timezone));
+        String datePart = DateUtil.format(dateTime, "yyyy-MM-dd");
+        String timePart = DateUtil.format(dateTime, "HH-mm-ss");
+        String uuid = IdUtil.fastUUID();
+        return datePart + "/" + timePart + "/" + uuid;
+    }
+    public String getUploadId() {
+        return getUploadId("Asia/Shanghai");
+    }
+
+    /**
+     * 获取文件分片信息，分片md5由PartManifestBuilder并行计算，整个文件的md5在同一轮读取中得到
+     * 每个分片同时给出crc32c，上传分片时优先用crc32c校验
+     */
+    public FileInfo createMinioFileInfo(String filePath, Long partSize, String bucketName, String objectName, String uploadId) {
+        try {
+            FileInfo fileInfo = PartManifestBuilder.build(Paths.get(filePath), partSize);
+            fileInfo.setBucketName(bucketName);
+            fileInfo.setObjectName(objectName);
+            fileInfo.setUploadId(uploadId);
+            return fileInfo;
+        } catch (Exception e) {
+            log.error("计算分片MD5时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 上传分片，仅支持分片小于5mb的分片
+     *
+     * @param tmpPath       分片上传的临时路径，若不指定，则默认在tmpFilePart/uploadId/下
+     * @param fileInfo 文件详细信息
+     * @param files         分片文件列表
+     * @param Md5           是否开启md5校验，不开启为普通分片上传，开启为断点续传上传
+     * @return true/false
+     * minioFileInfo和file，需要使用RequestPart注解
+     * fileInfo 需要content-type为application/json
+     */
+    public Boolean multipartUpload(String tmpPath, FileInfo fileInfo, List<MultipartFile> files , Map<String, String> userMetadata, Boolean Md5) {
+        List<FileInfo.PartInfo> parts = fileInfo.getParts();
+        if (CollectionUtil.isEmpty(parts) || CollectionUtil.isEmpty(files) || parts.size() != files.size()) {
+            log.error("分片信息与分片文件数量不匹配");
+            return false;
+        }
+        if (tryPartsInstantUpload(fileInfo, files)) {
+            return true;
+        }
+        // 登记表中已有该会话时，以登记的分片判断是否已上传，不再逐个查询临时分片对象
+        UploadSessionRegistry registry = sessionRegistry;
+        Map<String, String> registeredParts = null;
+        if (registry != null) {
+            registeredParts = registry.getParts(fileInfo.getUploadId());
+            registry.register(fileInfo.getUploadId(), UploadSessionRegistry.TYPE_TMP_PARTS, fileInfo.getBucketName(), fileInfo.getObjectName(), tmpPath);
+        }
+        ChecksumAlgorithm algorithm = checksumAlgorithm;
+        for (int i = 0; i < files.size(); i++) {
+            // 分片转存为本地临时文件，由minio按文件上传，不再经过堆内存；转存时同时计算crc32c和附加校验和
+            try (DigestSpool spool = DigestSpool.spool(files.get(i), multipartMemoryThreshold, ChecksumAlgorithm.CRC32C, algorithm)) {
+                String tempPartName = tmpPath + "/" + fileInfo.getUploadId() + "/part-" + parts.get(i).getCurrentNum();
+                if (Md5) {
+                    String partMd5 = parts.get(i).getPartMd5();
+
+                    // 检验分片，分片信息给出crc32c时用crc32c校验，否则用md5校验
+                    if (!verifyPart(parts.get(i), spool.getChecksums())) {
+                        log.error("{}文件的分片{}校验异常，请检查", fileInfo.getObjectName(), parts.get(i).getCurrentNum());
+                        return false;
+                    }
+
+                    // 检验分片是否已上传
+                    boolean uploaded = registeredParts != null
+                            ? partMd5.equals(registeredParts.get(parts.get(i).getCurrentNum()))
+                            : isObjectExists(fileInfo.getBucketName(), tempPartName);
+                    if (uploaded) {
+                        log.info("{}文件的分片{}已存在，无需上传", fileInfo.getObjectName(), parts.get(i).getCurrentNum());
+                        continue;
+                    }
+                }
+                log.info("开始上传 {} 文件的分片{}", fileInfo.getObjectName(), parts.get(i).getCurrentNum());
+                userMetadata.put("Upload-Id", fileInfo.getUploadId());
+                userMetadata.put("Total-Num", fileInfo.getTotalNum());
+                userMetadata.put("Current-Num", parts.get(i).getCurrentNum());
+                userMetadata.put("Part-Md5", parts.get(i).getPartMd5());
+
+                uploadSpool(fileInfo.getBucketName(), tempPartName, spool, files.get(i).getContentType(), userMetadata,
+                        checksumHeaders(algorithm, spool));
+                if (registry != null) {
+                    registry.recordPart(fileInfo.getUploadId(), Convert.toInt(parts.get(i).getCurrentNum(), i + 1), parts.get(i).getPartMd5());
+                }
+                log.info("分片{}上传成功", parts.get(i).getCurrentNum());
+            } catch (Exception e) {
+                log.error(StrUtil.format("{}文件的分片{}上传文件时发生错误: {}", fileInfo.getObjectName(), parts.get(i).getCurrentNum(), e.getMessage()));
+                return false;
+            }
+        }
+        log.info("{}文件的分片上传完成", fileInfo.getObjectName());
+        return true;
+    }
+    public Boolean multipartUpload(FileInfo fileInfo, List<MultipartFile> files) {
+        return multipartUpload("tmpFilePart", fileInfo, files,new HashMap<>(), false);
+    }
+    public Boolean multipartUpload(FileInfo fileInfo, List<MultipartFile> files, Boolean Md5) {
+        return multipartUpload("tmpFilePart", fileInfo, files, new HashMap<>(),Md5);
+    }
+
+    /**
+     * 合并分片上传
+     *
+     * @param tmpPath       分片上传的临时路径，若不指定，则默认在tmpFilePart/uploadId/下
+     * @param fileInfo 文件详细信息
+     * @param Md5           是否开启md5校验，不开启为普通分片合并，开启可启动秒传
+     *                      开启md5多一次api调用，但可以保证上传的完整性
+     * @return
      */
     public Boolean composeMultipartUpload(String tmpPath, FileInfo fileInfo, Map<String, String> userMetadata, Boolean Md5) {
         try {
             List<Item> items = listObjects(fileInfo.getBucketName(), tmpPath + "/" + fileInfo.getUploadId());
 
+            List<String> partMd5List = fileInfo.getParts().stream()
+                    .map(item -> item.getPartMd5())
+                    .collect(Collectors.toList());
+            String calculatedEtag = calculateETag(partMd5List, partMd5List.size());
+
             // 检查目标对象是否已经存在
             if (Md5) {
                 StatObjectResponse object = getObject(fileInfo.getBucketName(), fileInfo.getObjectName());
-                String calculatedEtag = object.userMetadata().get("etag");
-                if (object.etag().equals(calculatedEtag)) {
+                if (object.etag().equals(object.userMetadata().get("etag"))) {
                     log.info("文件已存在且MD5匹配，无需合并");
                     return true; // 直接返回，表示无需再次合并,秒传
                 }
             }
+            if (isInstantUploaded(fileInfo, calculatedEtag)) {
+                return true;
+            }
 
             // 查询分片对象
             if (Convert.toInt(fileInfo.getTotalNum()) != items.size()) {
                 log.error(String.format("分片数量不一致，合并失败，提供分片数量：%s，查询到分片数量：%s", fileInfo.getTotalNum(), items.size()));
                 return false;
             }
-            List<String> partMd5List = fileInfo.getParts().stream()
-                    .map(item -> item.getPartMd5())
-                    .collect(Collectors.toList());
-            String calculatedEtag = calculateETag(partMd5List, partMd5List.size());
             userMetadata.put("ETag", calculatedEtag);
             log.info("合并对象不存在，开始合并分片");
 
@@ -826,9 +1335,12 @@ public class MinioTool {
                     .build();
             // 合并分片
             minioClient.composeObject(composeObjectArgs);
+            invalidateCaches(fileInfo.getBucketName(), fileInfo.getObjectName());
+            recordContent(calculatedEtag, null, fileInfo.getBucketName(), fileInfo.getObjectName());
             // 删除临时文件
             if (deleteObject(fileInfo.getBucketName(), items.stream().map(Item::objectName).collect(Collectors.toList()))) {
                 log.info("合并分片成功，删除临时分片成功");
+                removeSession(fileInfo.getUploadId());
             }
             return true;
         } catch (Exception e) {
@@ -843,6 +1355,45 @@ public class MinioTool {
         return composeMultipartUpload("tmpFilePart", fileInfo, new HashMap<>(), false);
     }
 
+    /**
+     * 校验分片内容，分片信息给出crc32c时比较crc32c，否则比较md5
+     */
+    private static boolean verifyPart(FileInfo.PartInfo part, ChecksumResult checksums) {
+        if (StrUtil.isNotEmpty(part.getPartCrc32c())) {
+            return part.getPartCrc32c().equalsIgnoreCase(checksums.getCrc32c());
+        }
+        return checksums.getMd5() != null && checksums.getMd5().equals(part.getPartMd5());
+    }
+
+    /**
+     * 分片上传前查找秒传，命中时复制到目标对象，分片上传的etag写入ETag元数据，供合并时判断
+     */
+    private boolean tryPartsInstantUpload(FileInfo fileInfo, List<MultipartFile> files) {
+        try {
+            String contentHash = partsContentHash(fileInfo, files);
+            return contentHash != null && instantUpload(contentHash, fileInfo.getBucketName(), fileInfo.getObjectName(), null,
+                    new HashMap<>(Collections.singletonMap("ETag", contentHash)));
+        } catch (Exception e) {
+            log.warn("{}文件秒传查找失败，继续上传: {}", fileInfo.getObjectName(), e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * 开启秒传时判断目标对象是否已由秒传生成，分片上传阶段已秒传的无需再合并
+     */
+    private boolean isInstantUploaded(FileInfo fileInfo, String calculatedEtag) {
+        if (contentIndex == null || !isObjectExists(fileInfo.getBucketName(), fileInfo.getObjectName())) {
+            return false;
+        }
+        StatObjectResponse object = getObject(fileInfo.getBucketName(), fileInfo.getObjectName());
+        if (object != null && calculatedEtag.equals(object.userMetadata().get("etag"))) {
+            log.info("文件已秒传，无需合并");
+            return true;
+        }
+        return false;
+    }
+
     /**
      * 计算ETag
      * 公式为ETag = md5(part1md5+part2md5+...)-n
@@ -869,39 +1420,300 @@ public class MinioTool {
         // 最终的ETag格式
         return hexMd5 + "-" + n;
     }
+
+    private MinioMultipartClient getMultipartClient() {
+        MinioMultipartClient client = multipartClient;
+        if (client == null) {
+            throw new IllegalStateException("未设置minio异步客户端，不能使用原生分片上传");
+        }
+        return client;
+    }
+
+    /**
+     * 原生分片上传：getNativeUploadId -> nativeMultipartUpload -> nativeComposeMultipartUpload
+     * 分片直接写入minio的分片上传会话，合并时服务端不再复制数据，也不会留下临时分片对象
+     * 失败的上传可通过abortMultipartUpload清理
+     * <p>
+     * 初始化原生分片上传，用户元数据在初始化时写入
+     *
+     * @return uploadId和uploadUrl(年月日/时分秒/uploadId)
+     */
+    public Map<String, String> getNativeUploadId(String bucketName, String objectName, Map<String, String> userMetadata, String timezone) {
+        try {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Content-Type", "application/octet-stream");
+            userMetadata.forEach((key, value) -> headers.put("x-amz-meta-" + key, value));
+            String uploadId = getMultipartClient().createMultipartUpload(bucketName, objectName, headers);
+            UploadSessionRegistry registry = sessionRegistry;
+            if (registry != null) {
+                registry.register(uploadId, UploadSessionRegistry.TYPE_MULTIPART, bucketName, objectName, null);
+            }
+            cn.hutool.core.date.DateTime dateTime = DateUtil.convertTimeZone(DateUtil.date(), ZoneId.of(timezone));
+            String datePart = DateUtil.format(dateTime, "yyyy-MM-dd");
+            String timePart = DateUtil.format(dateTime, "HH-mm-ss");
+            Map<String, String> uploadIdMap = new HashMap<>();
+            uploadIdMap.put("uploadId", uploadId);
+            uploadIdMap.put("uploadUrl", datePart + "/" + timePart + "/" + uploadId);
+            return uploadIdMap;
+        } catch (Exception e) {
+            log.error("初始化分片上传时发生错误: " + e.getMessage());
+        }
+        return Collections.emptyMap();
+    }
+    public Map<String, String> getNativeUploadId(String bucketName, String objectName) {
+        return getNativeUploadId(bucketName, objectName, new HashMap<>(), "Asia/Shanghai");
+    }
+
+    /**
+     * 原生上传分片，分片号取currentNum
+     *
+     * @param fileInfo 文件详细信息，uploadId为getNativeUploadId返回的uploadId
+     * @param files    分片文件列表
+     * @param Md5      是否开启md5校验，开启时校验分片md5并由服务端通过Content-MD5再次校验，
+     *                 已上传且etag与分片md5一致的分片跳过，用于断点续传
+     * @return true/false
+     */
+    public Boolean nativeMultipartUpload(FileInfo fileInfo, List<MultipartFile> files, Boolean Md5) {
+        List<FileInfo.PartInfo> parts = fileInfo.getParts();
+        if (CollectionUtil.isEmpty(parts) || CollectionUtil.isEmpty(files) || parts.size() != files.size()) {
+            log.error("分片信息与分片文件数量不匹配");
+            return false;
+        }
+        Map<Integer, String> uploadedParts = new HashMap<>();
+        UploadSessionRegistry registry = sessionRegistry;
+        if (Md5) {
+            // 登记表中有该会话时不再查询服务端
+            Map<String, String> registeredParts = registry == null ? null : registry.getParts(fileInfo.getUploadId());
+            if (registeredParts != null) {
+                registeredParts.forEach((partNumber, etag) -> uploadedParts.put(Integer.valueOf(partNumber), etag.replace("\"", "")));
+            } else {
+                List<Part> uploaded = listPartsForUpload(fileInfo.getBucketName(), fileInfo.getObjectName(), fileInfo.getUploadId());
+                if (uploaded == null) {
+                    return false;
+                }
+                uploaded.forEach(part -> uploadedParts.put(part.partNumber(), part.etag().replace("\"", "")));
+            }
+        }
+        if (tryPartsInstantUpload(fileInfo, files)) {
+            abortMultipartUpload(fileInfo.getBucketName(), fileInfo.getObjectName(), fileInfo.getUploadId());
+            return true;
+        }
+        for (int i = 0; i < files.size(); i++) {
+            int partNumber = Convert.toInt(parts.get(i).getCurrentNum(), i + 1);
+            try {
+                byte[] data = files.get(i).getBytes();
+                Map<String, String> headers = null;
+                if (Md5) {
+                    String partMd5 = parts.get(i).getPartMd5();
+                    // 分片信息给出crc32c时只计算crc32c在本地校验，否则计算md5并由服务端通过Content-MD5再次校验
+                    boolean crc32c = StrUtil.isNotEmpty(parts.get(i).getPartCrc32c());
+                    MultiChecksum checksum = new MultiChecksum(crc32c ? ChecksumAlgorithm.CRC32C : ChecksumAlgorithm.MD5);
+                    checksum.update(data, 0, data.length);
+                    ChecksumResult checksums = checksum.getResult();
+                    if (!verifyPart(parts.get(i), checksums)) {
+                        log.error("{}文件的分片{}校验异常，请检查", fileInfo.getObjectName(), partNumber);
+                        return false;
+                    }
+                    // 检验分片是否已上传
+                    if (partMd5.equals(uploadedParts.get(partNumber))) {
+                        log.info("{}文件的分片{}已存在，无需上传", fileInfo.getObjectName(), partNumber);
+                        continue;
+                    }
+                    if (!crc32c) {
+                        headers = Collections.singletonMap("Content-MD5", checksums.base64(ChecksumAlgorithm.MD5));
+                    }
+                }
+                log.info("开始上传 {} 文件的分片{}", fileInfo.getObjectName(), partNumber);
+                String etag = getMultipartClient().uploadPart(fileInfo.getBucketName(), fileInfo.getObjectName(), fileInfo.getUploadId(), partNumber, data, headers);
+                if (registry != null) {
+                    registry.recordPart(fileInfo.getUploadId(), partNumber, etag);
+                }
+                log.info("分片{}上传成功", partNumber);
+            } catch (Exception e) {
+                log.error(StrUtil.format("{}文件的分片{}上传文件时发生错误: {}", fileInfo.getObjectName(), partNumber, e.getMessage()));
+                return false;
+            }
+        }
+        log.info("{}文件的分片上传完成", fileInfo.getObjectName());
+        return true;
+    }
+    public Boolean nativeMultipartUpload(FileInfo fileInfo, List<MultipartFile> files) {
+        return nativeMultipartUpload(fileInfo, files, false);
+    }
+
+    /**
+     * 原生合并分片，分片etag以服务端记录为准
+     *
+     * @param fileInfo 文件详细信息
+     * @param Md5      是否开启md5校验，开启时目标对象etag与分片md5计算出的etag一致则直接秒传并取消本次上传
+     * @return true/false
+     */
+    public Boolean nativeComposeMultipartUpload(FileInfo fileInfo, Boolean Md5) {
+        try {
+            List<String> partMd5List = fileInfo.getParts().stream()
+                    .map(FileInfo.PartInfo::getPartMd5)
+                    .collect(Collectors.toList());
+            String calculatedEtag = calculateETag(partMd5List, partMd5List.size());
+            if (isInstantUploaded(fileInfo, calculatedEtag)) {
+                return true;
+            }
+            if (Md5 && isObjectExists(fileInfo.getBucketName(), fileInfo.getObjectName())) {
+                StatObjectResponse object = getObject(fileInfo.getBucketName(), fileInfo.getObjectName());
+                if (object != null && calculatedEtag.equals(object.etag().replace("\"", ""))) {
+                    log.info("文件已存在且MD5匹配，无需合并");
+                    abortMultipartUpload(fileInfo.getBucketName(), fileInfo.getObjectName(), fileInfo.getUploadId());
+                    return true;
+                }
+            }
+
+            // 登记表中分片齐全时直接使用登记的etag合并，否则以服务端记录为准
+            UploadSessionRegistry registry = sessionRegistry;
+            Map<String, String> registeredParts = registry == null ? null : registry.getParts(fileInfo.getUploadId());
+            List<Part> uploaded;
+            if (registeredParts != null && registeredParts.size() == Convert.toInt(fileInfo.getTotalNum())) {
+                uploaded = registeredParts.entrySet().stream()
+                        .map(entry -> new Part(Integer.parseInt(entry.getKey()), entry.getValue()))
+                        .collect(Collectors.toList());
+            } else {
+                uploaded = getMultipartClient().listParts(fileInfo.getBucketName(), fileInfo.getObjectName(), fileInfo.getUploadId());
+            }
+            if (Convert.toInt(fileInfo.getTotalNum()) != uploaded.size()) {
+                log.error(String.format("分片数量不一致，合并失败，提供分片数量：%s，查询到分片数量：%s", fileInfo.getTotalNum(), uploaded.size()));
+                return false;
+            }
+            log.info("合并对象不存在，开始合并分片");
+            Part[] completedParts = uploaded.stream()
+                    .sorted(Comparator.comparingInt(Part::partNumber))
+                    .map(part -> new Part(part.partNumber(), part.etag()))
+                    .toArray(Part[]::new);
+            getMultipartClient().completeMultipartUpload(fileInfo.getBucketName(), fileInfo.getObjectName(), fileInfo.getUploadId(), completedParts);
+            invalidateCaches(fileInfo.getBucketName(), fileInfo.getObjectName());
+            removeSession(fileInfo.getUploadId());
+            recordContent(calculatedEtag, null, fileInfo.getBucketName(), fileInfo.getObjectName());
+            return true;
+        } catch (Exception e) {
+            log.error("合并分片上传文件时发生错误: " + e.getMessage());
+        }
+        return false;
+    }
+    public Boolean nativeComposeMultipartUpload(FileInfo fileInfo) {
+        return nativeComposeMultipartUpload(fileInfo, false);
+    }
+
+    /** 列出特定对象和 uploadId 的所有已上传的部分 */
+    public List<Part> listPartsForUpload(String bucketName, String objectName, String uploadId) {
+        try {
+            return getMultipartClient().listParts(bucketName, objectName, uploadId);
+        } catch (Exception e) {
+            log.error("查询已上传分片时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /** 取消uploadId分片上传 */
+    public Boolean abortMultipartUpload(String bucketName, String objectName, String uploadId) {
+        try {
+            getMultipartClient().abortMultipartUpload(bucketName, objectName, uploadId);
+            removeSession(uploadId);
+            return true;
+        } catch (Exception e) {
+            log.error("取消分片上传时发生错误: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private void removeSession(String uploadId) {
+        UploadSessionRegistry registry = sessionRegistry;
+        if (registry != null) {
+            registry.remove(uploadId);
+        }
+    }
+
+    /**
+     * 清理过期的上传会话：原生分片上传取消上传，会话在服务端已不存在时视为已清理；临时分片合并删除临时分片对象
+     */
+    private boolean cleanSession(UploadSession session) throws Exception {
+        if (UploadSessionRegistry.TYPE_TMP_PARTS.equals(session.getType())) {
+            List<String> objectNames = listObjects(session.getBucketName(), session.getTmpPath() + "/" + session.getUploadId() + "/").stream()
+                    .map(Item::objectName)
+                    .collect(Collectors.toList());
+            return objectNames.isEmpty() || deleteObject(session.getBucketName(), objectNames);
+        }
+        try {
+            getMultipartClient().abortMultipartUpload(session.getBucketName(), session.getObjectName(), session.getUploadId());
+        } catch (ErrorResponseException e) {
+            if (!"NoSuchUpload".equals(e.errorResponse().code())) {
+                throw e;
+            }
+            log.info("上传会话{}在服务端已不存在", session.getUploadId());
+        }
+        return true;
+    }
     /****************************************/
 
     /********************* 下载操作 **********/
     /**
      * 简单下载，直接下载单文件
+     * 压缩存储的对象在请求方接受该编码时设置Content-Encoding透传，否则解压后返回
      *
      * @param objectName 文件名
      * @param bucketName 桶名
+     * @param request    请求，为null时压缩对象总是解压
      * @param response   响应
      * @return true/false
      */
-    public void downloadFile(String bucketName, String objectName, HttpServletResponse response) {
-        try (InputStream inputStream = minioClient.getObject(GetObjectArgs.builder()
-                .bucket(bucketName)
-                .object(objectName)
-                .build());
-             OutputStream outputStream = response.getOutputStream()) {
+    public void downloadFile(String bucketName, String objectName, HttpServletRequest request, HttpServletResponse response) {
+        if (PackReader.isPackAddress(objectName)) {
+            try {
+                packReader.download(bucketName, objectName, response);
+            } catch (Exception e) {
+                log.error("下载文件时发生错误: " + e.getMessage(), e);
+            }
+            return;
+        }
+        MemoryObjectCache memory = memoryCache;
+        ObjectCache cache = objectCache;
+        if (memory != null || cache != null) {
+            try {
+                if (memory != null) {
+                    memory.download(bucketName, objectName, request, response);
+                } else {
+                    cache.download(bucketName, objectName, request, response);
+                }
+            } catch (Exception e) {
+                log.error("下载文件时发生错误: " + e.getMessage(), e);
+            }
+            return;
+        }
+        GetObjectResponse objectStream = null;
+        try {
+            objectStream = minioClient.getObject(GetObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .build());
+            InputStream inputStream = CompressionCodec.decodeForResponse(codecOf(objectStream), objectStream, request, response);
 
             // 设置响应头
             response.setContentType("application/octet-stream");
             response.setHeader("Content-Disposition", "attachment; filename=\"" + objectName + "\"");
 
-            // 将inputStream的数据复制到outputStream
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
-            outputStream.flush();
+            // 异步写出，客户端接收慢时不占用请求线程，输入流写完后关闭
+            AsyncStreamWriter.write(request, response, inputStream);
         } catch (Exception e) {
             log.error("下载文件时发生错误: " + e.getMessage(), e);
+            IoUtil.close(objectStream);
         }
     }
+    public void downloadFile(String bucketName, String objectName, HttpServletResponse response) {
+        downloadFile(bucketName, objectName, null, response);
+    }
+
+    /**
+     * 从getObject的响应头读取对象的压缩编码，未压缩时返回null
+     */
+    private static CompressionCodec codecOf(GetObjectResponse response) {
+        return CompressionCodec.of(response.headers().get("x-amz-meta-" + CompressionCodec.METADATA_KEY));
+    }
 
     /**
      * 下载文件到本地指定位置
@@ -912,9 +1724,41 @@ public class MinioTool {
      * @param override   是否覆盖本地文件
      * @return true/false
      * 解释：不提供bucketName，默认使用当前yml配置的桶
+     * 压缩存储的对象解压后写入本地文件；超过一个区间大小的对象按downloadFileWithCheckpoint下载，中断后再次调用只下载缺少的区间
      */
     public Boolean downloadFile(String filePath, String bucketName, String objectName, Boolean override) {
         try {
+            if (PackReader.isPackAddress(objectName)) {
+                packReader.download(bucketName, objectName, Paths.get(filePath), override);
+                log.info("下载文件成功");
+                return true;
+            }
+            StatObjectResponse stat = minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .build());
+            CompressionCodec codec = CompressionCodec.fromMetadata(stat.userMetadata());
+            if (codec != null) {
+                Path path = Paths.get(filePath);
+                if (Files.exists(path) && !override) {
+                    throw new IOException("本地文件已存在: " + filePath);
+                }
+                try (InputStream inputStream = codec.decompress(minioClient.getObject(GetObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(objectName)
+                        .matchETag(stat.etag())
+                        .build()))) {
+                    Files.copy(inputStream, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+                log.info("下载文件成功");
+                return true;
+            }
+            if (stat.size() > RangedDownloader.DEFAULT_PART_SIZE) {
+                RangedDownloader.download(this, bucketName, objectName, Paths.get(filePath), RangedDownloader.DEFAULT_PART_SIZE,
+                        TransferExecutor.DEFAULT_TASK_NUM, override);
+                log.info("下载文件成功");
+                return true;
+            }
             DownloadObjectArgs build = DownloadObjectArgs.builder()
                     .bucket(bucketName)
                     .object(objectName)
@@ -933,8 +1777,44 @@ public class MinioTool {
         return downloadFile(filePath, bucketName, objectName, false);
     }
 
+    /**
+     * 分区间并发下载到本地文件，支持断点续传
+     * 对象按区间切分并发读取，按位置写入预先分配大小的临时文件，每个区间带etag由服务端校验，完成后按etag校验整个文件；
+     * 中途失败或进程崩溃后再次调用，跳过断点文件中已下载的区间，详见RangedDownloader
+     * 压缩存储的对象需要整体解压，打包对象的条目只是一个区间，这两种情况按downloadFile单流下载
+     *
+     * @param filePath   本地文件路径
+     * @param bucketName 桶名
+     * @param objectName 对象名
+     * @param partSize   区间大小，分片上传的对象使用上传时的分片大小
+     * @param taskNum    同时下载的区间数
+     * @param override   本地文件已存在时是否覆盖
+     * @return true/false
+     */
+    public Boolean downloadFileWithCheckpoint(String filePath, String bucketName, String objectName, Long partSize, Integer taskNum, Boolean override) {
+        try {
+            if (PackReader.isPackAddress(objectName) || CompressionCodec.fromMetadata(minioClient.statObject(StatObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectName)
+                    .build()).userMetadata()) != null) {
+                return downloadFile(filePath, bucketName, objectName, override);
+            }
+            RangedDownloader.download(this, bucketName, objectName, Paths.get(filePath), partSize, taskNum, override);
+            log.info("下载文件成功");
+            return true;
+        } catch (Exception e) {
+            log.error("下载文件时发生错误: " + e.getMessage());
+        }
+        return false;
+    }
+    public Boolean downloadFileWithCheckpoint(String filePath, String bucketName, String objectName) {
+        return downloadFileWithCheckpoint(filePath, bucketName, objectName, RangedDownloader.DEFAULT_PART_SIZE, TransferExecutor.DEFAULT_TASK_NUM, false);
+    }
+
     /**
      * 断点下载，根据请求头的range下载
+     * 支持后缀区间、多区间和If-None-Match/If-Modified-Since/If-Range条件请求，对象信息短时间缓存，
+     * 连续拖动进度条时每次请求只有一次区间GET
      * <img src="images/range.png"/>
      *
      * @param bucketName
@@ -943,61 +1823,273 @@ public class MinioTool {
      * @param response
      */
     public void checkpointDownload(String bucketName, String objectName, HttpServletRequest request, HttpServletResponse response) {
-        long objectSize = 0;
-        if (getObject(bucketName, objectName) != null) {
-            objectSize = getObject(bucketName, objectName).size();
-        } else {
-            log.error("对象不存在: " + objectName);
-        }
-        String rangeHeader = request.getHeader("Range");
-        try {
-            long start = 0;
-            long end = Long.MAX_VALUE;
-
-            if (rangeHeader != null) {
-                Pattern pattern = Pattern.compile("bytes=(\\d*)-(\\d*)");
-                Matcher matcher = pattern.matcher(rangeHeader);
-                if (matcher.matches()) {
-                    String startPart = matcher.group(1);
-                    String endPart = matcher.group(2);
-
-                    if (!startPart.isEmpty()) {
-                        start = Long.parseLong(startPart);
-                    }
-                    if (!endPart.isEmpty()) {
-                        end = Long.parseLong(endPart);
-                    }
-                    if (end > objectSize - 1) {
-                        end = objectSize - 1;
-                    }
-                }
-                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        MemoryObjectCache memory = memoryCache;
+        ObjectCache cache = objectCache;
+        RangeServer server = memory != null ? memory.getRangeServer() : cache != null ? cache.getRangeServer() : rangeServer;
+        try {
+            if (!server.serve(bucketName, objectName, request, response)) {
+                // 解压后的内容无法按压缩数据的字节区间定位，忽略Range返回完整的解压内容
+                response.setHeader("Content-Type", "application/octet-stream");
+                response.setHeader("Accept-Ranges", "none");
+                downloadFile(bucketName, objectName, request, response);
+            }
+        } catch (Exception e) {
+            log.error("下载文件时发生错误: " + e.getMessage(), e);
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             }
+        }
+    }
+    /****************************************/
+
+    /********************* 预签名 **********/
+    /**
+     * 生成预签名下载url，客户端直接从对象存储下载，数据不经过本服务
+     * 同一对象和有效期的url在过期前重复使用，详见PresignedUrlCache
+     *
+     * @param bucketName    桶名
+     * @param objectName    对象名
+     * @param expireSeconds url有效期，单位秒，最长7天
+     * @return url，签名失败时返回null
+     */
+    public String presignGetUrl(String bucketName, String objectName, int expireSeconds) {
+        return presign("GET/" + bucketName + "/" + objectName, expireSeconds, () -> minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                .method(Method.GET)
+                .bucket(bucketName)
+                .object(objectName)
+                .expiry(expireSeconds, TimeUnit.SECONDS)
+                .build()));
+    }
+    public String presignGetUrl(String bucketName, String objectName) {
+        return presignGetUrl(bucketName, objectName, PresignedUrlCache.DEFAULT_EXPIRE_SECONDS);
+    }
+
+    /**
+     * 生成预签名上传url，客户端用PUT直接上传到对象存储
+     */
+    public String presignPutUrl(String bucketName, String objectName, int expireSeconds) {
+        return presign("PUT/" + bucketName + "/" + objectName, expireSeconds, () -> minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                .method(Method.PUT)
+                .bucket(bucketName)
+                .object(objectName)
+                .expiry(expireSeconds, TimeUnit.SECONDS)
+                .build()));
+    }
+    public String presignPutUrl(String bucketName, String objectName) {
+        return presignPutUrl(bucketName, objectName, PresignedUrlCache.DEFAULT_EXPIRE_SECONDS);
+    }
 
-            response.setHeader("Content-Type", "application/octet-stream");
-            response.setHeader("Accept-Ranges", "bytes");
-            response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + objectSize);
+    /**
+     * 批量生成预签名下载url
+     *
+     * @return 对象名 -> url，签名失败的对象url为null
+     */
+    public Map<String, String> presignGetUrls(String bucketName, List<String> objectNames, int expireSeconds) {
+        Map<String, String> urls = new LinkedHashMap<>();
+        objectNames.forEach(objectName -> urls.put(objectName, presignGetUrl(bucketName, objectName, expireSeconds)));
+        return urls;
+    }
 
-            try (InputStream inputStream = minioClient.getObject(
-                    GetObjectArgs.builder()
+    /**
+     * 批量生成预签名上传url
+     *
+     * @return 对象名 -> url，签名失败的对象url为null
+     */
+    public Map<String, String> presignPutUrls(String bucketName, List<String> objectNames, int expireSeconds) {
+        Map<String, String> urls = new LinkedHashMap<>();
+        objectNames.forEach(objectName -> urls.put(objectName, presignPutUrl(bucketName, objectName, expireSeconds)));
+        return urls;
+    }
+
+    /**
+     * 为getNativeUploadId创建的原生分片上传生成各分片的预签名上传url，客户端直接PUT分片后由本服务合并
+     *
+     * @param partCount 分片数，分片序号从1开始
+     * @return 按分片序号排列的url，签名失败的分片url为null
+     */
+    public List<String> presignUploadPartUrls(String bucketName, String objectName, String uploadId, int partCount, int expireSeconds) {
+        List<String> urls = new ArrayList<>(partCount);
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            Map<String, String> queryParams = new HashMap<>();
+            queryParams.put("uploadId", uploadId);
+            queryParams.put("partNumber", String.valueOf(partNumber));
+            urls.add(presign("PART/" + bucketName + "/" + objectName + "#" + uploadId + "#" + partNumber, expireSeconds,
+                    () -> minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                            .method(Method.PUT)
                             .bucket(bucketName)
                             .object(objectName)
-                            .offset(start)
-                            .length(end - start + 1)
-                            .build());
-                 OutputStream out = response.getOutputStream()) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
+                            .expiry(expireSeconds, TimeUnit.SECONDS)
+                            .extraQueryParams(queryParams)
+                            .build())));
+        }
+        return urls;
+    }
+
+    private String presign(String key, int expireSeconds, Callable<String> signer) {
+        try {
+            return presignedUrlCache.get(key, expireSeconds, signer);
+        } catch (Exception e) {
+            log.error("生成预签名url失败: " + e.getMessage());
+        }
+        return null;
+    }
+    /****************************************/
+
+    /********************* 打包操作 **********/
+    /**
+     * 小文件打包上传：多个小文件依次写入一个打包对象，末尾附带索引，一次上传代替每个文件一次上传
+     * 条目名称为文件的原始文件名，之后可以用pack://打包对象名#条目名称作为对象名下载单个文件
+     *
+     * @param bucketName 桶名
+     * @param objectName 打包对象名
+     * @param files      小文件
+     * @return 写入的条目，失败时返回null
+     */
+    public List<PackEntry> uploadPack(String bucketName, String objectName, List<MultipartFile> files) {
+        try (PackWriter writer = new PackWriter()) {
+            for (MultipartFile file : files) {
+                try (InputStream inputStream = file.getInputStream()) {
+                    writer.add(file.getOriginalFilename(), inputStream);
                 }
             }
+            Path path = writer.finish();
+            Map<String, String> userMetadata = new HashMap<>();
+            userMetadata.put("Pack-Entries", String.valueOf(writer.getEntryCount()));
+            if (!uploadFile(bucketName, objectName, path.toString(), MIN_PART_SIZE, userMetadata)) {
+                return null;
+            }
+            packReader.invalidate(bucketName, objectName);
+            log.info("打包上传{}成功，共{}个文件", objectName, writer.getEntryCount());
+            return new ArrayList<>(writer.getEntries());
         } catch (Exception e) {
-            log.error("下载文件时发生错误: " + e.getMessage(), e);
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            log.error("打包上传时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 打包对象中的全部条目
+     *
+     * @return 条目列表，失败时返回空列表
+     */
+    public List<PackEntry> listPackEntries(String bucketName, String objectName) {
+        try {
+            return packReader.listEntries(bucketName, objectName);
+        } catch (Exception e) {
+            log.error("读取打包索引时发生错误: " + e.getMessage());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * 打开对象的随机读取通道，按需发起区间GET，不下载整个对象，适合读取zip中央目录、parquet文件尾等
+     * 通道自带块缓存和顺序预读，newInputStream()可得到支持skip和mark的输入流，用完需关闭
+     *
+     * @return 读取通道，对象不存在或查询失败时返回null
+     */
+    public RemoteObjectChannel openChannel(String bucketName, String objectName) {
+        try {
+            return new RemoteObjectChannel(this, bucketName, objectName);
+        } catch (Exception e) {
+            log.error("打开读取通道时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public ObjectStat stat(String bucketName, String objectName) throws Exception {
+        StatObjectResponse stat = minioClient.statObject(StatObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName)
+                .build());
+        return new ObjectStat(stat.size(), stat.etag().replace("\"", ""),
+                stat.lastModified() == null ? null : stat.lastModified().toInstant().toEpochMilli(), stat.userMetadata());
+    }
+
+    @Override
+    public InputStream openRange(String bucketName, String objectName, long offset, long length, String etag) throws Exception {
+        GetObjectArgs.Builder builder = GetObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName)
+                .offset(offset)
+                .length(length);
+        if (etag != null) {
+            builder.matchETag("\"" + etag + "\"");
         }
+        return minioClient.getObject(builder.build());
+    }
+
+    @Override
+    public long firstPartSize(String bucketName, String objectName) throws Exception {
+        return minioClient.statObject(StatObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectName)
+                .extraQueryParams(Collections.singletonMap("partNumber", "1"))
+                .build()).size();
     }
     /****************************************/
 
+    /********************* 目录操作 **********/
+    /**
+     * 上传本地目录到前缀下，多个文件并发上传，每个文件都通过uploadFile上传，大于partSize的文件由minio按分片上传
+     * 不超过partSize的文件先计算md5，File-Md5和Content-MD5随上传请求一起写入，只需要一次请求
+     *
+     * @param bucketName 桶名
+     * @param prefix     对象名前缀
+     * @param directory  本地目录
+     * @param partSize   分片大小
+     * @param taskNum    同时上传的文件数
+     * @return 每个文件的上传结果和吞吐量
+     */
+    public DirectoryTransferResult uploadDirectory(String bucketName, String prefix, String directory, Long partSize, Integer taskNum, Map<String, String> userMetadata) {
+        try {
+            return DirectoryTransfer.upload(Paths.get(directory), prefix, taskNum,
+                    (path, objectName, size) -> uploadFile(bucketName, objectName, path.toString(), partSize, new HashMap<>(userMetadata)));
+        } catch (Exception e) {
+            log.error("上传目录时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+    public DirectoryTransferResult uploadDirectory(String bucketName, String prefix, String directory) {
+        return uploadDirectory(bucketName, prefix, directory, 5 * 1024 * 1024L, TransferExecutor.DEFAULT_TASK_NUM, new HashMap<>());
+    }
 
-}
\ No newline at end of file
+    /**
+     * 下载前缀下的所有对象到本地目录，分页列出对象，边列边并发下载
+     *
+     * @param bucketName 桶名
+     * @param prefix     对象名前缀
+     * @param directory  本地目录
+     * @param override   是否覆盖本地已有文件
+     * @param taskNum    同时下载的文件数
+     * @return 每个文件的下载结果和吞吐量
+     */
+    public DirectoryTransferResult downloadDirectory(String bucketName, String prefix, String directory, Boolean override, Integer taskNum) {
+        try {
+            Iterable<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder()
+                    .bucket(bucketName)
+                    .prefix(prefix)
+                    .recursive(true)
+                    .build());
+            Iterable<DirectoryTransfer.RemoteFile> objects = () -> StreamSupport.stream(results.spliterator(), false)
+                    .map(result -> {
+                        try {
+                            Item item = result.get();
+                            return new DirectoryTransfer.RemoteFile(item.objectName(), item.size());
+                        } catch (Exception e) {
+                            throw new RuntimeException("列出对象时发生错误", e);
+                        }
+                    })
+                    .iterator();
+            return DirectoryTransfer.download(objects, prefix, Paths.get(directory), override, taskNum,
+                    (path, objectName, size) -> downloadFile(path.toString(), bucketName, objectName, true));
+        } catch (Exception e) {
+            log.error("下载目录时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+    public DirectoryTransferResult downloadDirectory(String bucketName, String prefix, String directory) {
+        return downloadDirectory(bucketName, prefix, directory, false, TransferExecutor.DEFAULT_TASK_NUM);
+    }
+    /****************************************/
+}
@@ -0,0 +1,186 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.yuanshuai.constants.ChecksumAlgorithm;
+import com.yuanshuai.domain.ChecksumResult;
+import org.apache.commons.codec.digest.PureJavaCrc32C;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.Checksum;
+
+/**
+ * 多校验和计算：同一批数据只读取一次，依次送入md5、crc32c、sha256中选定的几种
+ * crc32c优先使用jdk9+的java.util.zip.CRC32C（有硬件指令加速），jdk8下使用commons-codec的纯java实现
+ * <p>
+ * 非线程安全，每次计算使用新的实例
+ */
+public class MultiChecksum {
+
+    /** 读取文件和输入流时使用的缓冲区大小 */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final Constructor<? extends Checksum> JDK_CRC32C = jdkCrc32c();
+
+    private final MessageDigest md5;
+
+    private final Checksum crc32c;
+
+    private final MessageDigest sha256;
+
+    private byte[] scratch;
+
+    private long size;
+
+    /**
+     * @param algorithms 需要计算的算法，为空时只统计长度
+     */
+    public MultiChecksum(ChecksumAlgorithm... algorithms) {
+        Set<ChecksumAlgorithm> set = EnumSet.noneOf(ChecksumAlgorithm.class);
+        for (ChecksumAlgorithm algorithm : algorithms) {
+            if (algorithm != null) {
+                set.add(algorithm);
+            }
+        }
+        this.md5 = set.contains(ChecksumAlgorithm.MD5) ? DigestUtil.digester("MD5").getDigest() : null;
+        this.crc32c = set.contains(ChecksumAlgorithm.CRC32C) ? newCrc32c() : null;
+        this.sha256 = set.contains(ChecksumAlgorithm.SHA256) ? DigestUtil.digester("SHA-256").getDigest() : null;
+    }
+
+    /**
+     * crc32c校验器，jdk9+使用java.util.zip.CRC32C，否则使用纯java实现
+     */
+    public static Checksum newCrc32c() {
+        if (JDK_CRC32C != null) {
+            try {
+                return JDK_CRC32C.newInstance();
+            } catch (ReflectiveOperationException ignored) {
+                // 退化为纯java实现
+            }
+        }
+        return new PureJavaCrc32C();
+    }
+
+    public void update(byte[] bytes, int off, int len) {
+        if (md5 != null) {
+            md5.update(bytes, off, len);
+        }
+        if (crc32c != null) {
+            crc32c.update(bytes, off, len);
+        }
+        if (sha256 != null) {
+            sha256.update(bytes, off, len);
+        }
+        size += len;
+    }
+
+    /**
+     * 读取缓冲区中position到limit的数据，读取后position移到limit
+     * 直接缓冲区和内存映射缓冲区分段复制到同一个临时数组后再送入各算法，每段数据只从缓冲区读取一次
+     */
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        if (scratch == null) {
+            scratch = new byte[64 * 1024];
+        }
+        while (buffer.hasRemaining()) {
+            int len = Math.min(scratch.length, buffer.remaining());
+            buffer.get(scratch, 0, len);
+            update(scratch, 0, len);
+        }
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * 计算结果，调用后不能再更新
+     */
+    public ChecksumResult getResult() {
+        ChecksumResult result = new ChecksumResult();
+        result.setSize(size);
+        if (md5 != null) {
+            result.setMd5(HexUtil.encodeHexStr(md5.digest()));
+        }
+        if (crc32c != null) {
+            result.setCrc32c(String.format("%08x", crc32c.getValue()));
+        }
+        if (sha256 != null) {
+            result.setSha256(HexUtil.encodeHexStr(sha256.digest()));
+        }
+        return result;
+    }
+
+    /**
+     * 包装输出流，写出的数据同时参与计算，关闭返回的流时关闭被包装的流
+     */
+    public OutputStream wrap(OutputStream outputStream) {
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                update(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                update(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * 读完输入流计算校验和，不会关闭传入的流
+     */
+    public static ChecksumResult compute(InputStream inputStream, ChecksumAlgorithm... algorithms) throws IOException {
+        MultiChecksum checksum = new MultiChecksum(algorithms);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int len;
+        while ((len = inputStream.read(buffer)) != -1) {
+            checksum.update(buffer, 0, len);
+        }
+        return checksum.getResult();
+    }
+
+    /**
+     * 通过FileChannel读入直接缓冲区计算文件的校验和
+     */
+    public static ChecksumResult compute(Path path, ChecksumAlgorithm... algorithms) throws IOException {
+        MultiChecksum checksum = new MultiChecksum(algorithms);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                checksum.update(buffer);
+                buffer.clear();
+            }
+        }
+        return checksum.getResult();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Constructor<? extends Checksum> jdkCrc32c() {
+        try {
+            return (Constructor<? extends Checksum>) Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.io.file.FileNameUtil;
+import cn.hutool.core.util.StrUtil;
+import com.yuanshuai.domain.ListResult;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * multipart/form-data请求体的流式解析，直接读取servlet输入流，按顺序逐个返回表单项
+ * 文件内容边读边交给调用方，不经过MultipartFile，也不受spring.servlet.multipart的大小限制，
+ * 内存占用只有一个固定大小的读取缓冲区
+ * <p>
+ * 使用前需开启spring.servlet.multipart.resolve-lazily，否则请求体在进入控制器前已被容器解析；
+ * 读取时不能调用request.getParameter，tomcat会为此解析整个请求体
+ */
+@Slf4j
+public class MultipartFormReader {
+
+    /** 读取缓冲区大小 */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 单个表单项头部的最大长度 */
+    private static final int MAX_HEADER_SIZE = 8 * 1024;
+
+    /** 文本表单项的最大长度 */
+    private static final int MAX_FIELD_SIZE = 64 * 1024;
+
+    private static final byte CR = '\r';
+
+    private static final byte LF = '\n';
+
+    /**
+     * 逐个上传表单中的文件
+     */
+    @FunctionalInterface
+    public interface FileUploader {
+        /**
+         * @param objectName  对象名
+         * @param contentType 文件类型，未指定时为application/octet-stream
+         * @param inputStream 文件内容，读到文件末尾时返回-1，不需要关闭
+         * @return 是否上传成功
+         */
+        Boolean upload(String objectName, String contentType, InputStream inputStream) throws Exception;
+    }
+
+    private final InputStream in;
+
+    /** 分隔符：\r\n--boundary */
+    private final byte[] delimiter;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int head;
+
+    private int tail;
+
+    private boolean eof;
+
+    /** 当前缓冲区中分隔符的位置，-1为未找到，-2为需要重新查找 */
+    private int delimiterIndex = -2;
+
+    private PartInputStream current;
+
+    private boolean finished;
+
+    /**
+     * @param inputStream 请求体
+     * @param contentType 请求的Content-Type，需带boundary参数
+     */
+    public MultipartFormReader(InputStream inputStream, String contentType) {
+        String boundary = boundary(contentType);
+        if (StrUtil.isEmpty(boundary)) {
+            throw new IllegalArgumentException("请求不是multipart/form-data或缺少boundary: " + contentType);
+        }
+        this.in = inputStream;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        // 第一个分隔符前没有换行，补上后与后续分隔符统一处理
+        buffer[0] = CR;
+        buffer[1] = LF;
+        this.tail = 2;
+    }
+
+    public static MultipartFormReader of(HttpServletRequest request) throws IOException {
+        return new MultipartFormReader(request.getInputStream(), request.getContentType());
+    }
+
+    public static boolean isMultipart(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data");
+    }
+
+    /**
+     * 按顺序上传请求中的全部文件，对象名为prefix表单项加上文件名
+     * prefix需放在文件之前；某个文件上传失败不影响后续文件，请求体读取失败时停止
+     *
+     * @return 每个文件的上传结果，请求体读取失败时只包含已处理的文件
+     */
+    public static List<ListResult> uploadFiles(HttpServletRequest request, FileUploader uploader) {
+        List<ListResult> results = new ArrayList<>();
+        try {
+            MultipartFormReader reader = of(request);
+            String prefix = "";
+            FormPart part;
+            while ((part = reader.next()) != null) {
+                if (!part.isFile()) {
+                    if ("prefix".equals(part.getName())) {
+                        prefix = part.getString();
+                    }
+                    continue;
+                }
+                String objectName = prefix + part.getFilename();
+                Boolean success;
+                try {
+                    success = uploader.upload(objectName, part.getContentType(), part.getInputStream());
+                } catch (Exception e) {
+                    log.error("流式上传文件{}时发生错误: {}", objectName, e.getMessage());
+                    success = false;
+                }
+                results.add(new ListResult(objectName, Boolean.TRUE.equals(success)));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("读取multipart请求体时发生错误: " + e.getMessage());
+        }
+        return results;
+    }
+
+    /**
+     * 下一个表单项，上一个表单项未读完的内容会被跳过
+     *
+     * @return 没有更多表单项时返回null
+     */
+    public FormPart next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        // 跳过上一个表单项剩余的内容，第一次调用时跳过第一个分隔符前的内容
+        if (current == null) {
+            current = new PartInputStream();
+        }
+        current.skipAll();
+        head += delimiter.length;
+        delimiterIndex = -2;
+        require(2);
+        if (buffer[head] == '-' && buffer[head + 1] == '-') {
+            finished = true;
+            current = null;
+            return null;
+        }
+        // 分隔符后可能有空白，直到换行
+        readLine();
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int headerSize = 0;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            headerSize += line.length();
+            if (headerSize > MAX_HEADER_SIZE) {
+                throw new IOException("表单项头部过长");
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        }
+        current = new PartInputStream();
+        return new FormPart(headers, current);
+    }
+
+    /**
+     * 读取一行，不含换行符，头部按UTF-8解码
+     */
+    private String readLine() throws IOException {
+        while (true) {
+            for (int i = head; i < tail - 1; i++) {
+                if (buffer[i] == CR && buffer[i + 1] == LF) {
+                    String line = new String(buffer, head, i - head, StandardCharsets.UTF_8);
+                    head = i + 2;
+                    return line;
+                }
+            }
+            if (tail - head >= MAX_HEADER_SIZE) {
+                throw new IOException("表单项头部过长");
+            }
+            if (!fill()) {
+                throw new EOFException("multipart请求体不完整");
+            }
+        }
+    }
+
+    /**
+     * 保证缓冲区中至少有n个未读字节
+     */
+    private void require(int n) throws IOException {
+        while (tail - head < n) {
+            if (!fill()) {
+                throw new EOFException("multipart请求体不完整");
+            }
+        }
+    }
+
+    /**
+     * 未读内容移到缓冲区开头，再从输入流读取
+     *
+     * @return 输入流已结束时返回false
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (head > 0) {
+            System.arraycopy(buffer, head, buffer, 0, tail - head);
+            tail -= head;
+            head = 0;
+        }
+        delimiterIndex = -2;
+        int n = in.read(buffer, tail, buffer.length - tail);
+        if (n == -1) {
+            eof = true;
+            return false;
+        }
+        tail += n;
+        return true;
+    }
+
+    private int findDelimiter() {
+        if (delimiterIndex == -2) {
+            delimiterIndex = -1;
+            int last = tail - delimiter.length;
+            outer:
+            for (int i = head; i <= last; i++) {
+                for (int j = 0; j < delimiter.length; j++) {
+                    if (buffer[i + j] != delimiter[j]) {
+                        continue outer;
+                    }
+                }
+                delimiterIndex = i;
+                break;
+            }
+        }
+        return delimiterIndex;
+    }
+
+    private static String boundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            return null;
+        }
+        return param(contentType, "boundary");
+    }
+
+    /**
+     * 读取头部中的参数，如Content-Disposition的name和filename
+     */
+    private static String param(String header, String name) {
+        for (String segment : splitParams(header)) {
+            int eq = segment.indexOf('=');
+            if (eq > 0 && name.equalsIgnoreCase(segment.substring(0, eq).trim())) {
+                return StrUtil.unWrap(segment.substring(eq + 1).trim(), '"');
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按分号拆分参数，引号内的分号不拆分
+     */
+    private static List<String> splitParams(String header) {
+        List<String> segments = new ArrayList<>();
+        StringBuilder segment = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < header.length(); i++) {
+            char c = header.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            }
+            if (c == ';' && !quoted) {
+                segments.add(segment.toString());
+                segment.setLength(0);
+            } else {
+                segment.append(c);
+            }
+        }
+        segments.add(segment.toString());
+        return segments;
+    }
+
+    /**
+     * 一个表单项，内容只能按顺序读取一次，调用next后不能再读取
+     */
+    public static class FormPart {
+
+        private final Map<String, String> headers;
+
+        private final String name;
+
+        private final String filename;
+
+        private final InputStream inputStream;
+
+        private FormPart(Map<String, String> headers, InputStream inputStream) {
+            this.headers = Collections.unmodifiableMap(headers);
+            String disposition = StrUtil.nullToEmpty(headers.get("Content-Disposition"));
+            this.name = param(disposition, "name");
+            String filename = param(disposition, "filename");
+            // 部分浏览器会带上客户端的完整路径
+            this.filename = filename == null ? null : FileNameUtil.getName(filename);
+            this.inputStream = inputStream;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 文件名，文本表单项为null
+         */
+        public String getFilename() {
+            return filename;
+        }
+
+        public boolean isFile() {
+            return StrUtil.isNotEmpty(filename);
+        }
+
+        public String getContentType() {
+            String contentType = headers.get("Content-Type");
+            return StrUtil.isEmpty(contentType) ? "application/octet-stream" : contentType;
+        }
+
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        /**
+         * 以UTF-8读取文本表单项
+         */
+        public String getString() throws IOException {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] bytes = new byte[4096];
+            int len;
+            while ((len = inputStream.read(bytes)) != -1) {
+                outputStream.write(bytes, 0, len);
+                if (outputStream.size() > MAX_FIELD_SIZE) {
+                    throw new IOException("表单项" + name + "过长");
+                }
+            }
+            return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 表单项内容，读到分隔符时结束；缓冲区末尾可能是分隔符的前半部分，这部分等读入更多内容后再判断
+     */
+    private class PartInputStream extends InputStream {
+
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done || current != this) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                int index = findDelimiter();
+                int available = index >= 0 ? index - head : tail - head - (delimiter.length - 1);
+                if (available > 0) {
+                    int n = Math.min(len, available);
+                    System.arraycopy(buffer, head, b, off, n);
+                    head += n;
+                    return n;
+                }
+                if (index >= 0) {
+                    done = true;
+                    return -1;
+                }
+                if (!fill()) {
+                    throw new EOFException("multipart请求体不完整");
+                }
+            }
+        }
+
+        @Override
+        public int available() {
+            if (done || current != this) {
+                return 0;
+            }
+            int index = findDelimiter();
+            return Math.max(0, index >= 0 ? index - head : tail - head - (delimiter.length - 1));
+        }
+
+        /**
+         * 跳过剩余内容直到分隔符，之后head指向分隔符开头
+         */
+        void skipAll() throws IOException {
+            byte[] skip = new byte[BUFFER_SIZE];
+            while (read(skip, 0, skip.length) != -1) {
+                // 丢弃
+            }
+        }
+
+        /**
+         * 关闭时不关闭请求体，剩余内容由next跳过
+         */
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.yuanshuai.utils;
 
 import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.core.convert.Convert;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.util.StrUtil;
 import cn.hutool.crypto.digest.DigestUtil;
 import com.aliyun.oss.model.PartETag;
 import com.obs.services.ObsClient;
@@ -10,8 +12,12 @@ import com.obs.services.exception.ObsException;
 import com.obs.services.model.CreateBucketRequest;
 import com.obs.services.model.ListBucketsRequest;
 import com.obs.services.model.*;
+import com.yuanshuai.domain.DirectoryTransferResult;
 import com.yuanshuai.domain.FileInfo;
 import com.yuanshuai.domain.ListResult;
+import com.yuanshuai.domain.ObjectStat;
+import com.yuanshuai.domain.PackEntry;
+import com.yuanshuai.interfaces.RangeSource;
 import io.minio.PutObjectArgs;
 import io.minio.UploadObjectArgs;
 import lombok.extern.slf4j.Slf4j;
@@ -19,30 +25,118 @@ import org.springframework.web.multipart.MultipartFile;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 
 @Slf4j
-public class OBSTool {
+public class OBSTool implements RangeSource {
 
     private final ObsClient obsClient;
 
+    /** 单个大文件分片上传/下载的并发数 */
+    private static final int PART_TASK_NUM = 4;
+
+    /** 流式上传的分片大小 */
+    private static final int STREAM_PART_SIZE = 8 * 1024 * 1024;
+
+    /** 流式上传的分片线程池，同时上传的分片数不超过PART_TASK_NUM，内存中的分片数随之有界 */
+    private final TransferExecutor transferExecutor = new TransferExecutor("obs-transfer-", PART_TASK_NUM);
+
+    /** 上传压缩策略，为空时不压缩 */
+    private volatile CompressionPolicy compression;
+
+    /** 本地磁盘对象缓存，为空时下载直接读对象存储 */
+    private volatile ObjectCache objectCache;
+
+    /** 进程内的小对象缓存，为空时不使用 */
+    private volatile MemoryObjectCache memoryCache;
+
+    /** 容器在内存中保存的上传内容大小上限，不超过的MultipartFile直接从内存上传 */
+    private volatile long multipartMemoryThreshold;
+
+    /** 打包对象读取，缓存打包索引 */
+    private final PackReader packReader = new PackReader(this);
+
+    /** 合并同一对象的并发读取，区间请求经过它读取对象 */
+    private final SingleFlightSource singleFlight = new SingleFlightSource(this);
+
+    private final RangeServer rangeServer = new RangeServer(singleFlight);
+
+    private final PresignedUrlCache presignedUrlCache = new PresignedUrlCache();
+
 
     public OBSTool(ObsClient obsClient) {
         this.obsClient = obsClient;
     }
 
+    /**
+     * 设置上传压缩策略，传入null关闭
+     * 开启后可压缩的内容压缩后上传，编码记录在用户元数据中，下载时解压或按Content-Encoding透传
+     */
+    public void setCompression(CompressionPolicy compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * 设置本地磁盘对象缓存，传入null关闭
+     * 开启后downloadFile和checkpointDownload优先读缓存的本地文件，未命中的对象在后台缓存
+     */
+    public void setObjectCache(ObjectCache objectCache) {
+        this.objectCache = objectCache;
+    }
+
+    /**
+     * 设置进程内的小对象缓存，传入null关闭
+     * 开启后downloadFile和checkpointDownload先查内存缓存，其次是本地磁盘缓存；本工具的上传、删除和复制会使对应对象的缓存失效
+     */
+    public void setMemoryCache(MemoryObjectCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * 设置容器在内存中保存的上传内容大小上限，单位字节，与spring.servlet.multipart.file-size-threshold一致
+     * 不超过该大小的MultipartFile读入内存后直接上传，不转存临时文件；默认0，全部转存
+     */
+    public void setMultipartMemoryThreshold(long multipartMemoryThreshold) {
+        this.multipartMemoryThreshold = multipartMemoryThreshold;
+    }
+
+    /**
+     * 合并并发读取的区间读取方式，只有一个读取方时直接读对象存储；本地缓存自身合并填充，不以它作为数据来源
+     */
+    public SingleFlightSource getSingleFlightSource() {
+        return singleFlight;
+    }
+
+    /**
+     * 对象被本工具覆盖或删除后，丢弃本节点上该对象的各级缓存
+     */
+    private void invalidateCaches(String bucketName, String objectName) {
+        rangeServer.invalidate(bucketName, objectName);
+        ObjectCache cache = objectCache;
+        if (cache != null) {
+            cache.invalidate(bucketName, objectName);
+        }
+        MemoryObjectCache memory = memoryCache;
+        if (memory != null) {
+            memory.invalidate(bucketName, objectName);
+        }
+    }
+
     public void shutdown() {
         try {
+            transferExecutor.close();
             if (obsClient != null) {
                 obsClient.close();
             }
@@ -286,7 +380,9 @@ public class OBSTool {
         DeleteObjectRequest deleteObjectRequest = new DeleteObjectRequest();
         deleteObjectRequest.setBucketName(bucketName);
         deleteObjectRequest.setObjectKey(objectName);
-        return obsClient.deleteObject(deleteObjectRequest);
+        DeleteObjectResult result = obsClient.deleteObject(deleteObjectRequest);
+        invalidateCaches(bucketName, objectName);
+        return result;
     }
     public List<ListResult> deleteObject(String bucketName, List<String> objectNames) {
         return objectNames.stream()
@@ -316,7 +412,9 @@ public class OBSTool {
         copyObjectRequest.setSourceObjectKey(sourceObjectName);
         copyObjectRequest.setBucketName(targetBucketName);
         copyObjectRequest.setObjectKey(targetObjectName);
-        return obsClient.copyObject(copyObjectRequest);
+        CopyObjectResult result = obsClient.copyObject(copyObjectRequest);
+        invalidateCaches(targetBucketName, targetObjectName);
+        return result;
 
     }
     public List<CopyObjectResult> copyObjectList(String sourceBucketName, List<String> sourceObjectName, String targetBucketName) {
@@ -346,6 +444,8 @@ public class OBSTool {
     /********** 上传操作 **********/
     /**
      * 简单上传，MultipartFile类型上传单文件
+     * 文件先转存为本地临时文件（容器已暂存到磁盘时只移动文件）并计算md5，再以文件上传，容器保存在内存中的文件直接从内存上传，
+     * File-Md5元数据和Content-MD5随上传一起写入
      *
      * @param bucketName 桶名
      * @param objectName 对象名
@@ -354,21 +454,30 @@ public class OBSTool {
      * @return true/false
      */
     public Boolean uploadFile(String bucketName, String objectName, MultipartFile file, Map<String, Object> userMetadata) {
-        PutObjectRequest putObjectRequest = new PutObjectRequest();
-        try (InputStream fis = file.getInputStream()) {
-            String md5 = DigestUtil.md5Hex(fis);
-            userMetadata.put("File-Md5", md5);
+        try (DigestSpool spool = DigestSpool.spool(file, multipartMemoryThreshold);
+             DigestSpool compressed = compress(spool, file.getContentType(), objectName, userMetadata)) {
+            DigestSpool body = compressed == null ? spool : compressed;
+            userMetadata.put("File-Md5", spool.getMd5Hex());
             ObjectMetadata objectMetadata = new ObjectMetadata();
             objectMetadata.setMetadata(userMetadata);
-            putObjectRequest.setInput(fis);
+            objectMetadata.setContentLength(body.getSize());
+            objectMetadata.setContentType(file.getContentType());
+            objectMetadata.setContentMd5(body.getMd5Base64());
+            PutObjectRequest putObjectRequest = new PutObjectRequest();
+            if (body.isInMemory()) {
+                putObjectRequest.setInput(new ByteArrayInputStream(body.getData()));
+            } else {
+                putObjectRequest.setFile(body.getPath().toFile());
+            }
             putObjectRequest.setBucketName(bucketName);
             putObjectRequest.setObjectKey(objectName);
             putObjectRequest.setMetadata(objectMetadata);
-
             obsClient.putObject(putObjectRequest);
             return true;
         } catch (Exception e) {
             log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
         }
         return false;
     }
@@ -378,6 +487,7 @@ public class OBSTool {
 
     /**
      * 简单上传，InputStream类型上传单文件
+     * 输入流只能读取一次且长度未知，先边读边算md5暂存到本地临时文件，再从临时文件上传
      *
      * @param bucketName  桶名
      * @param objectName  对象名
@@ -385,11 +495,11 @@ public class OBSTool {
      * @return true/false
      */
     public Boolean uploadFile(String bucketName, String objectName, InputStream inputStream, Map<String, Object> userMetadata) {
-        try {
-            String md5 = DigestUtil.md5Hex(inputStream);
-            userMetadata.put("File-Md5", md5);
+        try (DigestSpool spool = DigestSpool.spool(inputStream);
+             DigestSpool compressed = compress(spool, null, objectName, userMetadata)) {
+            userMetadata.put("File-Md5", spool.getMd5Hex());
             PutObjectRequest putObjectRequest = new PutObjectRequest();
-            putObjectRequest.setInput(inputStream);
+            putObjectRequest.setFile((compressed == null ? spool : compressed).getPath().toFile());
             putObjectRequest.setBucketName(bucketName);
             putObjectRequest.setObjectKey(objectName);
 
@@ -402,6 +512,8 @@ public class OBSTool {
             return true;
         } catch (Exception e) {
             log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
         }
         return false;
     }
@@ -409,6 +521,162 @@ public class OBSTool {
         return uploadFile(bucketName, objectName, inputStream, new HashMap<>());
     }
 
+    /**
+     * 流式上传长度未知的输入流，不暂存到本地，边读边计算md5：内容不超过一个分片时整体上传，
+     * 否则按STREAM_PART_SIZE读取分片提交到线程池上传，线程池满时读取阻塞，内存中的分片数有界
+     * 适用于直接读取请求体的上传，不会关闭传入的流
+     *
+     * @param bucketName   桶名
+     * @param objectName   对象名
+     * @param inputStream  输入流
+     * @param contentType  文件类型
+     * @param userMetadata 用户自定义元数据
+     * @return true/false
+     */
+    public Boolean uploadStream(String bucketName, String objectName, InputStream inputStream, String contentType,
+                                Map<String, Object> userMetadata) {
+        try {
+            HashingInputStream hashingInputStream = new HashingInputStream(inputStream);
+            byte[] firstPart = new byte[STREAM_PART_SIZE];
+            int firstLength = readPart(hashingInputStream, firstPart);
+            if (firstLength < STREAM_PART_SIZE) {
+                // 整个文件在一个分片内，md5在上传前已经得到
+                userMetadata.put("File-Md5", hashingInputStream.getMd5Hex());
+                ObjectMetadata objectMetadata = new ObjectMetadata();
+                objectMetadata.setMetadata(userMetadata);
+                objectMetadata.setContentLength((long) firstLength);
+                objectMetadata.setContentType(contentType);
+                objectMetadata.setContentMd5(hashingInputStream.getMd5Base64());
+                PutObjectRequest putObjectRequest = new PutObjectRequest();
+                putObjectRequest.setBucketName(bucketName);
+                putObjectRequest.setObjectKey(objectName);
+                putObjectRequest.setInput(new ByteArrayInputStream(firstPart, 0, firstLength));
+                putObjectRequest.setMetadata(objectMetadata);
+                obsClient.putObject(putObjectRequest);
+            } else {
+                streamMultipartUpload(bucketName, objectName, contentType, userMetadata, hashingInputStream, firstPart);
+            }
+            log.info("上传文件" + objectName + "成功");
+            return true;
+        } catch (Exception e) {
+            log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
+        }
+        return false;
+    }
+
+    /**
+     * 流式上传multipart/form-data请求中的全部文件，直接解析请求体，不经过MultipartFile
+     * 对象名为表单项prefix加上文件名，prefix需放在文件之前；文件内容边接收边分片上传，不暂存到本地
+     *
+     * @return 每个文件的上传结果
+     */
+    public List<ListResult> streamUpload(String bucketName, HttpServletRequest request) {
+        return MultipartFormReader.uploadFiles(request, (objectName, contentType, inputStream) ->
+                uploadStream(bucketName, objectName, inputStream, contentType, new HashMap<>()));
+    }
+
+    /**
+     * 流式分片上传，按STREAM_PART_SIZE顺序读取分片并提交到线程池上传，全部成功后合并，任一分片失败则取消上传
+     * 整个文件的md5在读完后才能得到，合并后通过修改元数据写入File-Md5，不重写数据
+     */
+    private void streamMultipartUpload(String bucketName, String objectName, String contentType, Map<String, Object> userMetadata,
+                                       HashingInputStream inputStream, byte[] firstPart) throws Exception {
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setMetadata(userMetadata);
+        objectMetadata.setContentType(contentType);
+        InitiateMultipartUploadRequest initiateMultipartUploadRequest = new InitiateMultipartUploadRequest();
+        initiateMultipartUploadRequest.setBucketName(bucketName);
+        initiateMultipartUploadRequest.setObjectKey(objectName);
+        initiateMultipartUploadRequest.setMetadata(objectMetadata);
+        String uploadId = obsClient.initiateMultipartUpload(initiateMultipartUploadRequest).getUploadId();
+        List<Future<PartEtag>> futures = new ArrayList<>();
+        try {
+            byte[] part = firstPart;
+            int length = STREAM_PART_SIZE;
+            int partNumber = 1;
+            while (length > 0) {
+                byte[] data = part;
+                int dataLength = length;
+                int currentNum = partNumber++;
+                futures.add(transferExecutor.submit(() -> uploadBufferedPart(bucketName, objectName, uploadId, currentNum, data, dataLength)));
+                if (length < STREAM_PART_SIZE) {
+                    break;
+                }
+                part = new byte[STREAM_PART_SIZE];
+                length = readPart(inputStream, part);
+            }
+            List<PartEtag> partEtags = new ArrayList<>(futures.size());
+            for (Future<PartEtag> future : futures) {
+                partEtags.add(future.get());
+            }
+            CompleteMultipartUploadRequest completeMultipartUploadRequest = new CompleteMultipartUploadRequest();
+            completeMultipartUploadRequest.setBucketName(bucketName);
+            completeMultipartUploadRequest.setObjectKey(objectName);
+            completeMultipartUploadRequest.setUploadId(uploadId);
+            completeMultipartUploadRequest.setPartEtag(partEtags);
+            obsClient.completeMultipartUpload(completeMultipartUploadRequest);
+            log.info("{}文件流式分片上传完成，共{}个分片", objectName, partEtags.size());
+        } catch (Exception e) {
+            futures.forEach(future -> future.cancel(true));
+            try {
+                abortMultipartUpload(bucketName, objectName, uploadId);
+            } catch (Exception abortException) {
+                log.warn("{}文件取消分片上传失败: {}", objectName, abortException.getMessage());
+            }
+            throw e;
+        }
+        try {
+            SetObjectMetadataRequest setObjectMetadataRequest = new SetObjectMetadataRequest(bucketName, objectName);
+            setObjectMetadataRequest.setContentType(contentType);
+            setObjectMetadataRequest.addUserMetadata("File-Md5", inputStream.getMd5Hex());
+            obsClient.setObjectMetadata(setObjectMetadataRequest);
+        } catch (Exception e) {
+            // 文件已上传成功，只记录警告
+            log.warn("{}文件写入File-Md5失败: {}", objectName, e.getMessage());
+        }
+    }
+
+    private PartEtag uploadBufferedPart(String bucketName, String objectName, String uploadId, int partNumber, byte[] data, int length) {
+        UploadPartRequest uploadPartRequest = new UploadPartRequest();
+        uploadPartRequest.setBucketName(bucketName);
+        uploadPartRequest.setObjectKey(objectName);
+        uploadPartRequest.setUploadId(uploadId);
+        uploadPartRequest.setPartNumber(partNumber);
+        uploadPartRequest.setInput(new ByteArrayInputStream(data, 0, length));
+        uploadPartRequest.setPartSize((long) length);
+        UploadPartResult uploadPartResult = obsClient.uploadPart(uploadPartRequest);
+        return new PartEtag(uploadPartResult.getEtag(), partNumber);
+    }
+
+    /**
+     * 读满缓冲区或读到流末尾
+     *
+     * @return 读取的字节数，流已结束时为0
+     */
+    private static int readPart(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = inputStream.read(buffer, total, buffer.length - total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * 按压缩策略压缩暂存的内容，压缩时在用户元数据中记录编码和原始大小
+     *
+     * @return 压缩后的暂存内容，未开启压缩或不需要压缩时返回null
+     */
+    private DigestSpool compress(DigestSpool spool, String contentType, String objectName, Map<String, Object> userMetadata) throws IOException {
+        CompressionPolicy policy = compression;
+        return policy == null ? null : policy.compress(spool, contentType, objectName, userMetadata);
+    }
+
     /**
      * 简单上传，本地文件类型上传单文件
      *
@@ -434,6 +702,8 @@ public class OBSTool {
             return true;
         } catch (Exception e) {
             log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
         }
         return false;
     }
@@ -443,6 +713,7 @@ public class OBSTool {
 
     /**
      * 追加新内容上传，请确认桶类型，并行文件系统不支持追加上传。请确认对象类型，归档存储和深度归档存储对象不支持追加上传。
+     * 已有对象是压缩存储的，追加内容用同一编码压缩后追加；追加上传不能修改元数据，原始大小仍为首次写入时的大小
      *
      * @param bucketName
      * @param targetObjectName
@@ -452,15 +723,19 @@ public class OBSTool {
      */
     public AppendObjectResult appendUpload(String bucketName, String targetObjectName, MultipartFile file) {
         AppendObjectRequest appendObjectRequest = new AppendObjectRequest();
-        try (InputStream inputStream = file.getInputStream()){
+        ObjectMetadata objectMetadata = getObject(bucketName, targetObjectName);
+        CompressionCodec codec = CompressionCodec.fromMetadata(objectMetadata.getAllMetadata());
+        try (InputStream fileInputStream = file.getInputStream();
+             DigestSpool compressed = codec == null ? null : DigestSpool.spool(fileInputStream, codec);
+             InputStream inputStream = compressed == null ? fileInputStream : compressed.newInputStream()){
 
             appendObjectRequest.setBucketName(bucketName);
             appendObjectRequest.setObjectKey(targetObjectName);
 
-            ObjectMetadata objectMetadata = getObject(bucketName, targetObjectName);
             appendObjectRequest.setPosition(objectMetadata.getNextPosition());
             appendObjectRequest.setInput(inputStream);
             AppendObjectResult appendObjectResult = obsClient.appendObject(appendObjectRequest);
+            invalidateCaches(bucketName, targetObjectName);
             return appendObjectResult;
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -474,13 +749,24 @@ public class OBSTool {
      *
      * @return true/false
      */
-    public CompleteMultipartUploadResult uploadFileWithCheckpoint(String filePath, String bucketName, String objectName, Long partSize, Integer taskNum, Boolean enableCheckpoint) {
+    public CompleteMultipartUploadResult uploadFileWithCheckpoint(String filePath, String bucketName, String objectName, Long partSize, Integer taskNum,
+                                                                  Boolean enableCheckpoint, Map<String, Object> userMetadata) {
         UploadFileRequest uploadFileRequest = new UploadFileRequest(bucketName, objectName);
         uploadFileRequest.setUploadFile(filePath);
         uploadFileRequest.setEnableCheckpoint(enableCheckpoint);
         uploadFileRequest.setTaskNum(taskNum);
         uploadFileRequest.setPartSize(partSize);
-        return obsClient.uploadFile(uploadFileRequest);
+        if (userMetadata != null && !userMetadata.isEmpty()) {
+            ObjectMetadata objectMetadata = new ObjectMetadata();
+            objectMetadata.setMetadata(userMetadata);
+            uploadFileRequest.setObjectMetadata(objectMetadata);
+        }
+        CompleteMultipartUploadResult result = obsClient.uploadFile(uploadFileRequest);
+        invalidateCaches(bucketName, objectName);
+        return result;
+    }
+    public CompleteMultipartUploadResult uploadFileWithCheckpoint(String filePath, String bucketName, String objectName, Long partSize, Integer taskNum, Boolean enableCheckpoint) {
+        return uploadFileWithCheckpoint(filePath, bucketName, objectName, partSize, taskNum, enableCheckpoint, null);
     }
     public CompleteMultipartUploadResult uploadFileWithCheckpoint(String filePath, String bucketName, String objectName) {
         // 9MB
@@ -509,12 +795,16 @@ public class OBSTool {
         for (int i = 0; i < parts.size(); i++) {
             Integer partNumber = Convert.toInt(parts.get(i).getCurrentNum());
             MultipartFile file = files.get(i);
-            try (InputStream inputStream = file.getInputStream()){
+            // 分片转存为本地临时文件后以文件上传，容器保存在内存中的分片直接从内存上传
+            try (DigestSpool spool = DigestSpool.spool(file, multipartMemoryThreshold)){
                 uploadPartRequest.setBucketName(bucketName);
                 uploadPartRequest.setObjectKey(objectName);
                 uploadPartRequest.setUploadId(uploadId);
                 uploadPartRequest.setPartNumber(partNumber);
-                uploadPartRequest.setInput(inputStream);
+                uploadPartRequest.setFile(spool.isInMemory() ? null : spool.getPath().toFile());
+                uploadPartRequest.setInput(spool.isInMemory() ? new ByteArrayInputStream(spool.getData()) : null);
+                uploadPartRequest.setPartSize(spool.getSize());
+                uploadPartRequest.setContentMd5(spool.getMd5Base64());
                 obsClient.uploadPart(uploadPartRequest);
             } catch (IOException e) {
                 log.error("上传分片" + partNumber + "时发生错误: " + e.getMessage(), e);
@@ -540,6 +830,7 @@ public class OBSTool {
             completeMultipartUploadRequest.setUploadId(uploadId);
             completeMultipartUploadRequest.setPartEtag(partEtags);
             obsClient.completeMultipartUpload(completeMultipartUploadRequest);
+            invalidateCaches(bucketName, objectName);
             return true;
         } catch (ObsException e) {
             log.error("合并分片上传时发生错误: " + e.getMessage(), e);
@@ -580,32 +871,59 @@ public class OBSTool {
     /********************* 下载操作 **********/
     /**
      * 简单下载，直接下载单文件
+     * 压缩存储的对象在请求方接受该编码时设置Content-Encoding透传，否则解压后返回
      *
      * @param objectName 文件名
      * @param bucketName 桶名
+     * @param request    请求，为null时压缩对象总是解压
      * @param response   响应
      * @return true/false
      */
-    public void downloadFile(String bucketName, String objectName, HttpServletResponse response) {
-        try (InputStream inputStream = obsClient.getObject(bucketName, objectName).getObjectContent();
-             OutputStream outputStream = response.getOutputStream()) {
+    public void downloadFile(String bucketName, String objectName, HttpServletRequest request, HttpServletResponse response) {
+        if (PackReader.isPackAddress(objectName)) {
+            try {
+                packReader.download(bucketName, objectName, response);
+            } catch (Exception e) {
+                log.error("下载文件时发生错误: " + e.getMessage(), e);
+            }
+            return;
+        }
+        MemoryObjectCache memory = memoryCache;
+        ObjectCache cache = objectCache;
+        if (memory != null || cache != null) {
+            try {
+                if (memory != null) {
+                    memory.download(bucketName, objectName, request, response);
+                } else {
+                    cache.download(bucketName, objectName, request, response);
+                }
+            } catch (Exception e) {
+                log.error("下载文件时发生错误: " + e.getMessage(), e);
+            }
+            return;
+        }
+        InputStream objectStream = null;
+        try {
+            ObsObject obsObject = obsClient.getObject(bucketName, objectName);
+            objectStream = obsObject.getObjectContent();
+            InputStream inputStream = CompressionCodec.decodeForResponse(
+                    CompressionCodec.fromMetadata(obsObject.getMetadata().getAllMetadata()), objectStream, request, response);
 
             // 设置响应头
             response.setContentType("application/octet-stream");
             response.setHeader("Content-Disposition", "attachment; filename=\"" + objectName + "\"");
 
-            // 将inputStream的数据复制到outputStream
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
-            outputStream.flush();
+            // 异步写出，客户端接收慢时不占用请求线程，输入流写完后关闭
+            AsyncStreamWriter.write(request, response, inputStream);
         } catch (Exception e) {
             log.error("下载文件时发生错误: " + e.getMessage(), e);
+            IoUtil.close(objectStream);
         }
 
     }
+    public void downloadFile(String bucketName, String objectName, HttpServletResponse response) {
+        downloadFile(bucketName, objectName, null, response);
+    }
 
     /**
      * 获取对象部分流
@@ -613,7 +931,7 @@ public class OBSTool {
     public InputStream getFileRangeStream(String bucketName, String objectName, Long start, Long end) {
         GetObjectRequest getObjectRequest = new GetObjectRequest();
         getObjectRequest.setRangeStart(start);
-        getObjectRequest.setRangeStart(end);
+        getObjectRequest.setRangeEnd(end);
         getObjectRequest.setBucketName(bucketName);
         getObjectRequest.setObjectKey(objectName);
         return obsClient.getObject(getObjectRequest).getObjectContent();
@@ -648,6 +966,8 @@ public class OBSTool {
 
     /**
      * 断点下载，根据请求头的range下载
+     * 支持后缀区间、多区间和If-None-Match/If-Modified-Since/If-Range条件请求，对象信息短时间缓存，
+     * 连续拖动进度条时每次请求只有一次区间GET
      * <img src="images/range.png"/>
      *
      * @param bucketName
@@ -656,55 +976,305 @@ public class OBSTool {
      * @param response
      */
     public void checkpointDownload(String bucketName, String objectName, HttpServletRequest request, HttpServletResponse response) {
-        long objectSize = 0;
-        ObjectMetadata objectMetadata = getObject(bucketName, objectName);
-        if (objectMetadata != null) {
-            objectSize = objectMetadata.getContentLength();
-        } else {
-            log.error("对象不存在: " + objectName);
-        }
-        String rangeHeader = request.getHeader("Range");
+        MemoryObjectCache memory = memoryCache;
+        ObjectCache cache = objectCache;
+        RangeServer server = memory != null ? memory.getRangeServer() : cache != null ? cache.getRangeServer() : rangeServer;
         try {
-            long start = 0;
-            long end = Long.MAX_VALUE;
-
-            if (rangeHeader != null) {
-                Pattern pattern = Pattern.compile("bytes=(\\d*)-(\\d*)");
-                Matcher matcher = pattern.matcher(rangeHeader);
-                if (matcher.matches()) {
-                    String startPart = matcher.group(1);
-                    String endPart = matcher.group(2);
-
-                    if (!startPart.isEmpty()) {
-                        start = Long.parseLong(startPart);
-                    }
-                    if (!endPart.isEmpty()) {
-                        end = Long.parseLong(endPart);
-                    }
-                    if (end > objectSize - 1) {
-                        end = objectSize - 1;
-                    }
-                }
-                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            if (!server.serve(bucketName, objectName, request, response)) {
+                // 解压后的内容无法按压缩数据的字节区间定位，忽略Range返回完整的解压内容
+                response.setHeader("Content-Type", "application/octet-stream");
+                response.setHeader("Accept-Ranges", "none");
+                downloadFile(bucketName, objectName, request, response);
             }
+        } catch (Exception e) {
+            log.error("下载文件时发生错误: " + e.getMessage(), e);
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+    /****************************************/
+
+    /********************* 预签名 **********/
+    /**
+     * 生成临时授权下载url，客户端直接从对象存储下载，数据不经过本服务
+     * 同一对象和有效期的url在过期前重复使用，详见PresignedUrlCache
+     *
+     * @param bucketName    桶名
+     * @param objectName    对象名
+     * @param expireSeconds url有效期，单位秒，最长7天
+     * @return url，签名失败时返回null
+     */
+    public String presignGetUrl(String bucketName, String objectName, int expireSeconds) {
+        return presign("GET/" + bucketName + "/" + objectName, expireSeconds,
+                () -> createTemporarySignature(HttpMethodEnum.GET, bucketName, objectName, null, null, expireSeconds));
+    }
+    public String presignGetUrl(String bucketName, String objectName) {
+        return presignGetUrl(bucketName, objectName, PresignedUrlCache.DEFAULT_EXPIRE_SECONDS);
+    }
+
+    /**
+     * 生成临时授权上传url，客户端用PUT直接上传到对象存储
+     *
+     * @param contentType 为空时不限制，否则客户端上传时必须携带相同的Content-Type
+     */
+    public String presignPutUrl(String bucketName, String objectName, String contentType, int expireSeconds) {
+        Map<String, String> headers = contentType == null ? null : Collections.singletonMap("Content-Type", contentType);
+        return presign("PUT/" + bucketName + "/" + objectName + "#" + contentType, expireSeconds,
+                () -> createTemporarySignature(HttpMethodEnum.PUT, bucketName, objectName, headers, null, expireSeconds));
+    }
+    public String presignPutUrl(String bucketName, String objectName) {
+        return presignPutUrl(bucketName, objectName, null, PresignedUrlCache.DEFAULT_EXPIRE_SECONDS);
+    }
+
+    /**
+     * 批量生成临时授权下载url
+     *
+     * @return 对象名 -> url，签名失败的对象url为null
+     */
+    public Map<String, String> presignGetUrls(String bucketName, List<String> objectNames, int expireSeconds) {
+        Map<String, String> urls = new LinkedHashMap<>();
+        objectNames.forEach(objectName -> urls.put(objectName, presignGetUrl(bucketName, objectName, expireSeconds)));
+        return urls;
+    }
+
+    /**
+     * 批量生成临时授权上传url
+     *
+     * @return 对象名 -> url，签名失败的对象url为null
+     */
+    public Map<String, String> presignPutUrls(String bucketName, List<String> objectNames, int expireSeconds) {
+        Map<String, String> urls = new LinkedHashMap<>();
+        objectNames.forEach(objectName -> urls.put(objectName, presignPutUrl(bucketName, objectName, null, expireSeconds)));
+        return urls;
+    }
+
+    /**
+     * 为getUploadId创建的分片上传生成各分片的临时授权上传url，客户端直接PUT分片，
+     * 从响应头取得etag后由本服务调用completeMultipartUpload合并
+     *
+     * @param partCount 分片数，分片序号从1开始
+     * @return 按分片序号排列的url，签名失败的分片url为null
+     */
+    public List<String> presignUploadPartUrls(String bucketName, String objectName, String uploadId, int partCount, int expireSeconds) {
+        List<String> urls = new ArrayList<>(partCount);
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            Map<String, Object> queryParams = new HashMap<>();
+            queryParams.put("uploadId", uploadId);
+            queryParams.put("partNumber", partNumber);
+            urls.add(presign("PART/" + bucketName + "/" + objectName + "#" + uploadId + "#" + partNumber, expireSeconds,
+                    () -> createTemporarySignature(HttpMethodEnum.PUT, bucketName, objectName, null, queryParams, expireSeconds)));
+        }
+        return urls;
+    }
 
+    private String createTemporarySignature(HttpMethodEnum method, String bucketName, String objectName,
+                                            Map<String, String> headers, Map<String, Object> queryParams, int expireSeconds) {
+        TemporarySignatureRequest request = new TemporarySignatureRequest(method, expireSeconds);
+        request.setBucketName(bucketName);
+        request.setObjectKey(objectName);
+        if (headers != null) {
+            request.setHeaders(headers);
+        }
+        if (queryParams != null) {
+            request.setQueryParams(queryParams);
+        }
+        return obsClient.createTemporarySignature(request).getSignedUrl();
+    }
+
+    private String presign(String key, int expireSeconds, Callable<String> signer) {
+        try {
+            return presignedUrlCache.get(key, expireSeconds, signer);
+        } catch (Exception e) {
+            log.error("生成临时授权url失败: " + e.getMessage());
+        }
+        return null;
+    }
+    /****************************************/
 
-            response.setHeader("Content-Type", "application/octet-stream");
-            response.setHeader("Accept-Ranges", "bytes");
-            response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + objectSize);
-            try (InputStream inputStream = getFileRangeStream(bucketName, objectName, start, end);
-                 OutputStream out = response.getOutputStream()) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
+    /********************* 打包操作 **********/
+    /**
+     * 小文件打包上传：多个小文件依次写入一个打包对象，末尾附带索引，一次上传代替每个文件一次上传
+     * 条目名称为文件的原始文件名，之后可以用pack://打包对象名#条目名称作为对象名下载单个文件
+     *
+     * @param bucketName 桶名
+     * @param objectName 打包对象名
+     * @param files      小文件
+     * @return 写入的条目，失败时返回null
+     */
+    public List<PackEntry> uploadPack(String bucketName, String objectName, List<MultipartFile> files) {
+        try (PackWriter writer = new PackWriter()) {
+            for (MultipartFile file : files) {
+                try (InputStream inputStream = file.getInputStream()) {
+                    writer.add(file.getOriginalFilename(), inputStream);
                 }
             }
+            Path path = writer.finish();
+            Map<String, Object> userMetadata = new HashMap<>();
+            userMetadata.put("Pack-Entries", String.valueOf(writer.getEntryCount()));
+            if (!uploadFile(bucketName, objectName, path.toString(), userMetadata)) {
+                return null;
+            }
+            packReader.invalidate(bucketName, objectName);
+            log.info("打包上传{}成功，共{}个文件", objectName, writer.getEntryCount());
+            return new ArrayList<>(writer.getEntries());
         } catch (Exception e) {
-            log.error("下载文件时发生错误: " + e.getMessage(), e);
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            log.error("打包上传时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 打包对象中的全部条目
+     *
+     * @return 条目列表，失败时返回空列表
+     */
+    public List<PackEntry> listPackEntries(String bucketName, String objectName) {
+        try {
+            return packReader.listEntries(bucketName, objectName);
+        } catch (Exception e) {
+            log.error("读取打包索引时发生错误: " + e.getMessage());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * 打开对象的随机读取通道，按需发起区间GET，不下载整个对象，适合读取zip中央目录、parquet文件尾等
+     * 通道自带块缓存和顺序预读，newInputStream()可得到支持skip和mark的输入流，用完需关闭
+     *
+     * @return 读取通道，对象不存在或查询失败时返回null
+     */
+    public RemoteObjectChannel openChannel(String bucketName, String objectName) {
+        try {
+            return new RemoteObjectChannel(this, bucketName, objectName);
+        } catch (Exception e) {
+            log.error("打开读取通道时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public ObjectStat stat(String bucketName, String objectName) {
+        ObjectMetadata metadata = getObject(bucketName, objectName);
+        Map<String, String> userMetadata = new HashMap<>();
+        metadata.getAllMetadata().forEach((key, value) -> userMetadata.put(key, String.valueOf(value)));
+        return new ObjectStat(metadata.getContentLength(), StrUtil.unWrap(metadata.getEtag(), '"'),
+                metadata.getLastModified() == null ? null : metadata.getLastModified().getTime(), userMetadata);
+    }
+
+    @Override
+    public InputStream openRange(String bucketName, String objectName, long offset, long length, String etag) {
+        GetObjectRequest getObjectRequest = new GetObjectRequest(bucketName, objectName);
+        getObjectRequest.setRangeStart(offset);
+        getObjectRequest.setRangeEnd(offset + length - 1);
+        if (etag != null) {
+            getObjectRequest.setIfMatchTag("\"" + etag + "\"");
         }
+        return obsClient.getObject(getObjectRequest).getObjectContent();
     }
     /****************************************/
 
-}
\ No newline at end of file
+    /********************* 目录操作 **********/
+    /**
+     * 上传本地目录到前缀下，多个文件并发上传，大于partSize的文件通过uploadFileWithCheckpoint按分片上传
+     *
+     * @param bucketName 桶名
+     * @param prefix     对象名前缀
+     * @param directory  本地目录
+     * @param partSize   分片大小
+     * @param taskNum    同时上传的文件数
+     * @return 每个文件的上传结果和吞吐量
+     */
+    public DirectoryTransferResult uploadDirectory(String bucketName, String prefix, String directory, Long partSize, Integer taskNum, Map<String, Object> userMetadata) {
+        try {
+            return DirectoryTransfer.upload(Paths.get(directory), prefix, taskNum, (path, objectName, size) -> {
+                if (size <= partSize) {
+                    return uploadFile(bucketName, objectName, path.toString(), new HashMap<>(userMetadata));
+                }
+                return uploadFileWithCheckpoint(path.toString(), bucketName, objectName, partSize, PART_TASK_NUM, false,
+                        new HashMap<>(userMetadata)) != null;
+            });
+        } catch (Exception e) {
+            log.error("上传目录时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+    public DirectoryTransferResult uploadDirectory(String bucketName, String prefix, String directory) {
+        return uploadDirectory(bucketName, prefix, directory, 9 * 1024 * 1024L, TransferExecutor.DEFAULT_TASK_NUM, new HashMap<>());
+    }
+
+    /**
+     * 下载前缀下的所有对象到本地目录，按marker分页列出对象，边列边并发下载
+     * 都通过downloadFileWithCheckpoint下载，大于partSize的文件按分片并发下载，下载后的文件大小与对象不一致时记为失败
+     *
+     * @param bucketName 桶名
+     * @param prefix     对象名前缀
+     * @param directory  本地目录
+     * @param partSize   分片大小
+     * @param override   是否覆盖本地已有文件
+     * @param taskNum    同时下载的文件数
+     * @return 每个文件的下载结果和吞吐量
+     */
+    public DirectoryTransferResult downloadDirectory(String bucketName, String prefix, String directory, Long partSize, Boolean override, Integer taskNum) {
+        try {
+            return DirectoryTransfer.download(() -> new ObjectPageIterator(bucketName, prefix), prefix, Paths.get(directory), override, taskNum,
+                    (path, objectName, size) -> {
+                        DownloadFileResult result = downloadFileWithCheckpoint(path.toString(), bucketName, objectName, partSize,
+                                size > partSize ? PART_TASK_NUM : 1);
+                        return result != null && Files.size(path) == size;
+                    });
+        } catch (Exception e) {
+            log.error("下载目录时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+    public DirectoryTransferResult downloadDirectory(String bucketName, String prefix, String directory) {
+        return downloadDirectory(bucketName, prefix, directory, 9 * 1024 * 1024L, false, TransferExecutor.DEFAULT_TASK_NUM);
+    }
+
+    /**
+     * 按marker分页遍历前缀下的对象，每次只保存一页
+     */
+    private class ObjectPageIterator implements Iterator<DirectoryTransfer.RemoteFile> {
+
+        private final String bucketName;
+
+        private final String prefix;
+
+        private Iterator<ObsObject> page = Collections.emptyIterator();
+
+        private String marker;
+
+        private boolean truncated = true;
+
+        ObjectPageIterator(String bucketName, String prefix) {
+            this.bucketName = bucketName;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext() && truncated) {
+                ListObjectsRequest listObjectsRequest = new ListObjectsRequest(bucketName);
+                listObjectsRequest.setPrefix(prefix);
+                listObjectsRequest.setMarker(marker);
+                listObjectsRequest.setMaxKeys(1000);
+                ObjectListing objectListing = obsClient.listObjects(listObjectsRequest);
+                page = objectListing.getObjects().iterator();
+                marker = objectListing.getNextMarker();
+                truncated = objectListing.isTruncated();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public DirectoryTransfer.RemoteFile next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ObsObject object = page.next();
+            return new DirectoryTransfer.RemoteFile(object.getObjectKey(), object.getMetadata().getContentLength());
+        }
+    }
+    /****************************************/
+}
@@ -0,0 +1,375 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import com.yuanshuai.domain.CacheEntry;
+import com.yuanshuai.domain.ObjectStat;
+import com.yuanshuai.interfaces.RangeSource;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地磁盘的对象读穿缓存，包装对象的区间读取方式：未命中时后台从对象存储完整下载一份到缓存目录，
+ * 下载完成后该对象的完整下载和区间请求都直接读本地文件
+ * <p>
+ * 缓存总大小有上限，超出时淘汰最近最少使用的对象；命中的条目超过revalidateTtl未校验时先HEAD比对etag，
+ * 一致时继续使用，不一致时丢弃并重新缓存；同一对象同时只有一个后台任务在下载，填充期间的请求照常读对象存储
+ * 单个对象超过maxObjectSize时不缓存
+ * <p>
+ * 缓存条目记录在目录下的索引文件中，重启后保留已缓存的文件，第一次命中时先校验etag
+ */
+@Slf4j
+public class ObjectCache implements RangeSource, Closeable {
+
+    /** 默认的etag校验间隔，单位毫秒 */
+    public static final long DEFAULT_REVALIDATE_TTL = 30_000L;
+
+    /** 默认同时填充的对象数 */
+    public static final int DEFAULT_FILL_THREADS = 4;
+
+    /** 等待填充的对象数上限，超出时本次不缓存 */
+    private static final int FILL_QUEUE_SIZE = 256;
+
+    private static final String INDEX_FILE = "object-cache.index";
+
+    private static final String DATA_SUFFIX = ".data";
+
+    private static final String FILL_SUFFIX = ".fill";
+
+    private final RangeSource source;
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    private final long maxObjectSize;
+
+    private final long revalidateTtl;
+
+    private final LocalKvStore<CacheEntry> store;
+
+    /** 按访问顺序排列，最久未使用的在前，读写都需持有this锁 */
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalBytes;
+
+    /** 正在填充的对象 -> 填充期间是否被本地覆盖或删除，被覆盖时丢弃填充结果；标记覆盖和保存填充结果时持有this锁 */
+    private final Map<String, Boolean> filling = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor fillExecutor;
+
+    private final RangeServer rangeServer = new RangeServer(this);
+
+    /**
+     * @param source    对象的区间读取方式，通常是存储工具本身
+     * @param directory 缓存目录，放在本地ssd上
+     * @param maxBytes  缓存总大小上限，单个对象不超过其八分之一
+     */
+    public static ObjectCache open(RangeSource source, String directory, long maxBytes) throws IOException {
+        return new ObjectCache(source, Paths.get(directory), maxBytes, maxBytes / 8, DEFAULT_REVALIDATE_TTL, DEFAULT_FILL_THREADS);
+    }
+
+    /**
+     * @param maxObjectSize 单个对象的大小上限，超过的对象不缓存
+     * @param revalidateTtl etag校验间隔，单位毫秒，0为每次命中都校验
+     * @param fillThreads   同时填充的对象数
+     */
+    public ObjectCache(RangeSource source, Path directory, long maxBytes, long maxObjectSize,
+                       long revalidateTtl, int fillThreads) throws IOException {
+        if (maxBytes <= 0 || maxObjectSize <= 0 || maxObjectSize > maxBytes) {
+            throw new IllegalArgumentException("缓存大小必须大于0且不小于单个对象的上限");
+        }
+        this.source = source;
+        this.directory = directory.toAbsolutePath();
+        this.maxBytes = maxBytes;
+        this.maxObjectSize = maxObjectSize;
+        this.revalidateTtl = revalidateTtl;
+        Files.createDirectories(this.directory);
+        this.store = new LocalKvStore<>(this.directory.resolve(INDEX_FILE).toString(), CacheEntry.class);
+        this.fillExecutor = new ThreadPoolExecutor(fillThreads, fillThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(FILL_QUEUE_SIZE), new NamedThreadFactory("object-cache-fill-", true));
+        this.fillExecutor.allowCoreThreadTimeOut(true);
+        load();
+    }
+
+    /**
+     * 以缓存的对象信息响应区间请求，缓存的对象直接读本地文件
+     */
+    public RangeServer getRangeServer() {
+        return rangeServer;
+    }
+
+    /**
+     * 查询对象信息：命中且在校验间隔内时不访问对象存储，否则HEAD后按需开始后台填充
+     */
+    @Override
+    public ObjectStat stat(String bucketName, String objectName) throws Exception {
+        String key = cacheKey(bucketName, objectName);
+        CacheEntry entry = get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && now - entry.getValidatedAt() < revalidateTtl) {
+            return toStat(entry);
+        }
+        ObjectStat stat = source.stat(bucketName, objectName);
+        if (entry != null) {
+            if (StrUtil.equals(entry.getEtag(), stat.getEtag()) && entry.getSize().equals(stat.getSize())) {
+                entry.setValidatedAt(now);
+                return stat;
+            }
+            log.info("缓存的{}已被覆盖，重新缓存", objectName);
+            remove(key, entry);
+        }
+        startFill(key, bucketName, objectName, stat);
+        return stat;
+    }
+
+    /**
+     * 缓存中有该对象且etag一致时读本地文件，否则读对象存储
+     */
+    @Override
+    public InputStream openRange(String bucketName, String objectName, long offset, long length, String etag) throws Exception {
+        CacheEntry entry = get(cacheKey(bucketName, objectName));
+        if (entry != null && (etag == null || etag.equals(entry.getEtag())) && offset + length <= entry.getSize()) {
+            try {
+                FileChannel channel = FileChannel.open(directory.resolve(entry.getFileName()), StandardOpenOption.READ);
+                return new FileRangeInputStream(channel, offset, length) {
+                    @Override
+                    public void close() throws IOException {
+                        channel.close();
+                    }
+                };
+            } catch (NoSuchFileException e) {
+                // 刚被淘汰
+                log.debug("缓存文件已淘汰: {}", entry.getFileName());
+            }
+        }
+        return source.openRange(bucketName, objectName, offset, length, etag);
+    }
+
+    /**
+     * 完整下载，设置文件名；压缩对象按请求方是否接受该编码决定透传或解压
+     */
+    public void download(String bucketName, String objectName, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        ObjectStat stat = stat(bucketName, objectName);
+        InputStream inputStream = stat.getSize() == 0 ? new ByteArrayInputStream(new byte[0])
+                : openRange(bucketName, objectName, 0, stat.getSize(), stat.getEtag());
+        try {
+            inputStream = CompressionCodec.decodeForResponse(CompressionCodec.fromMetadata(stat.getUserMetadata()),
+                    inputStream, request, response);
+        } catch (IOException e) {
+            IoUtil.close(inputStream);
+            throw e;
+        }
+        response.setContentType("application/octet-stream");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + objectName + "\"");
+        AsyncStreamWriter.write(request, response, inputStream);
+    }
+
+    /**
+     * 对象被覆盖或删除后丢弃缓存，正在进行的填充下载的是旧内容，结果也一并丢弃
+     */
+    public void invalidate(String bucketName, String objectName) {
+        String key = cacheKey(bucketName, objectName);
+        synchronized (this) {
+            filling.replace(key, Boolean.FALSE, Boolean.TRUE);
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                remove(key, entry);
+            }
+        }
+        rangeServer.invalidate(bucketName, objectName);
+    }
+
+    /**
+     * 已缓存的总大小，单位字节
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * 已缓存的对象数
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        fillExecutor.shutdownNow();
+        store.close();
+    }
+
+    private void startFill(String key, String bucketName, String objectName, ObjectStat stat) {
+        if (stat.getSize() > maxObjectSize || filling.putIfAbsent(key, Boolean.FALSE) != null) {
+            return;
+        }
+        try {
+            fillExecutor.execute(() -> {
+                try {
+                    fill(key, bucketName, objectName, stat);
+                } finally {
+                    filling.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            filling.remove(key);
+            log.debug("缓存填充队列已满，跳过{}", objectName);
+        }
+    }
+
+    /**
+     * 先写临时文件，大小校验通过后改名，每次填充使用新的文件名，不影响正在读取旧文件的请求
+     */
+    private void fill(String key, String bucketName, String objectName, ObjectStat stat) {
+        Path fillPath = directory.resolve(IdUtil.fastSimpleUUID() + FILL_SUFFIX);
+        try {
+            if (stat.getSize() > 0) {
+                try (InputStream inputStream = source.openRange(bucketName, objectName, 0, stat.getSize(), stat.getEtag())) {
+                    Files.copy(inputStream, fillPath);
+                }
+            } else {
+                Files.createFile(fillPath);
+            }
+            if (Files.size(fillPath) != stat.getSize()) {
+                throw new IOException("下载的大小与对象大小不一致");
+            }
+            String fileName = IdUtil.fastSimpleUUID() + DATA_SUFFIX;
+            Files.move(fillPath, directory.resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+            if (!putFilled(key, new CacheEntry(bucketName, objectName, stat.getEtag(), stat.getSize(), stat.getLastModified(),
+                    stat.getUserMetadata(), fileName, System.currentTimeMillis()))) {
+                log.debug("{}在填充期间已被覆盖，丢弃本次缓存", objectName);
+                return;
+            }
+            log.debug("已缓存{}，{}字节", objectName, stat.getSize());
+        } catch (Exception e) {
+            log.warn("缓存{}失败: {}", objectName, e.getMessage());
+            deleteQuietly(fillPath);
+        }
+    }
+
+    private synchronized CacheEntry get(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(String key, CacheEntry entry) {
+        CacheEntry previous = entries.put(key, entry);
+        if (previous != null) {
+            totalBytes -= previous.getSize();
+            deleteQuietly(directory.resolve(previous.getFileName()));
+        }
+        totalBytes += entry.getSize();
+        store.put(key, entry);
+        evict();
+    }
+
+    /**
+     * 保存填充结果，填充期间对象已被本地覆盖或删除时删除文件并返回false
+     */
+    private synchronized boolean putFilled(String key, CacheEntry entry) {
+        if (Boolean.TRUE.equals(filling.get(key))) {
+            deleteQuietly(directory.resolve(entry.getFileName()));
+            return false;
+        }
+        put(key, entry);
+        return true;
+    }
+
+    private synchronized void remove(String key, CacheEntry entry) {
+        // 期间可能已被重新填充，只删除传入的条目
+        if (entries.get(key) == entry) {
+            entries.remove(key);
+            totalBytes -= entry.getSize();
+            store.remove(key);
+            deleteQuietly(directory.resolve(entry.getFileName()));
+        }
+    }
+
+    /**
+     * 按最近最少使用淘汰，直到总大小不超过上限；正在读取被淘汰文件的请求不受影响
+     */
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, CacheEntry> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue().getSize();
+            store.remove(eldest.getKey());
+            deleteQuietly(directory.resolve(eldest.getValue().getFileName()));
+        }
+    }
+
+    /**
+     * 从索引恢复缓存条目，删除文件缺失或大小不符的条目，以及索引中没有记录的文件
+     */
+    private synchronized void load() throws IOException {
+        Set<String> fileNames = new HashSet<>();
+        store.snapshot().forEach((key, entry) -> {
+            Path path = directory.resolve(entry.getFileName());
+            try {
+                if (Files.size(path) == entry.getSize()) {
+                    entry.setValidatedAt(0L);
+                    entries.put(key, entry);
+                    totalBytes += entry.getSize();
+                    fileNames.add(entry.getFileName());
+                    return;
+                }
+            } catch (IOException e) {
+                // 文件已不存在
+            }
+            store.remove(key);
+        });
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if ((name.endsWith(DATA_SUFFIX) || name.endsWith(FILL_SUFFIX)) && !fileNames.contains(name)) {
+                    deleteQuietly(path);
+                }
+            }
+        }
+        evict();
+        log.info("对象缓存已加载{}个对象，共{}字节", entries.size(), totalBytes);
+    }
+
+    private static ObjectStat toStat(CacheEntry entry) {
+        return new ObjectStat(entry.getSize(), entry.getEtag(), entry.getLastModified(), entry.getUserMetadata());
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("删除缓存文件{}失败: {}", path, e.getMessage());
+        }
+    }
+
+    private static String cacheKey(String bucketName, String objectName) {
+        return StrUtil.nullToEmpty(bucketName) + "/" + objectName;
+    }
+}
@@ -0,0 +1,232 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.yuanshuai.domain.ObjectStat;
+import com.yuanshuai.domain.PackEntry;
+import com.yuanshuai.interfaces.RangeSource;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 读取PackWriter生成的打包对象，按条目名称发起区间下载
+ * 索引按桶名和对象名缓存，读取条目时带上索引对应的etag由服务端校验，
+ * 打包对象被覆盖后读取失败，清除缓存的索引重新加载后重试一次
+ * <p>
+ * 条目地址格式为pack://打包对象名#条目名称，可以直接作为downloadFile的对象名使用
+ */
+@Slf4j
+public class PackReader {
+
+    /** 条目地址的前缀 */
+    public static final String SCHEME = "pack://";
+
+    /** 默认缓存的索引数 */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private final RangeSource source;
+
+    private final LRUCache<String, PackIndex> indexCache;
+
+    public PackReader(RangeSource source) {
+        this(source, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param source    对象的区间读取方式
+     * @param cacheSize 缓存的索引数
+     */
+    public PackReader(RangeSource source, int cacheSize) {
+        this.source = source;
+        this.indexCache = CacheUtil.newLRUCache(cacheSize);
+    }
+
+    /**
+     * 对象名是否为pack://打包对象名#条目名称格式的条目地址
+     */
+    public static boolean isPackAddress(String objectName) {
+        return objectName != null && objectName.startsWith(SCHEME) && objectName.indexOf('#') > SCHEME.length();
+    }
+
+    /**
+     * 条目地址中的打包对象名
+     */
+    public static String packObjectName(String address) {
+        return address.substring(SCHEME.length(), address.indexOf('#'));
+    }
+
+    /**
+     * 条目地址中的条目名称
+     */
+    public static String entryName(String address) {
+        return address.substring(address.indexOf('#') + 1);
+    }
+
+    public static String address(String packObjectName, String entryName) {
+        return SCHEME + packObjectName + "#" + entryName;
+    }
+
+    /**
+     * 打包对象中的全部条目，按写入顺序排列
+     */
+    public List<PackEntry> listEntries(String bucketName, String packObjectName) throws Exception {
+        return new ArrayList<>(index(bucketName, packObjectName).entries.values());
+    }
+
+    /**
+     * 打开一个条目的内容
+     *
+     * @throws FileNotFoundException 打包对象中没有该条目
+     */
+    public InputStream openEntry(String bucketName, String packObjectName, String entryName) throws Exception {
+        PackIndex index = index(bucketName, packObjectName);
+        try {
+            return openEntry(bucketName, packObjectName, index, entryName);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            // 可能是打包对象已被覆盖，etag校验失败
+            log.info("读取打包对象{}的条目{}失败，重新加载索引: {}", packObjectName, entryName, e.getMessage());
+            invalidate(bucketName, packObjectName);
+            return openEntry(bucketName, packObjectName, index(bucketName, packObjectName), entryName);
+        }
+    }
+
+    /**
+     * 条目内容写出到响应，设置文件名和Content-Length
+     *
+     * @param address pack://打包对象名#条目名称
+     */
+    public void download(String bucketName, String address, HttpServletResponse response) throws Exception {
+        String entryName = entryName(address);
+        PackEntry entry = getEntry(bucketName, packObjectName(address), entryName);
+        try (InputStream inputStream = openEntry(bucketName, packObjectName(address), entryName);
+             OutputStream outputStream = response.getOutputStream()) {
+            response.setContentType("application/octet-stream");
+            response.setHeader("Content-Disposition", "attachment; filename=\"" + entryName + "\"");
+            response.setContentLengthLong(entry.getLength());
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * 条目内容写入本地文件
+     *
+     * @param address  pack://打包对象名#条目名称
+     * @param override 是否覆盖本地文件
+     */
+    public void download(String bucketName, String address, Path path, boolean override) throws Exception {
+        try (InputStream inputStream = openEntry(bucketName, packObjectName(address), entryName(address))) {
+            if (override) {
+                Files.copy(inputStream, path, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.copy(inputStream, path);
+            }
+        }
+    }
+
+    /**
+     * 打包对象被重新上传后清除缓存的索引
+     */
+    public void invalidate(String bucketName, String packObjectName) {
+        indexCache.remove(cacheKey(bucketName, packObjectName));
+    }
+
+    private PackEntry getEntry(String bucketName, String packObjectName, String entryName) throws Exception {
+        PackEntry entry = index(bucketName, packObjectName).entries.get(entryName);
+        if (entry == null) {
+            throw new FileNotFoundException("打包对象" + packObjectName + "中没有条目" + entryName);
+        }
+        return entry;
+    }
+
+    private InputStream openEntry(String bucketName, String packObjectName, PackIndex index, String entryName) throws Exception {
+        PackEntry entry = index.entries.get(entryName);
+        if (entry == null) {
+            throw new FileNotFoundException("打包对象" + packObjectName + "中没有条目" + entryName);
+        }
+        if (entry.getLength() == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        return source.openRange(bucketName, packObjectName, entry.getOffset(), entry.getLength(), index.etag);
+    }
+
+    private PackIndex index(String bucketName, String packObjectName) throws Exception {
+        String key = cacheKey(bucketName, packObjectName);
+        PackIndex index = indexCache.get(key);
+        if (index == null) {
+            index = loadIndex(bucketName, packObjectName);
+            indexCache.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * 先读末尾16字节得到索引的位置和长度，再读索引
+     */
+    private PackIndex loadIndex(String bucketName, String packObjectName) throws Exception {
+        ObjectStat stat = source.stat(bucketName, packObjectName);
+        if (stat.getSize() < PackWriter.FOOTER_SIZE) {
+            throw new IOException(packObjectName + "不是打包对象");
+        }
+        long indexOffset;
+        int indexLength;
+        try (DataInputStream footer = new DataInputStream(source.openRange(bucketName, packObjectName,
+                stat.getSize() - PackWriter.FOOTER_SIZE, PackWriter.FOOTER_SIZE, stat.getEtag()))) {
+            indexOffset = footer.readLong();
+            indexLength = footer.readInt();
+            if (footer.readInt() != PackWriter.MAGIC
+                    || indexOffset + indexLength + PackWriter.FOOTER_SIZE != stat.getSize()) {
+                throw new IOException(packObjectName + "不是打包对象");
+            }
+        }
+        byte[] json = new byte[indexLength];
+        try (DataInputStream inputStream = new DataInputStream(source.openRange(bucketName, packObjectName,
+                indexOffset, indexLength, stat.getEtag()))) {
+            inputStream.readFully(json);
+        }
+        Map<String, PackEntry> entries = new LinkedHashMap<>();
+        for (PackEntry entry : JSONUtil.toList(new String(json, StandardCharsets.UTF_8), PackEntry.class)) {
+            entries.put(entry.getName(), entry);
+        }
+        return new PackIndex(stat.getEtag(), entries);
+    }
+
+    private static String cacheKey(String bucketName, String packObjectName) {
+        return StrUtil.nullToEmpty(bucketName) + "/" + packObjectName;
+    }
+
+    private static final class PackIndex {
+
+        private final String etag;
+
+        private final Map<String, PackEntry> entries;
+
+        private PackIndex(String etag, Map<String, PackEntry> entries) {
+            this.etag = etag;
+            this.entries = entries;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import cn.hutool.json.JSONUtil;
+import com.yuanshuai.domain.PackEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 小文件打包：把大量小文件依次写入一个本地临时文件，末尾追加索引，作为一个对象上传，
+ * 一次PUT代替每个小文件一次PUT，读取时按索引中的偏移量和长度发起区间下载
+ * <p>
+ * 打包格式：
+ * <pre>
+ * [条目1内容][条目2内容]...[索引json][索引起始位置 8字节][索引长度 4字节][魔数 4字节]
+ * </pre>
+ * 索引为条目列表的json，每个条目记录名称、偏移量、长度和md5；末尾16字节固定，读取时先读末尾再读索引
+ */
+public class PackWriter implements Closeable {
+
+    /** 打包对象末尾的魔数 */
+    public static final int MAGIC = 0x5041_4b31;
+
+    /** 末尾固定部分的长度 */
+    public static final int FOOTER_SIZE = 16;
+
+    private final Path path;
+
+    private final DataOutputStream outputStream;
+
+    private final List<PackEntry> entries = new ArrayList<>();
+
+    private final Set<String> names = new HashSet<>();
+
+    private long position;
+
+    private boolean finished;
+
+    public PackWriter() throws IOException {
+        this.path = Files.createTempFile("storage-pack-", ".tmp");
+        try {
+            this.outputStream = new DataOutputStream(Files.newOutputStream(path));
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /**
+     * 写入一个条目，不会关闭传入的流
+     *
+     * @param name 条目名称，不能重复
+     * @return 写入的条目
+     */
+    public PackEntry add(String name, InputStream inputStream) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("打包已完成，不能继续写入");
+        }
+        if (StrUtil.isEmpty(name) || !names.add(name)) {
+            throw new IllegalArgumentException("条目名称为空或重复: " + name);
+        }
+        MessageDigest md5 = DigestUtil.digester("MD5").getDigest();
+        long offset = position;
+        byte[] buffer = new byte[64 * 1024];
+        int len;
+        while ((len = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, len);
+            md5.update(buffer, 0, len);
+            position += len;
+        }
+        PackEntry entry = new PackEntry(name, offset, position - offset, HexUtil.encodeHexStr(md5.digest()));
+        entries.add(entry);
+        return entry;
+    }
+
+    public PackEntry add(String name, byte[] data) throws IOException {
+        return add(name, new ByteArrayInputStream(data));
+    }
+
+    /**
+     * 已写入的条目数
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * 已写入的条目内容大小，不含索引
+     */
+    public long getDataSize() {
+        return position;
+    }
+
+    public List<PackEntry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * 写入索引和末尾固定部分，之后不能再写入条目
+     *
+     * @return 打包文件的路径，关闭后删除
+     */
+    public Path finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            byte[] index = JSONUtil.toJsonStr(entries).getBytes(StandardCharsets.UTF_8);
+            outputStream.write(index);
+            outputStream.writeLong(position);
+            outputStream.writeInt(index.length);
+            outputStream.writeInt(MAGIC);
+            outputStream.close();
+        }
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (OutputStream ignored = outputStream) {
+            finished = true;
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.yuanshuai.constants.ChecksumAlgorithm;
+import com.yuanshuai.domain.ChecksumResult;
+import com.yuanshuai.domain.FileInfo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 分片清单构建：计算整个文件的md5和每个分片的md5、crc32c，每个分片的两种校验和在一次读取中同时计算
+ * 文件通过内存映射读取，各分片在ForkJoin线程池中并行计算，整个文件的md5在当前线程同时顺序计算，
+ * 两者读取的是同一批映射页，文件内容基本只从磁盘读取一次
+ */
+public class PartManifestBuilder {
+
+    /** 单次映射的最大长度，MappedByteBuffer不能超过2GB */
+    private static final long MAP_WINDOW = 256 * 1024 * 1024L;
+
+    private static final ForkJoinPool HASH_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * 构建分片清单，返回的FileInfo只包含fileMd5、totalNum和parts，parts中同时包含分片md5和crc32c
+     *
+     * @param path     文件路径
+     * @param partSize 分片大小
+     */
+    public static FileInfo build(Path path, long partSize) throws IOException {
+        if (partSize <= 0) {
+            throw new IllegalArgumentException("分片大小必须大于0");
+        }
+        long fileSize = Files.size(path);
+        int totalNum = (int) ((fileSize + partSize - 1) / partSize);
+        ChecksumResult[] partChecksums = new ChecksumResult[totalNum];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ForkJoinTask<Void> partTask = HASH_POOL.submit(new PartHashAction(channel, fileSize, partSize, 0, totalNum, partChecksums));
+            String fileMd5 = HexUtil.encodeHexStr(md5Range(channel, 0, fileSize));
+            try {
+                partTask.join();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            List<FileInfo.PartInfo> parts = new ArrayList<>(totalNum);
+            for (int i = 0; i < totalNum; i++) {
+                parts.add(new FileInfo.PartInfo(partChecksums[i].getMd5(), StrUtil.toString(i + 1), partChecksums[i].getCrc32c()));
+            }
+            FileInfo fileInfo = new FileInfo();
+            fileInfo.setFileMd5(fileMd5);
+            fileInfo.setTotalNum(StrUtil.toString(totalNum));
+            fileInfo.setParts(parts);
+            return fileInfo;
+        }
+    }
+
+    private static byte[] md5Range(FileChannel channel, long start, long length) throws IOException {
+        MessageDigest md5 = DigestUtil.digester("MD5").getDigest();
+        long position = start;
+        long end = start + length;
+        while (position < end) {
+            long windowSize = Math.min(MAP_WINDOW, end - position);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            md5.update(buffer);
+            position += windowSize;
+        }
+        return md5.digest();
+    }
+
+    /**
+     * md5和crc32c从同一个映射缓冲区读取，分片内容只读取一次
+     */
+    private static ChecksumResult checksumRange(FileChannel channel, long start, long length) throws IOException {
+        MultiChecksum checksum = new MultiChecksum(ChecksumAlgorithm.MD5, ChecksumAlgorithm.CRC32C);
+        long position = start;
+        long end = start + length;
+        while (position < end) {
+            long windowSize = Math.min(MAP_WINDOW, end - position);
+            checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize));
+            position += windowSize;
+        }
+        return checksum.getResult();
+    }
+
+    /**
+     * 按分片序号区间二分拆分的并行计算任务
+     */
+    private static class PartHashAction extends RecursiveAction {
+
+        private final FileChannel channel;
+        private final long fileSize;
+        private final long partSize;
+        private final int from;
+        private final int to;
+        private final ChecksumResult[] partChecksums;
+
+        PartHashAction(FileChannel channel, long fileSize, long partSize, int from, int to, ChecksumResult[] partChecksums) {
+            this.channel = channel;
+            this.fileSize = fileSize;
+            this.partSize = partSize;
+            this.from = from;
+            this.to = to;
+            this.partChecksums = partChecksums;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) {
+                    long start = from * partSize;
+                    try {
+                        partChecksums[from] = checksumRange(channel, start, Math.min(partSize, fileSize - start));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new PartHashAction(channel, fileSize, partSize, from, middle, partChecksums),
+                    new PartHashAction(channel, fileSize, partSize, middle, to, partChecksums));
+        }
+    }
+}
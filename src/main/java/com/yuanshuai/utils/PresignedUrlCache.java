@@ -0,0 +1,63 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 预签名url缓存，同一请求方式、对象和有效期的url在过期前一段时间内重复使用，不重复签名
+ * <p>
+ * 缓存时间为有效期减去其五分之一（最多一分钟），取到的url至少还有这段余量可用；
+ * 签名只是本地计算，缓存的作用是让同一对象的大量请求拿到相同的url，便于客户端和CDN按url缓存内容
+ */
+public class PresignedUrlCache {
+
+    /** 默认缓存的url数 */
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+
+    /** 默认有效期，单位秒 */
+    public static final int DEFAULT_EXPIRE_SECONDS = 3600;
+
+    /** 有效期上限，单位秒，s3和minio的签名最长7天 */
+    public static final int MAX_EXPIRE_SECONDS = 7 * 24 * 3600;
+
+    private static final long MAX_MARGIN = 60_000L;
+
+    private final LRUCache<String, String> cache;
+
+    public PresignedUrlCache() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public PresignedUrlCache(int cacheSize) {
+        this.cache = CacheUtil.newLRUCache(cacheSize);
+    }
+
+    /**
+     * 取缓存的url，没有或即将过期时重新签名
+     *
+     * @param key           请求方式、桶名、对象名等能区分url的信息
+     * @param expireSeconds url有效期，单位秒
+     * @param signer        签名
+     */
+    public String get(String key, int expireSeconds, Callable<String> signer) throws Exception {
+        if (expireSeconds <= 0 || expireSeconds > MAX_EXPIRE_SECONDS) {
+            throw new IllegalArgumentException("有效期必须在1秒到7天之间");
+        }
+        String cacheKey = key + "#" + expireSeconds;
+        String url = cache.get(cacheKey, false);
+        if (url != null) {
+            return url;
+        }
+        url = signer.call();
+        long expireMillis = expireSeconds * 1000L;
+        long timeout = expireMillis - Math.min(expireMillis / 5, MAX_MARGIN);
+        cache.put(cacheKey, url, timeout);
+        return url;
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+}
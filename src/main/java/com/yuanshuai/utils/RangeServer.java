@@ -0,0 +1,359 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import com.yuanshuai.domain.ObjectStat;
+import com.yuanshuai.interfaces.RangeSource;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 按RFC 7233响应区间请求：单区间、后缀区间(bytes=-n)和多区间(multipart/byteranges)，
+ * 同时处理If-Match、If-None-Match、If-Modified-Since和If-Range条件请求，条件满足时返回304/412，
+ * If-Range不匹配时忽略Range返回完整内容
+ * <p>
+ * 对象信息按桶名和对象名短时间缓存，视频拖动等连续的区间请求只需要一次HEAD，之后每次请求只有区间本身的GET；
+ * 读取区间时带上缓存的etag由服务端校验，对象已被覆盖时清除缓存重新查询后重试一次
+ * <p>
+ * 单区间和完整内容通过AsyncStreamWriter异步写出；多区间请求很少见，在请求线程中依次写出各分段
+ */
+@Slf4j
+public class RangeServer {
+
+    /** 默认缓存的对象信息数 */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    /** 对象信息默认缓存时间，单位毫秒，对象被覆盖后最多在这段时间内仍按旧etag判断304 */
+    public static final long DEFAULT_STAT_TTL = 10_000L;
+
+    /** 合并后区间数超过该值时按完整内容响应 */
+    public static final int MAX_RANGES = 32;
+
+    /** 间隔小于该值的区间合并为一个，避免分段头部比间隔本身还大 */
+    private static final long MERGE_GAP = 256;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String CRLF = "\r\n";
+
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    private final RangeSource source;
+
+    private final LRUCache<String, ObjectStat> statCache;
+
+    public RangeServer(RangeSource source) {
+        this(source, DEFAULT_CACHE_SIZE, DEFAULT_STAT_TTL);
+    }
+
+    /**
+     * @param source    对象的区间读取方式
+     * @param cacheSize 缓存的对象信息数
+     * @param statTtl   对象信息缓存时间，单位毫秒
+     */
+    public RangeServer(RangeSource source, int cacheSize, long statTtl) {
+        this.source = source;
+        this.statCache = CacheUtil.newLRUCache(cacheSize, statTtl);
+    }
+
+    /**
+     * 查询对象信息，优先使用缓存
+     */
+    public ObjectStat stat(String bucketName, String objectName) throws Exception {
+        String key = cacheKey(bucketName, objectName);
+        // 不刷新访问时间，持续有请求的对象也在statTtl后重新查询，其他节点覆盖对象后能及时发现
+        ObjectStat stat = statCache.get(key, false);
+        if (stat == null) {
+            stat = source.stat(bucketName, objectName);
+            statCache.put(key, stat);
+        }
+        return stat;
+    }
+
+    /**
+     * 对象被覆盖或删除后清除缓存的对象信息
+     */
+    public void invalidate(String bucketName, String objectName) {
+        statCache.remove(cacheKey(bucketName, objectName));
+    }
+
+    /**
+     * 响应一次GET或HEAD请求，HEAD请求不读取对象内容
+     *
+     * @return 对象的压缩编码不被请求方接受时返回false，不写任何响应，由调用方解压后返回完整内容
+     */
+    public boolean serve(String bucketName, String objectName, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        try {
+            return serve(bucketName, objectName, stat(bucketName, objectName), request, response);
+        } catch (Exception e) {
+            if (response.isCommitted()) {
+                throw e;
+            }
+            // 缓存的etag可能已过期，区间读取的etag校验失败
+            log.info("读取{}失败，重新查询对象信息后重试: {}", objectName, e.getMessage());
+            invalidate(bucketName, objectName);
+            response.reset();
+            return serve(bucketName, objectName, stat(bucketName, objectName), request, response);
+        }
+    }
+
+    private boolean serve(String bucketName, String objectName, ObjectStat stat,
+                          HttpServletRequest request, HttpServletResponse response) throws Exception {
+        CompressionCodec codec = CompressionCodec.fromMetadata(stat.getUserMetadata());
+        if (codec != null && !codec.isAcceptedBy(request)) {
+            return false;
+        }
+        long size = stat.getSize();
+        String etag = stat.getEtag();
+        long lastModified = stat.getLastModified() == null ? -1 : stat.getLastModified();
+        if (codec != null) {
+            // 区间按压缩后的数据计算，与Content-Encoding的语义一致
+            response.setHeader("Content-Encoding", codec.getName());
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        response.setHeader("Accept-Ranges", "bytes");
+        if (StrUtil.isNotEmpty(etag)) {
+            response.setHeader("ETag", "\"" + etag + "\"");
+        }
+        if (lastModified >= 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+
+        // 条件请求的判断顺序见RFC 7232第6节
+        String ifMatch = request.getHeader("If-Match");
+        if (ifMatch != null && !etagMatches(ifMatch, etag, false)) {
+            response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return true;
+        }
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null ? etagMatches(ifNoneMatch, etag, true) : notModifiedSince(request, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+
+        List<long[]> ranges = ifRangeMatches(request, etag, lastModified) ? parseRanges(request.getHeader("Range"), size) : null;
+        if (ranges != null && ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + size);
+            return true;
+        }
+        boolean head = "HEAD".equalsIgnoreCase(request.getMethod());
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(CONTENT_TYPE);
+            response.setContentLengthLong(size);
+            if (!head && size > 0) {
+                writeRange(bucketName, objectName, etag, 0, size - 1, request, response);
+            }
+        } else if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(CONTENT_TYPE);
+            response.setHeader("Content-Range", contentRange(range, size));
+            response.setContentLengthLong(range[1] - range[0] + 1);
+            if (!head) {
+                writeRange(bucketName, objectName, etag, range[0], range[1], request, response);
+            }
+        } else {
+            writeByteRanges(bucketName, objectName, etag, size, ranges, head, response);
+        }
+        return true;
+    }
+
+    /**
+     * 多区间以multipart/byteranges返回，各分段头部事先确定，可以算出准确的Content-Length
+     */
+    private void writeByteRanges(String bucketName, String objectName, String etag, long size, List<long[]> ranges,
+                                 boolean head, HttpServletResponse response) throws Exception {
+        String boundary = IdUtil.fastSimpleUUID();
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = (CRLF + "--" + boundary + CRLF
+                    + "Content-Type: " + CONTENT_TYPE + CRLF
+                    + "Content-Range: " + contentRange(range, size) + CRLF + CRLF).getBytes(StandardCharsets.ISO_8859_1);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range[1] - range[0] + 1;
+        }
+        byte[] end = (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.ISO_8859_1);
+        contentLength += end.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (head) {
+            return;
+        }
+        OutputStream outputStream = response.getOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            // 先打开区间再写分段头部，第一个区间的etag校验失败时响应还未提交，可以重试
+            try (InputStream inputStream = source.openRange(bucketName, objectName, range[0], range[1] - range[0] + 1, etag)) {
+                outputStream.write(partHeaders.get(i));
+                copy(inputStream, outputStream, range[1] - range[0] + 1, buffer);
+            }
+        }
+        outputStream.write(end);
+        outputStream.flush();
+    }
+
+    /**
+     * 单个区间或完整内容异步写出，区间在当前线程打开，etag校验失败时响应还未提交，可以重试
+     */
+    private void writeRange(String bucketName, String objectName, String etag, long start, long end,
+                            HttpServletRequest request, HttpServletResponse response) throws Exception {
+        AsyncStreamWriter.write(request, response, source.openRange(bucketName, objectName, start, end - start + 1, etag));
+    }
+
+    private static void copy(InputStream inputStream, OutputStream outputStream, long length, byte[] buffer) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int len = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (len == -1) {
+                throw new EOFException("区间内容不完整，还差" + remaining + "字节");
+            }
+            outputStream.write(buffer, 0, len);
+            remaining -= len;
+        }
+    }
+
+    /**
+     * 解析Range请求头，区间按起始位置排序，重叠或相邻的区间合并
+     *
+     * @return null表示没有Range、格式错误或区间过多，按完整内容响应；空列表表示所有区间都不可满足
+     */
+    static List<long[]> parseRanges(String header, long size) {
+        if (header == null || !header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        boolean any = false;
+        for (String spec : header.substring(6).split(",")) {
+            spec = spec.trim();
+            if (spec.isEmpty()) {
+                continue;
+            }
+            any = true;
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            try {
+                if (first.isEmpty()) {
+                    // 后缀区间：最后n个字节
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && size > 0) {
+                        ranges.add(new long[]{Math.max(0, size - suffix), size - 1});
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < size) {
+                        ranges.add(new long[]{start, Math.min(end, size - 1)});
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (!any) {
+            return null;
+        }
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        List<long[]> merged = new ArrayList<>();
+        for (long[] range : ranges) {
+            long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (previous != null && range[0] <= previous[1] + MERGE_GAP) {
+                previous[1] = Math.max(previous[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged.size() > MAX_RANGES ? null : merged;
+    }
+
+    /**
+     * If-Range使用强比较，弱etag不匹配；也可以是时间，与最后修改时间按秒精确相等才匹配
+     */
+    private static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return StrUtil.isNotEmpty(etag) && ifRange.equals("\"" + etag + "\"");
+        }
+        try {
+            long date = request.getDateHeader("If-Range");
+            return lastModified >= 0 && date / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean notModifiedSince(HttpServletRequest request, long lastModified) {
+        try {
+            long since = request.getDateHeader("If-Modified-Since");
+            return since >= 0 && lastModified >= 0 && lastModified / 1000 <= since / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 请求头中的etag列表是否包含对象的etag
+     *
+     * @param weak 是否弱比较，弱比较时忽略W/前缀
+     */
+    private static boolean etagMatches(String header, String etag, boolean weak) {
+        if (StrUtil.isEmpty(etag)) {
+            return false;
+        }
+        if ("*".equals(header.trim())) {
+            return true;
+        }
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                if (!weak) {
+                    continue;
+                }
+                tag = tag.substring(2);
+            }
+            if (etag.equals(StrUtil.unWrap(tag, '"'))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String contentRange(long[] range, long size) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + size;
+    }
+
+    private static String cacheKey(String bucketName, String objectName) {
+        return StrUtil.nullToEmpty(bucketName) + "/" + objectName;
+    }
+}
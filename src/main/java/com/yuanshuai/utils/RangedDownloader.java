@@ -0,0 +1,300 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import cn.hutool.json.JSONUtil;
+import com.yuanshuai.constants.ChecksumAlgorithm;
+import com.yuanshuai.domain.DownloadCheckpoint;
+import com.yuanshuai.domain.ObjectStat;
+import com.yuanshuai.interfaces.RangeSource;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 分区间并发下载到本地文件：对象按区间切分，各区间并发读取，通过FileChannel按位置写入预先分配好大小的临时文件
+ * 每个区间读取时带上开始下载时的etag由服务端校验，下载过程中对象被覆盖则失败
+ * <p>
+ * 断点文件与目标文件同目录，名为目标文件名加.checkpoint，第一行为下载信息的json，之后每下载完一个区间追加一行
+ * "区间序号,区间md5"；进程崩溃后再次下载同一对象时跳过已记录的区间，对象etag、大小或区间大小变化时重新下载
+ * <p>
+ * 区间读取中断时从已写入的位置继续读取该区间剩余部分，最多重试MAX_RANGE_ATTEMPTS次，重试前重新查询etag，
+ * 对象已被覆盖时直接失败，不把新旧内容拼在一起
+ * <p>
+ * 下载完成后按etag校验：单次上传的对象etag为文件md5，重新计算整个文件的md5比对，不一致时删除下载的文件；
+ * 分片上传的对象按上传时的第一个分片大小切分区间，用各区间的md5计算分片etag比对，不需要再读一遍文件，
+ * 不一致时同样删除下载的文件；按第一个分片大小切分的区间数与分片数不同时无法还原etag，跳过校验
+ */
+@Slf4j
+public class RangedDownloader {
+
+    /** 默认区间大小 */
+    public static final long DEFAULT_PART_SIZE = 16 * 1024 * 1024L;
+
+    /** 断点文件后缀 */
+    public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    /** 下载中的临时文件后缀 */
+    public static final String DOWNLOAD_SUFFIX = ".download";
+
+    /** 单个区间的最多读取次数 */
+    public static final int MAX_RANGE_ATTEMPTS = 3;
+
+    /** 区间重试的等待时间基数，单位毫秒，第n次重试等待n倍 */
+    private static final long RETRY_INTERVAL = 1000L;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final Pattern MD5_ETAG = Pattern.compile("[0-9a-fA-F]{32}");
+
+    private static final Pattern MULTIPART_ETAG = Pattern.compile("[0-9a-fA-F]{32}-(\\d+)");
+
+    /**
+     * @param source   对象的区间读取方式
+     * @param path     目标文件
+     * @param partSize 区间大小，分片上传的对象改用上传时的分片大小
+     * @param taskNum  同时下载的区间数
+     * @param override 目标文件已存在时是否覆盖
+     */
+    public static void download(RangeSource source, String bucketName, String objectName, Path path,
+                                long partSize, int taskNum, boolean override) throws Exception {
+        if (partSize <= 0) {
+            throw new IllegalArgumentException("区间大小必须大于0");
+        }
+        if (Files.exists(path) && !override) {
+            throw new IOException("本地文件已存在: " + path);
+        }
+        ObjectStat stat = source.stat(bucketName, objectName);
+        long size = stat.getSize();
+        int etagParts = multipartCount(stat.getEtag());
+        long uploadPartSize = etagParts > 0 ? source.firstPartSize(bucketName, objectName) : -1;
+        // 区间与上传分片一致时，可以直接用各区间的md5计算分片etag
+        boolean partAligned = uploadPartSize > 0 && (size + uploadPartSize - 1) / uploadPartSize == etagParts;
+        long rangeSize = partAligned ? uploadPartSize : partSize;
+
+        Path data = sibling(path, DOWNLOAD_SUFFIX);
+        Path checkpointPath = sibling(path, CHECKPOINT_SUFFIX);
+        DownloadCheckpoint checkpoint = loadCheckpoint(checkpointPath, data, bucketName, objectName, stat, rangeSize);
+        if (checkpoint == null) {
+            checkpoint = new DownloadCheckpoint(bucketName, objectName, stat.getEtag(), size, rangeSize, new HashMap<>());
+            try (RandomAccessFile file = new RandomAccessFile(data.toFile(), "rw")) {
+                file.setLength(size);
+            }
+            Files.write(checkpointPath, (JSONUtil.toJsonStr(checkpoint) + "\n").getBytes(StandardCharsets.UTF_8));
+        } else {
+            log.info("{}从断点继续下载，已下载{}个区间", objectName, checkpoint.getParts().size());
+        }
+
+        int total = (int) ((size + rangeSize - 1) / rangeSize);
+        String[] partMd5s = new String[total];
+        checkpoint.getParts().forEach((partNumber, md5) -> partMd5s[Integer.parseInt(partNumber) - 1] = md5);
+        List<Future<Void>> futures = new ArrayList<>();
+        try (TransferExecutor executor = new TransferExecutor("ranged-download-", taskNum);
+             FileChannel channel = FileChannel.open(data, StandardOpenOption.WRITE);
+             CheckpointWriter checkpointWriter = new CheckpointWriter(checkpointPath)) {
+            try {
+                for (int i = 0; i < total; i++) {
+                    if (partMd5s[i] != null) {
+                        continue;
+                    }
+                    int partNumber = i + 1;
+                    long offset = i * rangeSize;
+                    long length = Math.min(rangeSize, size - offset);
+                    futures.add(executor.submit(() -> {
+                        String md5 = downloadRange(source, bucketName, objectName, stat.getEtag(), channel, offset, length);
+                        partMd5s[partNumber - 1] = md5;
+                        // 区间内容落盘后再记录断点，避免断电后断点记录的区间内容丢失
+                        channel.force(false);
+                        checkpointWriter.record(partNumber, md5);
+                        return null;
+                    }));
+                }
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                futures.forEach(future -> future.cancel(true));
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+        }
+
+        if (!verify(stat.getEtag(), etagParts, partAligned, partMd5s, data)) {
+            Files.deleteIfExists(data);
+            Files.deleteIfExists(checkpointPath);
+            throw new IOException(objectName + "下载内容与etag不一致，已删除，请重新下载");
+        }
+        Files.move(data, path, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(checkpointPath);
+        log.info("{}分区间下载完成，共{}个区间", objectName, total);
+    }
+
+    /**
+     * 读取一个区间按位置写入文件，同时计算区间md5
+     * 读取中断时从已写入的位置继续，md5只累计已写入的字节，与继续的位置保持一致
+     */
+    private static String downloadRange(RangeSource source, String bucketName, String objectName, String etag,
+                                        FileChannel channel, long offset, long length) throws Exception {
+        MessageDigest md5 = DigestUtil.digester("MD5").getDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long end = offset + length;
+        long position = offset;
+        for (int attempt = 1; ; attempt++) {
+            try (InputStream inputStream = source.openRange(bucketName, objectName, position, end - position, etag)) {
+                int len;
+                while (position < end && (len = inputStream.read(buffer, 0, (int) Math.min(buffer.length, end - position))) != -1) {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, len);
+                    while (byteBuffer.hasRemaining()) {
+                        int start = byteBuffer.position();
+                        int written = channel.write(byteBuffer, position);
+                        md5.update(buffer, start, written);
+                        position += written;
+                    }
+                }
+                if (position != end) {
+                    throw new IOException(StrUtil.format("区间{}-{}只读取到{}字节", offset, end - 1, position - offset));
+                }
+                return HexUtil.encodeHexStr(md5.digest());
+            } catch (Exception e) {
+                if (attempt >= MAX_RANGE_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                log.warn("区间{}-{}读取中断，第{}次重试，从{}继续: {}", offset, end - 1, attempt, position, e.getMessage());
+                Thread.sleep(RETRY_INTERVAL * attempt);
+                String current = source.stat(bucketName, objectName).getEtag();
+                if (!StrUtil.equals(etag, current)) {
+                    throw new IOException(StrUtil.format("{}下载过程中已被覆盖，etag由{}变为{}", objectName, etag, current), e);
+                }
+            }
+        }
+    }
+
+    private static boolean verify(String etag, int etagParts, boolean partAligned, String[] partMd5s, Path data) throws IOException {
+        if (etagParts > 0) {
+            if (!partAligned) {
+                log.info("无法确定上传时的分片大小，跳过etag校验: {}", etag);
+                return true;
+            }
+            byte[] combined = new byte[partMd5s.length * 16];
+            for (int i = 0; i < partMd5s.length; i++) {
+                System.arraycopy(HexUtil.decodeHex(partMd5s[i]), 0, combined, i * 16, 16);
+            }
+            // If-Match只保证读到的是同一版本的对象，不校验传输的内容，区间与分片一致时etag不一致即内容有误
+            String calculated = DigestUtil.md5Hex(combined) + "-" + partMd5s.length;
+            if (!calculated.equalsIgnoreCase(etag)) {
+                log.error("按上传分片计算的etag与对象etag不一致，计算值: {}，对象etag: {}", calculated, etag);
+                return false;
+            }
+            return true;
+        }
+        if (etag != null && MD5_ETAG.matcher(etag).matches()) {
+            return MultiChecksum.compute(data, ChecksumAlgorithm.MD5).getMd5().equalsIgnoreCase(etag);
+        }
+        log.info("etag不是md5，跳过校验: {}", etag);
+        return true;
+    }
+
+    /**
+     * 读取断点，下载信息与当前对象不一致或临时文件不存在时删除断点并返回null
+     */
+    private static DownloadCheckpoint loadCheckpoint(Path checkpointPath, Path data, String bucketName, String objectName,
+                                                     ObjectStat stat, long rangeSize) throws IOException {
+        if (!Files.exists(checkpointPath)) {
+            return null;
+        }
+        DownloadCheckpoint checkpoint = null;
+        try (BufferedReader reader = Files.newBufferedReader(checkpointPath, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line != null) {
+                checkpoint = JSONUtil.toBean(line, DownloadCheckpoint.class);
+                checkpoint.setParts(new HashMap<>());
+                while ((line = reader.readLine()) != null) {
+                    // 崩溃时最后一行可能没有写完
+                    String[] fields = line.split(",");
+                    if (fields.length == 2 && MD5_ETAG.matcher(fields[1]).matches()) {
+                        checkpoint.getParts().put(fields[0], fields[1]);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("断点文件损坏，重新下载: {}", e.getMessage());
+            checkpoint = null;
+        }
+        boolean valid = checkpoint != null
+                && StrUtil.equals(bucketName, checkpoint.getBucketName())
+                && StrUtil.equals(objectName, checkpoint.getObjectName())
+                && StrUtil.equals(stat.getEtag(), checkpoint.getEtag())
+                && checkpoint.getSize() != null && checkpoint.getSize() == stat.getSize()
+                && checkpoint.getPartSize() != null && checkpoint.getPartSize() == rangeSize
+                && Files.exists(data) && Files.size(data) == stat.getSize();
+        if (!valid) {
+            Files.deleteIfExists(checkpointPath);
+            Files.deleteIfExists(data);
+            return null;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * 分片上传的etag形如md5-分片数
+     *
+     * @return 分片数，不是分片上传的etag时返回0
+     */
+    private static int multipartCount(String etag) {
+        if (etag == null) {
+            return 0;
+        }
+        Matcher matcher = MULTIPART_ETAG.matcher(etag);
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+
+    private static Path sibling(Path path, String suffix) {
+        return path.resolveSibling(path.getFileName() + suffix);
+    }
+
+    /**
+     * 断点追加写入，多个下载线程共用
+     */
+    private static final class CheckpointWriter implements Closeable {
+
+        private final Writer writer;
+
+        private CheckpointWriter(Path path) throws IOException {
+            this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        }
+
+        synchronized void record(int partNumber, String md5) throws IOException {
+            writer.write(partNumber + "," + md5 + "\n");
+            writer.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            writer.close();
+        }
+    }
+}
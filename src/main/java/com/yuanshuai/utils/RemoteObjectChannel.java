@@ -0,0 +1,289 @@
+package com.yuanshuai.utils;
+
+import com.yuanshuai.domain.ObjectStat;
+import com.yuanshuai.interfaces.RangeSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 远程对象的随机读取通道，按需发起区间GET，不下载整个对象，适合读取zip中央目录、parquet文件尾、媒体索引等
+ * <p>
+ * 对象按blockSize切分成块，读到的块放在容量为maxBlocks的LRU块缓存中，在文件尾和索引之间来回跳转时不重复下载；
+ * 未命中时一次区间GET读取连续的多个块：连续向后读时预读块数逐次翻倍，直到maxBlocks的一半，随机跳转后恢复为1块
+ * 每次GET都完整读完，连接回到sdk的连接池中复用
+ * <p>
+ * 打开时查询一次对象信息，之后每次GET带上该etag由服务端校验，对象被覆盖后读取失败，不会读到新旧混合的内容
+ * 读取的是对象存储的原始字节，压缩存储的对象读到的是压缩后的内容；方法均已同步，多个线程共用时读取位置也是共用的
+ */
+public class RemoteObjectChannel implements SeekableByteChannel {
+
+    /** 默认块大小 */
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    /** 默认缓存的块数 */
+    public static final int DEFAULT_MAX_BLOCKS = 64;
+
+    private final RangeSource source;
+
+    private final String bucketName;
+
+    private final String objectName;
+
+    private final ObjectStat stat;
+
+    private final int blockSize;
+
+    private final int maxBlocks;
+
+    private final int maxReadAhead;
+
+    /** 块序号 -> 块内容，按访问顺序排列 */
+    private final LinkedHashMap<Long, byte[]> blocks;
+
+    private long position;
+
+    /** 上一次未命中时读取的最后一个块，下一次未命中紧随其后时视为顺序读 */
+    private long lastFetchedBlock = -2;
+
+    private int readAhead = 1;
+
+    private boolean open = true;
+
+    public RemoteObjectChannel(RangeSource source, String bucketName, String objectName) throws Exception {
+        this(source, bucketName, objectName, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_BLOCKS);
+    }
+
+    /**
+     * @param blockSize 块大小，也是随机读取时一次GET的大小
+     * @param maxBlocks 缓存的块数，缓存占用的内存不超过blockSize * maxBlocks
+     */
+    public RemoteObjectChannel(RangeSource source, String bucketName, String objectName, int blockSize, int maxBlocks) throws Exception {
+        if (blockSize <= 0 || maxBlocks < 2) {
+            throw new IllegalArgumentException("块大小必须大于0，缓存块数不能小于2");
+        }
+        this.source = source;
+        this.bucketName = bucketName;
+        this.objectName = objectName;
+        this.stat = source.stat(bucketName, objectName);
+        this.blockSize = blockSize;
+        this.maxBlocks = maxBlocks;
+        this.maxReadAhead = maxBlocks / 2;
+        this.blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > RemoteObjectChannel.this.maxBlocks;
+            }
+        };
+    }
+
+    /**
+     * 打开通道时的对象信息
+     */
+    public ObjectStat getStat() {
+        return stat;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        long size = stat.getSize();
+        if (position >= size) {
+            return -1;
+        }
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            long index = position / blockSize;
+            byte[] block = block(index);
+            int offset = (int) (position - index * blockSize);
+            int n = Math.min(dst.remaining(), block.length - offset);
+            dst.put(block, offset, n);
+            position += n;
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    /**
+     * 只移动读取位置，不发起请求；超过对象大小时之后的读取返回-1
+     */
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("位置不能小于0");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return stat.getSize();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+        blocks.clear();
+    }
+
+    /**
+     * 以输入流方式读取，与通道共用读取位置和块缓存
+     * skip只移动位置不读取内容，支持mark/reset
+     */
+    public InputStream newInputStream() {
+        return new ChannelInputStream();
+    }
+
+    private byte[] block(long index) throws IOException {
+        byte[] block = blocks.get(index);
+        if (block != null) {
+            return block;
+        }
+        readAhead = index == lastFetchedBlock + 1 ? Math.min(readAhead * 2, maxReadAhead) : 1;
+        long lastBlock = (stat.getSize() - 1) / blockSize;
+        long endBlock = Math.min(index + readAhead - 1, lastBlock);
+        // 只预读到下一个已缓存的块之前
+        for (long i = index + 1; i <= endBlock; i++) {
+            if (blocks.containsKey(i)) {
+                endBlock = i - 1;
+                break;
+            }
+        }
+        fetch(index, endBlock);
+        lastFetchedBlock = endBlock;
+        return blocks.get(index);
+    }
+
+    /**
+     * 一次GET读取startBlock到endBlock的全部块放入缓存
+     */
+    private void fetch(long startBlock, long endBlock) throws IOException {
+        long offset = startBlock * blockSize;
+        long end = Math.min((endBlock + 1) * blockSize, stat.getSize());
+        try (InputStream inputStream = source.openRange(bucketName, objectName, offset, end - offset, stat.getEtag())) {
+            // 先放入后面的块，避免预读的块把当前块挤出缓存
+            byte[][] fetched = new byte[(int) (endBlock - startBlock + 1)][];
+            for (int i = 0; i < fetched.length; i++) {
+                long blockOffset = offset + (long) i * blockSize;
+                byte[] block = new byte[(int) Math.min(blockSize, end - blockOffset)];
+                readFully(inputStream, block);
+                fetched[i] = block;
+            }
+            for (int i = fetched.length - 1; i >= 0; i--) {
+                blocks.put(startBlock + i, fetched[i]);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("读取" + objectName + "的区间" + offset + "-" + (end - 1) + "失败: " + e.getMessage(), e);
+        }
+    }
+
+    private void readFully(InputStream inputStream, byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int n = inputStream.read(block, read, block.length - read);
+            if (n == -1) {
+                throw new IOException(objectName + "读取的内容比请求的区间短");
+            }
+            read += n;
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private class ChannelInputStream extends InputStream {
+
+        private long mark;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return RemoteObjectChannel.this.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            synchronized (RemoteObjectChannel.this) {
+                ensureOpen();
+                long skipped = Math.max(0, Math.min(n, stat.getSize() - position));
+                position += skipped;
+                return skipped;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (RemoteObjectChannel.this) {
+                ensureOpen();
+                byte[] block = blocks.get(position / blockSize);
+                return block == null ? 0 : (int) Math.min(Integer.MAX_VALUE, (position / blockSize) * blockSize + block.length - position);
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readlimit) {
+            synchronized (RemoteObjectChannel.this) {
+                mark = position;
+            }
+        }
+
+        @Override
+        public void reset() throws IOException {
+            position(mark);
+        }
+
+        @Override
+        public void close() {
+            RemoteObjectChannel.this.close();
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.collection.CollectionUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.*;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * s3异步工具，基于S3AsyncClient，所有方法立即返回CompletableFuture，不占用调用线程等待网络
+ * 失败时与S3Tool一致，记录日志并以false/空值完成，不抛出异常
+ */
+@Slf4j
+public class S3AsyncTool {
+
+    private final S3AsyncClient s3AsyncClient;
+
+    /** 读取阻塞输入流的线程数，超出的上传排队等待 */
+    private static final int STREAM_THREADS = 8;
+
+    /** 读取MultipartFile等阻塞输入流的线程池，网络发送仍由netty完成 */
+    private final ThreadPoolExecutor streamExecutor;
+
+    public S3AsyncTool(S3AsyncClient s3AsyncClient) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.streamExecutor = new ThreadPoolExecutor(STREAM_THREADS, STREAM_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory("s3-async-stream-", true));
+        this.streamExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public void shutdown() {
+        try {
+            streamExecutor.shutdownNow();
+            if (s3AsyncClient != null) {
+                s3AsyncClient.close();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("无法关闭连接", e);
+        }
+    }
+
+    /********************* 桶操作 **********/
+    /**
+     * 判断桶是否存在
+     *
+     * @param bucketName 桶名
+     * @return true/false
+     */
+    public CompletableFuture<Boolean> isBucketExists(String bucketName) {
+        return s3AsyncClient.headBucket(HeadBucketRequest.builder()
+                        .bucket(bucketName)
+                        .build())
+                .thenApply(response -> true)
+                .exceptionally(e -> {
+                    log.error("检查桶是否存在时发生错误: " + unwrap(e).getMessage());
+                    return false;
+                });
+    }
+
+    /**
+     * 列出所有桶
+     *
+     * @return 桶名列表
+     */
+    public CompletableFuture<List<String>> listBuckets() {
+        return s3AsyncClient.listBuckets()
+                .thenApply(response -> response.buckets().stream()
+                        .map(Bucket::name)
+                        .collect(Collectors.toList()))
+                .exceptionally(e -> {
+                    log.error("列出桶时发生错误: " + unwrap(e).getMessage());
+                    return Collections.emptyList();
+                });
+    }
+
+    /********** 对象操作 **********/
+    /**
+     * 判断对象是否存在
+     */
+    public CompletableFuture<Boolean> isObjectExists(String bucketName, String objectName) {
+        return getObject(bucketName, objectName).thenApply(Objects::nonNull);
+    }
+
+    /**
+     * 查询单文件元数据
+     *
+     * @return 对象不存在或失败时为null
+     */
+    public CompletableFuture<HeadObjectResponse> getObject(String bucketName, String objectName) {
+        return s3AsyncClient.headObject(HeadObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(objectName)
+                        .build())
+                .exceptionally(e -> {
+                    log.error("获取对象失败: " + unwrap(e).getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * 查询文件列表，自动翻页
+     *
+     * @param bucketName 桶名
+     * @param prefix     前缀
+     */
+    public CompletableFuture<List<S3Object>> listObjects(String bucketName, String prefix) {
+        List<S3Object> objects = new ArrayList<>();
+        return s3AsyncClient.listObjectsV2Paginator(ListObjectsV2Request.builder()
+                        .bucket(bucketName)
+                        .prefix(prefix)
+                        .build())
+                .contents()
+                .subscribe(objects::add)
+                .thenApply(v -> objects)
+                .exceptionally(e -> {
+                    log.error("列出对象时发生错误: " + unwrap(e).getMessage());
+                    return Collections.emptyList();
+                });
+    }
+    public CompletableFuture<List<S3Object>> listObjects(String bucketName) {
+        return listObjects(bucketName, null);
+    }
+
+    /**
+     * 删除单文件
+     */
+    public CompletableFuture<Boolean> deleteObject(String bucketName, String objectName) {
+        return s3AsyncClient.deleteObject(DeleteObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(objectName)
+                        .build())
+                .thenApply(response -> true)
+                .exceptionally(e -> {
+                    log.error("删除对象失败: " + unwrap(e).getMessage());
+                    return false;
+                });
+    }
+
+    /**
+     * 批量删除文件，单次请求最多1000个
+     */
+    public CompletableFuture<Boolean> deleteObject(String bucketName, List<String> objectNames) {
+        if (CollectionUtil.isEmpty(objectNames)) {
+            log.error("对象列表为空，无法删除");
+            return CompletableFuture.completedFuture(false);
+        }
+        List<ObjectIdentifier> identifiers = objectNames.stream()
+                .map(item -> ObjectIdentifier.builder().key(item).build())
+                .collect(Collectors.toList());
+        return s3AsyncClient.deleteObjects(DeleteObjectsRequest.builder()
+                        .bucket(bucketName)
+                        .delete(Delete.builder().objects(identifiers).build())
+                        .build())
+                .thenApply(response -> {
+                    response.errors().forEach(error -> log.error("删除对象{}失败: {}", error.key(), error.message()));
+                    return response.errors().isEmpty();
+                })
+                .exceptionally(e -> {
+                    log.error("删除对象失败: " + unwrap(e).getMessage());
+                    return false;
+                });
+    }
+
+    /**
+     * 复制文件，单文件限制大小5g
+     */
+    public CompletableFuture<Boolean> copyObject(String sourceBucketName, String sourceObjectName, String targetBucketName, String targetObjectName) {
+        return s3AsyncClient.copyObject(CopyObjectRequest.builder()
+                        .sourceBucket(sourceBucketName)
+                        .sourceKey(sourceObjectName)
+                        .destinationBucket(targetBucketName)
+                        .destinationKey(targetObjectName)
+                        .build())
+                .thenApply(response -> true)
+                .exceptionally(e -> {
+                    log.error("复制对象失败: " + unwrap(e).getMessage());
+                    return false;
+                });
+    }
+
+    /********** 上传操作 **********/
+    /**
+     * 简单上传，MultipartFile类型上传单文件
+     * 由streamExecutor读取文件流，netty发送，不占用请求线程
+     */
+    public CompletableFuture<Boolean> uploadFile(String bucketName, String objectName, MultipartFile file, Map<String, String> userMetadata) {
+        InputStream inputStream;
+        try {
+            inputStream = file.getInputStream();
+        } catch (IOException e) {
+            log.error("上传文件时发生错误: " + e.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectName)
+                .contentType(file.getContentType())
+                .metadata(userMetadata)
+                .build();
+        return s3AsyncClient.putObject(request, AsyncRequestBody.fromInputStream(inputStream, file.getSize(), streamExecutor))
+                .whenComplete((response, e) -> closeQuietly(inputStream))
+                .thenApply(response -> {
+                    log.info("上传文件" + objectName + "成功");
+                    return true;
+                })
+                .exceptionally(e -> {
+                    log.error("上传文件时发生错误: " + unwrap(e).getMessage());
+                    return false;
+                });
+    }
+    public CompletableFuture<Boolean> uploadFile(String bucketName, String objectName, MultipartFile file) {
+        return uploadFile(bucketName, objectName, file, new HashMap<>());
+    }
+
+    /**
+     * 简单上传，本地文件类型上传单文件，文件由异步文件通道读取
+     */
+    public CompletableFuture<Boolean> uploadFile(String bucketName, String objectName, String filePath, Map<String, String> userMetadata) {
+        return s3AsyncClient.putObject(PutObjectRequest.builder()
+                                .bucket(bucketName)
+                                .key(objectName)
+                                .metadata(userMetadata)
+                                .build(),
+                        AsyncRequestBody.fromFile(Paths.get(filePath)))
+                .thenApply(response -> {
+                    log.info("上传文件" + objectName + "成功");
+                    return true;
+                })
+                .exceptionally(e -> {
+                    log.error("上传文件时发生错误: " + unwrap(e).getMessage());
+                    return false;
+                });
+    }
+
+    /********************* 下载操作 **********/
+    /**
+     * 打开对象内容流，响应头到达时完成，内容随读取从网络接收
+     * 调用方负责关闭流
+     */
+    public CompletableFuture<ResponseInputStream<GetObjectResponse>> openObject(String bucketName, String objectName) {
+        return s3AsyncClient.getObject(GetObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(objectName)
+                        .build(),
+                AsyncResponseTransformer.toBlockingInputStream());
+    }
+
+    /**
+     * 下载文件，请求线程开启异步后立即返回，响应头到达后设置文件名和长度，
+     * 内容由AsyncStreamWriter在客户端可写时写出，客户端接收慢时不占用线程
+     */
+    public void downloadFile(String bucketName, String objectName, HttpServletRequest request, HttpServletResponse response) {
+        AsyncContext asyncContext;
+        try {
+            asyncContext = request.startAsync(request, response);
+        } catch (IllegalStateException e) {
+            log.error("下载文件时发生错误: " + e.getMessage());
+            return;
+        }
+        asyncContext.setTimeout(AsyncStreamWriter.DEFAULT_TIMEOUT);
+        openObject(bucketName, objectName).whenComplete((inputStream, e) -> {
+            if (e != null) {
+                log.error("下载文件时发生错误: " + unwrap(e).getMessage());
+                response.setStatus(unwrap(e) instanceof NoSuchKeyException
+                        ? HttpServletResponse.SC_NOT_FOUND : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                asyncContext.complete();
+                return;
+            }
+            response.setContentType("application/octet-stream");
+            response.setContentLengthLong(inputStream.response().contentLength());
+            response.setHeader("Content-Disposition", "attachment; filename=\"" + objectName + "\"");
+            try {
+                AsyncStreamWriter.write(asyncContext, inputStream);
+            } catch (IOException | RuntimeException ex) {
+                log.error("下载文件时发生错误: " + ex.getMessage());
+                asyncContext.complete();
+            }
+        });
+    }
+
+    /**
+     * 下载文件到本地指定位置
+     *
+     * @param filePath 本地路径
+     * @param override 是否覆盖本地文件
+     */
+    public CompletableFuture<Boolean> downloadFile(String filePath, String bucketName, String objectName, Boolean override) {
+        Path path = Paths.get(filePath);
+        if (!override && Files.exists(path)) {
+            log.error("本地文件已存在: " + filePath);
+            return CompletableFuture.completedFuture(false);
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.error("下载文件时发生错误: " + e.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+        return s3AsyncClient.getObject(GetObjectRequest.builder()
+                                .bucket(bucketName)
+                                .key(objectName)
+                                .build(),
+                        AsyncResponseTransformer.toFile(path))
+                .thenApply(response -> {
+                    log.info("下载文件成功");
+                    return true;
+                })
+                .exceptionally(e -> {
+                    log.error("下载文件时发生错误: " + unwrap(e).getMessage());
+                    return false;
+                });
+    }
+    /****************************************/
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            log.warn("关闭文件流失败: " + e.getMessage());
+        }
+    }
+}
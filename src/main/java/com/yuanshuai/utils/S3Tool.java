@@ -5,60 +5,236 @@ import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.date.DateTime;
 import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.io.IoUtil;
 import cn.hutool.core.util.HexUtil;
 import cn.hutool.core.util.IdUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.crypto.digest.DigestUtil;
 import com.aliyun.oss.model.PartSummary;
+import com.yuanshuai.constants.ChecksumAlgorithm;
+import com.yuanshuai.domain.ChecksumResult;
+import com.yuanshuai.domain.ContentLocation;
+import com.yuanshuai.domain.DirectoryTransferResult;
 import com.yuanshuai.domain.FileInfo;
 import com.yuanshuai.domain.ListResult;
+import com.yuanshuai.domain.ObjectStat;
+import com.yuanshuai.domain.PackEntry;
+import com.yuanshuai.domain.PartResult;
+import com.yuanshuai.domain.UploadSession;
+import com.yuanshuai.interfaces.InputStreamSource;
+import com.yuanshuai.interfaces.RangeSource;
 import io.minio.*;
 import io.minio.messages.Item;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.multipart.MultipartFile;
-import software.amazon.awssdk.core.ResponseBytes;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.ContentStreamProvider;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
-import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
 import software.amazon.awssdk.utils.Md5Utils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.ZoneId;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 @Slf4j
-public class S3Tool {
+public class S3Tool implements RangeSource {
 
     private final S3Client s3Client;
 
+    /** 分片并发上传/下载使用的线程池 */
+    private final TransferExecutor transferExecutor;
+
+    /** 内容索引，为空时不启用秒传 */
+    private volatile ContentIndex contentIndex;
+
+    /** 分片上传会话登记表，为空时不记录会话 */
+    private volatile UploadSessionRegistry sessionRegistry;
+
+    /** 上传压缩策略，为空时不压缩 */
+    private volatile CompressionPolicy compression;
+
+    /** 本地磁盘对象缓存，为空时下载直接读对象存储 */
+    private volatile ObjectCache objectCache;
+
+    /** 进程内的小对象缓存，为空时不使用 */
+    private volatile MemoryObjectCache memoryCache;
+
+    /** 容器在内存中保存的上传内容大小上限，不超过的MultipartFile直接从内存上传 */
+    private volatile long multipartMemoryThreshold;
+
+    /** 上传时携带的附加校验和，为空时只使用Content-MD5 */
+    private volatile ChecksumAlgorithm checksumAlgorithm;
+
+    /** 打包对象读取，缓存打包索引 */
+    private final PackReader packReader = new PackReader(this);
+
+    /** 合并同一对象的并发读取，区间请求经过它读取对象 */
+    private final SingleFlightSource singleFlight = new SingleFlightSource(this);
+
+    private final RangeServer rangeServer = new RangeServer(singleFlight);
+
+    /** 预签名器，为空时不能生成预签名url */
+    private volatile S3Presigner presigner;
+
+    private final PresignedUrlCache presignedUrlCache = new PresignedUrlCache();
+
+    /** 分片上传除最后一个分片外的最小分片大小 */
+    private static final long MIN_PART_SIZE = 5 * 1024 * 1024L;
+
+    /** UploadPartCopy单个分片的最大复制长度 */
+    private static final long MAX_COPY_PART_SIZE = 5 * 1024 * 1024 * 1024L;
+
+    /** URL流式上传的分片大小 */
+    private static final int URL_PART_SIZE = 8 * 1024 * 1024;
+
+    /** 追加内容前的分隔符 */
+    private static final byte[] APPEND_SEPARATOR = "\n".getBytes();
+
     public S3Tool(S3Client s3Client) {
+        this(s3Client, TransferExecutor.DEFAULT_TASK_NUM);
+    }
+
+    /**
+     * @param s3Client s3客户端
+     * @param taskNum  分片并发数
+     */
+    public S3Tool(S3Client s3Client, int taskNum) {
         this.s3Client = s3Client;
+        this.transferExecutor = new TransferExecutor("s3-transfer-", taskNum);
+    }
+
+    /**
+     * 设置内容索引，开启秒传，传入null关闭
+     * 开启后上传前先计算md5，相同内容的对象已存在时通过服务端复制完成上传
+     */
+    public void setContentIndex(ContentIndex contentIndex) {
+        this.contentIndex = contentIndex;
+    }
+
+    /**
+     * 设置分片上传会话登记表并启动过期会话清理任务，传入null关闭
+     * 开启后getUploadId创建的会话及其已上传分片记录在登记表中，续传时不再查询服务端
+     */
+    public void setUploadSessionRegistry(UploadSessionRegistry sessionRegistry) {
+        this.sessionRegistry = sessionRegistry;
+        if (sessionRegistry != null) {
+            sessionRegistry.startReaper(this::cleanSession);
+        }
+    }
+
+    /**
+     * 设置上传压缩策略，传入null关闭
+     * 开启后可压缩的内容压缩后上传，编码记录在用户元数据中，下载时解压或按Content-Encoding透传
+     */
+    public void setCompression(CompressionPolicy compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * 设置本地磁盘对象缓存，传入null关闭
+     * 开启后downloadFile和checkpointDownload优先读缓存的本地文件，未命中的对象在后台缓存
+     */
+    public void setObjectCache(ObjectCache objectCache) {
+        this.objectCache = objectCache;
+    }
+
+    /**
+     * 设置进程内的小对象缓存，传入null关闭
+     * 开启后downloadFile和checkpointDownload先查内存缓存，其次是本地磁盘缓存；本工具的上传、删除和复制会使对应对象的缓存失效
+     */
+    public void setMemoryCache(MemoryObjectCache memoryCache) {
+        this.memoryCache = memoryCache;
+    }
+
+    /**
+     * 设置容器在内存中保存的上传内容大小上限，单位字节，与spring.servlet.multipart.file-size-threshold一致
+     * 不超过该大小的MultipartFile读入内存后直接上传，不转存临时文件；默认0，全部转存
+     */
+    public void setMultipartMemoryThreshold(long multipartMemoryThreshold) {
+        this.multipartMemoryThreshold = multipartMemoryThreshold;
+    }
+
+    /**
+     * 合并并发读取的区间读取方式，只有一个读取方时直接读对象存储；本地缓存自身合并填充，不以它作为数据来源
+     */
+    public SingleFlightSource getSingleFlightSource() {
+        return singleFlight;
+    }
+
+    /**
+     * 对象被本工具覆盖或删除后，丢弃本节点上该对象的各级缓存
+     */
+    private void invalidateCaches(String bucketName, String objectName) {
+        rangeServer.invalidate(bucketName, objectName);
+        ObjectCache cache = objectCache;
+        if (cache != null) {
+            cache.invalidate(bucketName, objectName);
+        }
+        MemoryObjectCache memory = memoryCache;
+        if (memory != null) {
+            memory.invalidate(bucketName, objectName);
+        }
+    }
+
+    /**
+     * 设置预签名器，开启presign*系列方法，由StorageClientFactory按S3_PRESIGNER创建
+     */
+    public void setPresigner(S3Presigner presigner) {
+        this.presigner = presigner;
+    }
+
+    /**
+     * 设置上传时携带的附加校验和，支持CRC32C和SHA256，传入null关闭
+     * 开启后简单上传携带x-amz-checksum-*请求头由服务端校验，校验和与md5在同一次读取中计算；
+     * 分片上传在创建时指定该算法，各分片携带分片校验和，合并时提交各分片的校验和
+     */
+    public void setChecksumAlgorithm(ChecksumAlgorithm checksumAlgorithm) {
+        if (checksumAlgorithm == ChecksumAlgorithm.MD5) {
+            throw new IllegalArgumentException("md5校验通过Md5参数开启，附加校验和只支持CRC32C和SHA256");
+        }
+        this.checksumAlgorithm = checksumAlgorithm;
     }
 
     public void shutdown(){
         try {
+            transferExecutor.close();
             if (s3Client != null) {
                 s3Client.close();
             }
+            if (presigner != null) {
+                presigner.close();
+            }
         } catch (Exception e) {
             throw new RuntimeException("无法关闭连接",e);
         }
@@ -373,6 +549,7 @@ public class S3Tool {
                     .bucket(bucketName)
                     .key(objectName)
                     .build());
+            invalidateCaches(bucketName, objectName);
             return true;
         } catch (Exception e) {
             log.error("删除对象失败: " + e.getMessage());
@@ -393,6 +570,7 @@ public class S3Tool {
                     .delete(delete)
                     .build();
             s3Client.deleteObjects(build);
+            objectNames.forEach(item -> invalidateCaches(bucketName, item));
             return true; // 此处返回true，即使部分删除失败
         } catch (Exception e) {
             log.error("删除对象失败: " + e.getMessage(), e);
@@ -449,6 +627,7 @@ public class S3Tool {
                     .destinationKey(targetObjectName)
                     .build();
             s3Client.copyObject(copyObjectRequest);
+            invalidateCaches(targetBucketName, targetObjectName);
             return true;
         } catch (Exception e) {
             log.error("复制对象失败: " + e.getMessage());
@@ -500,6 +679,8 @@ public class S3Tool {
     /********** 上传操作 **********/
     /**
      * 简单上传，MultipartFile类型上传单文件
+     * 文件先转存为本地临时文件（容器已暂存到磁盘时只移动文件）并计算md5，再以基于文件的请求体上传，容器保存在内存中的文件直接从内存上传，
+     * File-Md5元数据随上传一起写入，开启md5校验时携带Content-MD5由服务端校验
      *
      * @param bucketName 桶名
      * @param objectName 对象名
@@ -509,28 +690,33 @@ public class S3Tool {
      * @return true/false
      */
     public Boolean uploadFile(String bucketName, String objectName, MultipartFile file, Map<String, String> userMetadata, Boolean Md5) {
-        try (InputStream fis = file.getInputStream()) {
-            String realMd5 = DigestUtil.md5Hex(fis);
-
-            userMetadata.put("File-Md5", realMd5);
-            PutObjectRequest.Builder builder = PutObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(objectName)
-                    .contentType(file.getContentType())
-                    .metadata(userMetadata);
-            if (Md5) {
-                // 将16进制md5转换base64md5
-                byte[] bytes = HexUtil.decodeHex(realMd5);
-                String base64Md5 = Base64.encode(bytes);
-                builder.contentMD5(base64Md5);
+        ChecksumAlgorithm algorithm = checksumAlgorithm;
+        try (DigestSpool spool = DigestSpool.spool(file, multipartMemoryThreshold, checksumAlgorithms(algorithm))) {
+            if (instantUpload(spool.getMd5Hex(), bucketName, objectName, file.getContentType(), userMetadata)) {
+                return true;
+            }
+            userMetadata.put("File-Md5", spool.getMd5Hex());
+            try (DigestSpool compressed = compress(spool, file.getContentType(), objectName, userMetadata)) {
+                DigestSpool body = compressed == null ? spool : compressed;
+                PutObjectRequest.Builder builder = PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(objectName)
+                        .contentType(file.getContentType())
+                        .metadata(userMetadata);
+                if (Md5) {
+                    builder.contentMD5(body.getMd5Base64());
+                }
+                putChecksum(builder, algorithm, body.getChecksums());
+                PutObjectResponse putObjectResponse = s3Client.putObject(builder.build(), spoolBody(body));
+                log.info("文件etag: {}", putObjectResponse.eTag());
             }
-            RequestBody requestBody = RequestBody.fromInputStream(file.getInputStream(), file.getSize());
-            PutObjectResponse putObjectResponse = s3Client.putObject(builder.build(), requestBody);
-            log.info("文件etag: {}",putObjectResponse.eTag());
+            recordContent(spool.getMd5Hex(), spool.getMd5Hex(), bucketName, objectName);
             log.info("上传文件" + objectName + "成功");
             return true;
         } catch (Exception e) {
             log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
         }
         return false;
     }
@@ -543,6 +729,7 @@ public class S3Tool {
 
     /**
      * 简单上传，InputStream类型上传单文件
+     * 输入流只能读取一次且长度未知，先边读边算md5暂存到本地临时文件，再从临时文件上传
      *
      * @param bucketName  桶名
      * @param objectName  对象名
@@ -551,26 +738,32 @@ public class S3Tool {
      * @return true/false
      */
     public Boolean uploadFile(String bucketName, String objectName, InputStream inputStream, String contentType,Map<String, String> userMetadata, Boolean Md5) {
-        try {
-            String realMd5 = DigestUtil.md5Hex(inputStream);
-            userMetadata.put("File-Md5", realMd5);
-            PutObjectRequest.Builder builder = PutObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(objectName)
-                    .contentType(contentType)
-                    .metadata(userMetadata);
-            if (Md5) {
-                // 将16进制md5转换base64md5
-                byte[] bytes = HexUtil.decodeHex(realMd5);
-                String base64Md5 = Base64.encode(bytes);
-                builder.contentMD5(base64Md5);
+        ChecksumAlgorithm algorithm = checksumAlgorithm;
+        try (DigestSpool spool = DigestSpool.spool(inputStream, null, checksumAlgorithms(algorithm))) {
+            if (instantUpload(spool.getMd5Hex(), bucketName, objectName, contentType, userMetadata)) {
+                return true;
+            }
+            userMetadata.put("File-Md5", spool.getMd5Hex());
+            try (DigestSpool compressed = compress(spool, contentType, objectName, userMetadata)) {
+                DigestSpool body = compressed == null ? spool : compressed;
+                PutObjectRequest.Builder builder = PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(objectName)
+                        .contentType(contentType)
+                        .metadata(userMetadata);
+                if (Md5) {
+                    builder.contentMD5(body.getMd5Base64());
+                }
+                putChecksum(builder, algorithm, body.getChecksums());
+                s3Client.putObject(builder.build(), RequestBody.fromFile(body.getPath()));
             }
-            RequestBody requestBody = RequestBody.fromInputStream(inputStream, inputStream.available());
-            s3Client.putObject(builder.build(), requestBody);
+            recordContent(spool.getMd5Hex(), spool.getMd5Hex(), bucketName, objectName);
             log.info("上传文件" + objectName + "成功");
             return true;
         } catch (Exception e) {
             log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
         }
         return false;
     }
@@ -579,7 +772,7 @@ public class S3Tool {
     }
 
     /**
-     * 简单上传，本地文件类型上传单文件
+     * 本地文件类型上传单文件，文件大于分片大小时按partSize切分并发分片上传
      *
      * @param bucketName 桶名
      * @param objectName 对象名
@@ -593,24 +786,36 @@ public class S3Tool {
             return false;
         }
         Path path = Paths.get(filePath);
-        try (InputStream fis = Files.newInputStream(path)) {
-            String realMd5 = DigestUtil.md5Hex(fis);
-            userMetadata.put("File-Md5", realMd5);
+        try {
+            long fileSize = Files.size(path);
+            if (fileSize > partSize) {
+                return parallelUploadFile(bucketName, objectName, path, fileSize, partSize, userMetadata, Md5);
+            }
             PutObjectRequest.Builder builder = PutObjectRequest.builder()
                     .bucket(bucketName)
-                    .key(objectName)
-                    .metadata(userMetadata);
-            if (Md5) {
-                // 将16进制md5转换base64md5
-                byte[] bytes = HexUtil.decodeHex(realMd5);
-                String base64Md5 = Base64.encode(bytes);
-                builder.contentMD5(base64Md5);
+                    .key(objectName);
+            // 本地文件可以重复读取，先计算md5（与附加校验和在同一次读取中计算），File-Md5和Content-MD5随上传请求一起写入
+            ChecksumAlgorithm algorithm = checksumAlgorithm;
+            ChecksumResult checksums = MultiChecksum.compute(path, ChecksumAlgorithm.MD5, algorithm);
+            String realMd5 = checksums.getMd5();
+            if (instantUpload(realMd5, bucketName, objectName, null, userMetadata)) {
+                return true;
+            }
+            userMetadata.put("File-Md5", realMd5);
+            builder.metadata(userMetadata).contentMD5(Base64.encode(HexUtil.decodeHex(realMd5)));
+            putChecksum(builder, algorithm, checksums);
+            PutObjectResponse putObjectResponse = s3Client.putObject(builder.build(), path);
+            String eTag = StrUtil.unWrap(putObjectResponse.eTag(), '"');
+            if (eTag != null && !eTag.contains("-") && !eTag.equalsIgnoreCase(realMd5)) {
+                throw new IOException("上传后etag与计算的md5不一致，etag: " + eTag + "，md5: " + realMd5);
             }
-            s3Client.putObject(builder.build() , path);
+            recordContent(realMd5, realMd5, bucketName, objectName);
             log.info("上传文件" + objectName + "成功");
             return true;
         } catch (Exception e) {
             log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
         }
         return false;
     }
@@ -619,252 +824,796 @@ public class S3Tool {
     }
 
     /**
-     * 简单上传，文件URL类型上传单文件
-     *
-     * @param bucketName 桶名
-     * @param objectName 对象名
-     * @param fileUrl    文件URL
-     * @return true/false
+     * 并发分片上传本地文件
+     * 按partSize切分文件，各分片通过FileChannel按位置读取并发上传，全部成功后合并，任一分片失败则取消上传
+     * 文件md5与分片md5由PartManifestBuilder预先计算，开启md5校验时分片携带Content-MD5由服务端校验，
+     * 未开启时分片边上传边计算md5并与返回的etag比对；设置了附加校验和时分片同时携带CRC32C（清单中已计算）
+     * 或由sdk计算的SHA256，合并时提交各分片的校验和
      */
-    public Boolean uploadUrlFile(String bucketName, String objectName, String fileUrl, Map<String, String> userMetadata, Boolean Md5) {
-        try (InputStream uploadInputStream = new URL(fileUrl).openStream()) {
-            // 获取文件大小
-            HttpURLConnection connection = (HttpURLConnection) new URL(fileUrl).openConnection();
-            connection.setRequestMethod("GET");
-            long fileSize = connection.getContentLengthLong();
-
-            // 读取流会造成流的指针位置改变，导致无法获取流的MD5值，因此需要重新读取流
-            InputStream md5InputStream = new URL(fileUrl).openStream();
-            String realMd5 = DigestUtil.md5Hex(md5InputStream);
-            userMetadata.put("File-Md5", realMd5);
-
-            PutObjectRequest.Builder builder = PutObjectRequest.builder()
+    private Boolean parallelUploadFile(String bucketName, String objectName, Path path, long fileSize, long partSize,
+                                       Map<String, String> userMetadata, Boolean Md5) throws Exception {
+        // 分片上传的元数据只能在创建时指定，因此需先计算整个文件和各分片的md5
+        FileInfo manifest = PartManifestBuilder.build(path, partSize);
+        if (instantUpload(manifest.getFileMd5(), bucketName, objectName, null, userMetadata)) {
+            return true;
+        }
+        userMetadata.put("File-Md5", manifest.getFileMd5());
+        ChecksumAlgorithm algorithm = checksumAlgorithm;
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(objectName)
+                .metadata(userMetadata)
+                .checksumAlgorithm(sdkAlgorithm(algorithm))
+                .build()).uploadId();
+        int totalNum = (int) ((fileSize + partSize - 1) / partSize);
+        List<Future<CompletedPart>> futures = new ArrayList<>(totalNum);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int i = 1; i <= totalNum; i++) {
+                int partNumber = i;
+                long start = (i - 1) * partSize;
+                long length = Math.min(partSize, fileSize - start);
+                FileInfo.PartInfo part = manifest.getParts().get(i - 1);
+                String partMd5 = Md5 ? part.getPartMd5() : null;
+                futures.add(transferExecutor.submit(() -> uploadFilePart(bucketName, objectName, uploadId, partNumber,
+                        channel, start, length, partMd5, algorithm, part.getPartCrc32c())));
+            }
+            List<CompletedPart> completedParts = new ArrayList<>(totalNum);
+            for (Future<CompletedPart> future : futures) {
+                completedParts.add(future.get());
+            }
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
                     .bucket(bucketName)
                     .key(objectName)
-                    .contentType("application/octet-stream")
-                    .metadata(userMetadata);
-
-            if (Md5) {
-                // 将16进制md5转换base64md5
-                byte[] bytes = HexUtil.decodeHex(realMd5);
-                String base64Md5 = Base64.encode(bytes);
-                builder.contentMD5(base64Md5);
-            }
-            s3Client.putObject(builder.build(), RequestBody.fromInputStream(uploadInputStream, fileSize));
-            log.info("上传文件" + objectName + "成功");
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build());
+            recordContent(manifest.getFileMd5(), manifest.getFileMd5(), bucketName, objectName);
+            log.info("{}文件分片上传完成，共{}个分片", objectName, totalNum);
             return true;
         } catch (Exception e) {
-            log.error("上传文件时发生错误: " + e.getMessage());
+            futures.forEach(future -> future.cancel(true));
+            log.error("{}文件分片上传失败，取消分片上传: {}", objectName, e.getMessage());
+            abortMultipartUpload(bucketName, objectName, uploadId);
+            return false;
         }
-        return false;
     }
-    public Boolean uploadUrlFile(String bucketName, String objectName, String fileUrl) {
-        return uploadUrlFile(bucketName, objectName, fileUrl, new HashMap<>(),false);
+
+    private CompletedPart uploadFilePart(String bucketName, String objectName, String uploadId, int partNumber,
+                                         FileChannel channel, long start, long length, String partMd5,
+                                         ChecksumAlgorithm algorithm, String partCrc32c) throws IOException {
+        UploadPartRequest.Builder builder = UploadPartRequest.builder()
+                .bucket(bucketName)
+                .key(objectName)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength(length);
+        if (partMd5 != null) {
+            builder.contentMD5(Base64.encode(HexUtil.decodeHex(partMd5)));
+        }
+        if (algorithm == ChecksumAlgorithm.CRC32C) {
+            builder.checksumCRC32C(Base64.encode(HexUtil.decodeHex(partCrc32c)));
+        } else if (algorithm == ChecksumAlgorithm.SHA256) {
+            builder.checksumAlgorithm(sdkAlgorithm(algorithm));
+        }
+        AtomicReference<HashingInputStream> current = new AtomicReference<>();
+        ContentStreamProvider provider = () -> {
+            HashingInputStream hashingInputStream = new HashingInputStream(new FileRangeInputStream(channel, start, length));
+            current.set(hashingInputStream);
+            return hashingInputStream;
+        };
+        UploadPartResponse uploadPartResponse = s3Client.uploadPart(builder.build(), RequestBody.fromContentProvider(provider, length, "application/octet-stream"));
+        String eTag = StrUtil.unWrap(uploadPartResponse.eTag(), '"');
+        if (!current.get().getMd5Hex().equalsIgnoreCase(eTag)) {
+            log.warn("{}文件的分片{}etag与计算的md5不一致，etag: {}", objectName, partNumber, eTag);
+        }
+        return CompletedPart.builder()
+                .partNumber(partNumber)
+                .eTag(uploadPartResponse.eTag())
+                .checksumCRC32C(uploadPartResponse.checksumCRC32C())
+                .checksumSHA256(uploadPartResponse.checksumSHA256())
+                .build();
     }
 
     /**
-     * 追加新内容上传，适用于问本，不计算md5
+     * 秒传：内容索引中有相同hash的对象时，通过服务端复制完成上传
+     * 源对象已删除或etag已变化时清理该记录；复制失败（如源对象超过5g）时返回false，由调用方继续正常上传
      *
-     * @param bucketName
-     * @param targetObjectName
-     * @param file
-     * @return true/false
+     * @param hash 文件md5或分片上传etag
+     * @return 是否已通过复制完成上传
      */
-    public Boolean appendUpload(String bucketName, String targetObjectName, MultipartFile file) {
+    private boolean instantUpload(String hash, String bucketName, String objectName, String contentType, Map<String, String> userMetadata) {
+        ContentIndex index = contentIndex;
+        ContentLocation location = index == null ? null : index.get(hash);
+        if (location == null) {
+            return false;
+        }
         try {
-
-            // 获取现有对象内容
-            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(targetObjectName)
-                    .build();
-            ResponseBytes<GetObjectResponse> object = s3Client.getObject(getObjectRequest, ResponseTransformer.toBytes());
-            byte[] existingContent = object.asByteArray();
-
-            // 将现有内容和新内容组合起来
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            outputStream.write(existingContent);
-            outputStream.write("\n".getBytes());
-
-            // 读取文件内容并追加
-            try (InputStream fileInputStream = file.getInputStream()) {
-                byte[] buffer = new byte[1024];
-                int len;
-                while ((len = fileInputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, len);
-                }
+            HeadObjectResponse source;
+            try {
+                source = s3Client.headObject(HeadObjectRequest.builder()
+                        .bucket(location.getBucketName())
+                        .key(location.getObjectName())
+                        .build());
+            } catch (NoSuchKeyException e) {
+                source = null;
             }
-
-            // 使用新的内容上传到S3
-            byte[] newContent = outputStream.toByteArray();
-            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(targetObjectName)
-                    .contentType(file.getContentType())
-                    .build();
-            s3Client.putObject(putObjectRequest, RequestBody.fromBytes(newContent));
-
+            if (source == null || !StrUtil.unWrap(source.eTag(), '"').equals(location.getEtag())) {
+                log.info("秒传记录已失效，源对象{}/{}已删除或被覆盖", location.getBucketName(), location.getObjectName());
+                index.remove(hash);
+                return false;
+            }
+            if (location.getFileMd5() != null) {
+                userMetadata.put("File-Md5", location.getFileMd5());
+            }
+            CompressionPolicy.copyMetadata(source.metadata(), userMetadata);
+            s3Client.copyObject(CopyObjectRequest.builder()
+                    .sourceBucket(location.getBucketName())
+                    .sourceKey(location.getObjectName())
+                    .copySourceIfMatch(source.eTag())
+                    .destinationBucket(bucketName)
+                    .destinationKey(objectName)
+                    .contentType(contentType == null ? source.contentType() : contentType)
+                    .metadata(userMetadata)
+                    .metadataDirective(MetadataDirective.REPLACE)
+                    .build());
+            invalidateCaches(bucketName, objectName);
+            log.info("{}秒传成功，从{}/{}复制", objectName, location.getBucketName(), location.getObjectName());
             return true;
         } catch (Exception e) {
-            log.error("追加上传文件时发生错误: " + e.getMessage(), e);
-            return false;
+            log.warn("{}秒传失败，继续上传: {}", objectName, e.getMessage());
         }
+        return false;
     }
 
     /**
-     * 获取上传ID
+     * 按压缩策略压缩暂存的内容，压缩时在用户元数据中记录编码和原始大小
      *
-     * @return 上传ID 年月日/时分秒/uuid
+     * @return 压缩后的暂存内容，未开启压缩或不需要压缩时返回null
      */
-    public Map<String, String>  getUploadId(String bucketName, String objectName, String timezone) {
-        CreateMultipartUploadResponse multipartUpload = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
-                .bucket(bucketName)
-                .key(objectName)
-                .build());
-        String uploadId = multipartUpload.uploadId();
-        DateTime dateTime = DateUtil.convertTimeZone(DateUtil.date(), ZoneId.of(timezone));
-        String datePart = DateUtil.format(dateTime, "yyyy-MM-dd");
-        String timePart = DateUtil.format(dateTime, "HH-mm-ss");
-        String uploadUrl = datePart + "/" + timePart + "/" + uploadId;
-        Map<String, String> uploadIdMap = new HashMap<>();
-        uploadIdMap.put("uploadId", uploadId);
-        uploadIdMap.put("uploadUrl", uploadUrl);
-        return uploadIdMap;
+    private DigestSpool compress(DigestSpool spool, String contentType, String objectName, Map<String, String> userMetadata) throws IOException {
+        CompressionPolicy policy = compression;
+        return policy == null ? null : policy.compress(spool, contentType, objectName, userMetadata);
     }
-    public Map<String, String> getUploadId(String bucketName, String objectName) {
-        return getUploadId(bucketName, objectName, "Asia/Shanghai");
+
+    private static ChecksumAlgorithm[] checksumAlgorithms(ChecksumAlgorithm algorithm) {
+        return algorithm == null ? new ChecksumAlgorithm[0] : new ChecksumAlgorithm[]{algorithm};
     }
 
-    // 简单获取文件信息
-    public FileInfo createMinioFileInfo(String filePath, Long partSize, String bucketName, String objectName, String uploadUrl) {
-        Path path = Paths.get(filePath);
-        try (InputStream fis = Files.newInputStream(path)) {
-            String fileMd5 = DigestUtil.md5Hex(fis);
-            // 计算总分片数，并计算每个分片的MD5
-            long fileSize = Files.size(path);
-            long totalNum = fileSize / partSize + (fileSize % partSize > 0 ? 1 : 0);
-            List<FileInfo.PartInfo> parts = new ArrayList<>();
-            for (int i = 1; i <= totalNum; i++) {
-                long start = (i - 1) * partSize;
-                long end = i * partSize - 1;
-                if (i == totalNum) {
-                    end = fileSize - 1;
-                }
-                // 计算bytes[]
-                byte[] bytes = new byte[(int) (end - start + 1)];
-                String partMd5 = DigestUtil.md5Hex(bytes);
-                FileInfo.PartInfo partInfo = new FileInfo.PartInfo();
-                partInfo.setCurrentNum(StrUtil.toString(i));
-                partInfo.setPartMd5(partMd5);
-                parts.add(partInfo);
-            }
-            String uploadId = uploadUrl.substring(uploadUrl.lastIndexOf("/") + 1);
-            FileInfo s3FileInfo = new FileInfo();
-            s3FileInfo.setBucketName(bucketName);
-            s3FileInfo.setObjectName(objectName);
-            s3FileInfo.setUploadId(uploadId);
-            s3FileInfo.setUploadUrl(uploadUrl);
-            s3FileInfo.setTotalNum(StrUtil.toString(totalNum));
-            s3FileInfo.setFileMd5(fileMd5);
-            s3FileInfo.setParts(parts);
-            return s3FileInfo;
-        } catch (Exception e) {
-            log.error("计算分片MD5时发生错误: " + e.getMessage());
+    /**
+     * s3协议中的校验和算法，与本工具的算法枚举同名，这里使用全限定名
+     */
+    private static software.amazon.awssdk.services.s3.model.ChecksumAlgorithm sdkAlgorithm(ChecksumAlgorithm algorithm) {
+        if (algorithm == ChecksumAlgorithm.CRC32C) {
+            return software.amazon.awssdk.services.s3.model.ChecksumAlgorithm.CRC32_C;
+        }
+        if (algorithm == ChecksumAlgorithm.SHA256) {
+            return software.amazon.awssdk.services.s3.model.ChecksumAlgorithm.SHA256;
         }
         return null;
     }
 
     /**
-     * 上传分片，仅支持分片小于5mb的分片
-     *
-     * @param s3FileInfo 文件详细信息
-     * @param files         分片文件列表
-     * @param Md5           是否开启md5校验，不开启为普通分片上传，开启为断点续传上传
-     * @return true/false
-     * s3FileInfo和file，需要使用RequestPart注解
-     * s3FileInfo 需要content-type为application/json
+     * 简单上传携带附加校验和，值为请求体的校验和
      */
-    public Boolean multipartUpload(FileInfo s3FileInfo, List<MultipartFile> files, Boolean Md5) {
-        List<FileInfo.PartInfo> parts = s3FileInfo.getParts();
-        if (CollectionUtil.isEmpty(parts) || CollectionUtil.isEmpty(files) || parts.size() != files.size()) {
-            log.error("分片信息与分片文件数量不匹配");
-            return false;
+    private static void putChecksum(PutObjectRequest.Builder builder, ChecksumAlgorithm algorithm, ChecksumResult checksums) {
+        if (algorithm == ChecksumAlgorithm.CRC32C) {
+            builder.checksumCRC32C(checksums.base64(algorithm));
+        } else if (algorithm == ChecksumAlgorithm.SHA256) {
+            builder.checksumSHA256(checksums.base64(algorithm));
         }
-        Set<Integer> uploadedPartNumbers = new HashSet<>();
-        if (Md5) {
-            // 1. 获取已上传的分片信息
-            List<Part> uploadedParts = s3Client.listParts(ListPartsRequest.builder()
-                    .bucket(s3FileInfo.getBucketName())
-                    .key(s3FileInfo.getObjectName())
-                    .uploadId(s3FileInfo.getUploadId())
-                    .build()).parts();
+    }
 
-            // 2. 确定哪些分片已经上传
-            for (Part part : uploadedParts) {
-                uploadedPartNumbers.add(part.partNumber());
+    /**
+     * 上传完成后记录到内容索引，同时记录服务端etag，供秒传前校验源对象未被覆盖
+     * hash为分片上传etag时，只有与服务端etag一致才记录，保证分片md5经过服务端校验
+     *
+     * @param hash    文件md5或分片上传etag
+     * @param fileMd5 本工具计算的文件md5，未知时为null
+     */
+    private void recordContent(String hash, String fileMd5, String bucketName, String objectName) {
+        ContentIndex index = contentIndex;
+        if (index == null || hash == null) {
+            return;
+        }
+        try {
+            HeadObjectResponse object = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectName)
+                    .build());
+            String eTag = StrUtil.unWrap(object.eTag(), '"');
+            if (hash.contains("-") && !hash.equalsIgnoreCase(eTag)) {
+                return;
             }
+            index.put(hash, new ContentLocation(bucketName, objectName, object.contentLength(), eTag, fileMd5, System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.warn("记录{}到内容索引失败: {}", objectName, e.getMessage());
+        }
+    }
+
+    /**
+     * 计算分片上传的内容hash，用于分片上传前查找秒传
+     * 仅在开启秒传、本次提交了全部分片且每个分片的实际md5与声明一致时返回，否则为null
+     */
+    private String partsContentHash(FileInfo fileInfo, List<MultipartFile> files) throws IOException {
+        List<FileInfo.PartInfo> parts = fileInfo.getParts();
+        if (contentIndex == null || Convert.toInt(fileInfo.getTotalNum(), -1) != parts.size()) {
+            return null;
         }
-        // 3. 从未上传的分片开始上传
+        List<String> partMd5List = new ArrayList<>(parts.size());
         for (int i = 0; i < files.size(); i++) {
-            if (uploadedPartNumbers.contains(i + 1)) {
-                // 已上传，跳过
-                log.info("{}文件的分片{}已经上传，跳过", s3FileInfo.getObjectName(), parts.get(i).getCurrentNum());
-                continue;
-            }
+            String partMd5;
             try (InputStream inputStream = files.get(i).getInputStream()) {
-                // 上传当前分片
-                log.info("开始上传 {} 文件的分片{}", s3FileInfo.getObjectName(), parts.get(i).getCurrentNum());
-                UploadPartRequest build = UploadPartRequest.builder()
-                        .bucket(s3FileInfo.getBucketName())
-                        .key(s3FileInfo.getObjectName())
-                        .uploadId(s3FileInfo.getUploadId())
-                        .partNumber(i + 1)
-                        .build();
-
-                s3Client.uploadPart(build, RequestBody.fromInputStream(inputStream, files.get(i).getSize()));
-                log.info("分片{}上传成功", parts.get(i).getCurrentNum());
-            } catch (Exception e) {
-                log.error(StrUtil.format("{}文件的分片{}上传文件时发生错误: {}", s3FileInfo.getObjectName(), parts.get(i).getCurrentNum(), e.getMessage()));
-                return false;
+                partMd5 = DigestUtil.md5Hex(inputStream);
             }
+            if (!partMd5.equalsIgnoreCase(parts.get(i).getPartMd5())) {
+                return null;
+            }
+            partMd5List.add(partMd5);
         }
-        log.info("{}文件的分片上传完成", s3FileInfo.getObjectName());
-        return true;
-    }
-    public Boolean multipartUpload(FileInfo s3FileInfo, List<MultipartFile> files) {
-        return multipartUpload(s3FileInfo, files, false);
+        return calculateETag(partMd5List, partMd5List.size());
     }
 
     /**
-     * 合并分片上传
+     * 简单上传，文件URL类型上传单文件
+     * 远程文件只下载一次，边读边计算md5：内容不超过一个分片时整体上传，
+     * 超过一个分片或长度未知时按分片读取并发上传，内存中最多同时保留并发数个分片
      *
-     * @param s3FileInfo    文件详细信息
-     * @param Md5           是否开启md5校验，不开启为普通分片合并，开启可启动秒传
-     *                      开启md5多一次api调用，但可以保证上传的完整性
-     * @return
+     * @param bucketName     桶名
+     * @param objectName     对象名
+     * @param fileUrl        文件URL
+     * @param Md5            是否开启md5校验，开启后每次上传携带Content-MD5由服务端校验
+     * @param connectTimeout 连接超时，毫秒
+     * @param readTimeout    读取超时，毫秒
+     * @return true/false
      */
-    public Boolean composeMultipartUpload(FileInfo s3FileInfo,Boolean Md5) {
-        try {
-            // 检查目标对象是否已经存在
-            if (Md5 && isObjectExists(s3FileInfo.getBucketName(), s3FileInfo.getObjectName())) {
-                GetObjectResponse object = getObject(s3FileInfo.getBucketName(), s3FileInfo.getObjectName());
-                List<String> partMd5List = s3FileInfo.getParts()
-                        .stream()
-                        .map(FileInfo.PartInfo::getPartMd5)
-                        .collect(Collectors.toList());
-                String calculateETag = calculateETag(partMd5List, partMd5List.size());
-                String cleanETag = object.eTag().replace("\"", "");
-                if (calculateETag.equals(cleanETag)) {
-                    log.info("文件已存在且MD5匹配，无需合并");
-                    return true; // 直接返回，表示无需再次合并,秒传
-                }
-            }
-            log.info("合并对象不存在，开始合并分片");
-            // 构建CompletedPart
+    public Boolean uploadUrlFile(String bucketName, String objectName, String fileUrl, Map<String, String> userMetadata, Boolean Md5,
+                                 int connectTimeout, int readTimeout) {
+        try (UrlSource urlSource = UrlSource.open(fileUrl, connectTimeout, readTimeout)) {
+            uploadStream(bucketName, objectName, urlSource.getInputStream(), urlSource.getContentType(), urlSource.getContentLength(),
+                    userMetadata, Md5);
+            log.info("上传文件" + objectName + "成功");
+            return true;
+        } catch (Exception e) {
+            log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
+        }
+        return false;
+    }
+    public Boolean uploadUrlFile(String bucketName, String objectName, String fileUrl, Map<String, String> userMetadata, Boolean Md5) {
+        return uploadUrlFile(bucketName, objectName, fileUrl, userMetadata, Md5, UrlSource.DEFAULT_CONNECT_TIMEOUT, UrlSource.DEFAULT_READ_TIMEOUT);
+    }
+    public Boolean uploadUrlFile(String bucketName, String objectName, String fileUrl) {
+        return uploadUrlFile(bucketName, objectName, fileUrl, new HashMap<>(),false);
+    }
+
+    /**
+     * 流式上传长度未知的输入流，不暂存到本地，内存中最多同时保留并发数个分片，没有大小限制
+     * 适用于直接读取请求体的上传，不会关闭传入的流
+     *
+     * @param bucketName   桶名
+     * @param objectName   对象名
+     * @param inputStream  输入流
+     * @param contentType  文件类型
+     * @param userMetadata 用户自定义元数据
+     * @param Md5          是否开启md5校验，开启后每次上传携带Content-MD5由服务端校验
+     * @return true/false
+     */
+    public Boolean uploadStream(String bucketName, String objectName, InputStream inputStream, String contentType,
+                                Map<String, String> userMetadata, Boolean Md5) {
+        try {
+            uploadStream(bucketName, objectName, inputStream, contentType, -1, userMetadata, Md5);
+            log.info("上传文件" + objectName + "成功");
+            return true;
+        } catch (Exception e) {
+            log.error("上传文件时发生错误: " + e.getMessage());
+        } finally {
+            invalidateCaches(bucketName, objectName);
+        }
+        return false;
+    }
+
+    /**
+     * 边读边计算md5：内容不超过一个分片时整体上传，超过一个分片或长度未知时按分片读取并发上传
+     *
+     * @param contentLength 内容长度，未知时为-1
+     */
+    private void uploadStream(String bucketName, String objectName, InputStream source, String contentType, long contentLength,
+                              Map<String, String> userMetadata, Boolean Md5) throws Exception {
+        HashingInputStream inputStream = new HashingInputStream(source);
+        byte[] firstPart = new byte[URL_PART_SIZE];
+        int firstLength = readPart(inputStream, firstPart);
+        if (firstLength < URL_PART_SIZE || contentLength == URL_PART_SIZE) {
+            // 整个文件在一个分片内，md5在上传前已经得到
+            userMetadata.put("File-Md5", inputStream.getMd5Hex());
+            PutObjectRequest.Builder builder = PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectName)
+                    .contentType(contentType)
+                    .metadata(userMetadata);
+            if (Md5) {
+                builder.contentMD5(inputStream.getMd5Base64());
+            }
+            s3Client.putObject(builder.build(), partBody(firstPart, firstLength));
+        } else {
+            streamMultipartUpload(bucketName, objectName, contentType, userMetadata, inputStream, firstPart, Md5);
+        }
+    }
+
+    /**
+     * 流式上传multipart/form-data请求中的全部文件，直接解析请求体，文件内容边接收边分片上传
+     * 对象名为表单项prefix加上文件名，prefix需放在文件之前
+     *
+     * @return 每个文件的上传结果
+     */
+    public List<ListResult> streamUpload(String bucketName, HttpServletRequest request) {
+        return MultipartFormReader.uploadFiles(request, (objectName, contentType, inputStream) ->
+                uploadStream(bucketName, objectName, inputStream, contentType, new HashMap<>(), false));
+    }
+
+    /**
+     * 流式分片上传，按URL_PART_SIZE顺序读取分片并提交到线程池上传，线程池满时读取阻塞
+     * 全部成功后合并，整个文件的md5在读完后才能得到，合并后通过复制自身写入File-Md5
+     */
+    private void streamMultipartUpload(String bucketName, String objectName, String contentType, Map<String, String> userMetadata,
+                                       HashingInputStream inputStream, byte[] firstPart, Boolean Md5) throws Exception {
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(objectName)
+                .contentType(contentType)
+                .metadata(userMetadata)
+                .build()).uploadId();
+        List<Future<CompletedPart>> futures = new ArrayList<>();
+        try {
+            byte[] part = firstPart;
+            int length = URL_PART_SIZE;
+            int partNumber = 1;
+            while (length > 0) {
+                byte[] data = part;
+                int dataLength = length;
+                int currentNum = partNumber++;
+                futures.add(transferExecutor.submit(() -> uploadBufferedPart(bucketName, objectName, uploadId, currentNum, data, dataLength, Md5)));
+                if (length < URL_PART_SIZE) {
+                    break;
+                }
+                part = new byte[URL_PART_SIZE];
+                length = readPart(inputStream, part);
+            }
+            List<CompletedPart> completedParts = new ArrayList<>(futures.size());
+            for (Future<CompletedPart> future : futures) {
+                completedParts.add(future.get());
+            }
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectName)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build());
+            log.info("{}文件流式分片上传完成，共{}个分片", objectName, completedParts.size());
+        } catch (Exception e) {
+            futures.forEach(future -> future.cancel(true));
+            abortMultipartUpload(bucketName, objectName, uploadId);
+            throw e;
+        }
+        userMetadata.put("File-Md5", inputStream.getMd5Hex());
+        try {
+            s3Client.copyObject(CopyObjectRequest.builder()
+                    .sourceBucket(bucketName)
+                    .sourceKey(objectName)
+                    .destinationBucket(bucketName)
+                    .destinationKey(objectName)
+                    .contentType(contentType)
+                    .metadata(userMetadata)
+                    .metadataDirective(MetadataDirective.REPLACE)
+                    .build());
+        } catch (Exception e) {
+            // 超过5GB的对象不能通过单次复制修改元数据，文件已上传成功，只记录警告
+            log.warn("{}文件写入File-Md5失败: {}", objectName, e.getMessage());
+        }
+    }
+
+    private CompletedPart uploadBufferedPart(String bucketName, String objectName, String uploadId, int partNumber,
+                                             byte[] data, int length, Boolean Md5) {
+        UploadPartRequest.Builder builder = UploadPartRequest.builder()
+                .bucket(bucketName)
+                .key(objectName)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength((long) length);
+        if (Md5) {
+            builder.contentMD5(Base64.encode(DigestUtil.md5(new ByteArrayInputStream(data, 0, length))));
+        }
+        UploadPartResponse uploadPartResponse = s3Client.uploadPart(builder.build(), partBody(data, length));
+        return CompletedPart.builder().partNumber(partNumber).eTag(uploadPartResponse.eTag()).build();
+    }
+
+    /** 分片内容，重试时从数组重新读取，不复制数组 */
+    private static RequestBody partBody(byte[] data, int length) {
+        return RequestBody.fromContentProvider(() -> new ByteArrayInputStream(data, 0, length), length, "application/octet-stream");
+    }
+
+    /** 暂存内容的请求体，内存中的内容从数组发送，临时文件以基于文件的请求体发送 */
+    private static RequestBody spoolBody(DigestSpool spool) {
+        return spool.isInMemory() ? partBody(spool.getData(), spool.getData().length) : RequestBody.fromFile(spool.getPath());
+    }
+
+    /**
+     * 读满缓冲区或读到流末尾
+     *
+     * @return 读取的字节数，流已结束时为0
+     */
+    private static int readPart(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = inputStream.read(buffer, total, buffer.length - total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * 追加新内容上传，适用于文本，不计算md5
+     * 已有对象不小于5MB时通过分片上传追加：已有内容按不超过5GB的区间用UploadPartCopy在服务端复制为前面的分片，
+     * 只上传换行符和新内容作为最后一个分片，JVM中不缓存已有内容
+     * 已有对象小于5MB时不能作为复制分片，改为把已有对象流和新内容流顺序拼接后重新上传
+     * 追加后原有的File-Md5元数据不再准确，会被去掉，其余元数据保留
+     * 已有对象是压缩存储的，追加内容用同一编码压缩后拼接，并更新原始大小
+     *
+     * @param bucketName
+     * @param targetObjectName
+     * @param file
+     * @return true/false
+     */
+    public Boolean appendUpload(String bucketName, String targetObjectName, MultipartFile file) {
+        try {
+            HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(targetObjectName)
+                    .build());
+            Map<String, String> metadata = new HashMap<>(head.metadata());
+            metadata.remove("File-Md5");
+            metadata.remove("file-md5");
+            String contentType = file.getContentType() != null ? file.getContentType() : head.contentType();
+            try (DigestSpool compressed = CompressionPolicy.compressAppend(metadata, () -> appendStream(file),
+                    APPEND_SEPARATOR.length + file.getSize())) {
+                InputStreamSource appendSource = compressed == null ? () -> appendStream(file) : compressed::newInputStream;
+                long appendSize = compressed == null ? APPEND_SEPARATOR.length + file.getSize() : compressed.getSize();
+                appendUpload(bucketName, targetObjectName, head, metadata, contentType, appendSource, appendSize);
+                invalidateCaches(bucketName, targetObjectName);
+                return true;
+            }
+        } catch (Exception e) {
+            log.error("追加上传文件时发生错误: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static InputStream appendStream(MultipartFile file) throws IOException {
+        return new SequenceInputStream(new ByteArrayInputStream(APPEND_SEPARATOR), file.getInputStream());
+    }
+
+    /**
+     * 把追加内容拼接到已有对象之后
+     *
+     * @param appendSource 追加的内容，包括分隔符
+     * @param appendSize   追加内容的大小
+     */
+    private void appendUpload(String bucketName, String targetObjectName, HeadObjectResponse head, Map<String, String> metadata,
+                              String contentType, InputStreamSource appendSource, long appendSize) {
+        if (head.contentLength() < MIN_PART_SIZE) {
+            ContentStreamProvider provider = () -> {
+                try {
+                    return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                            s3Client.getObject(GetObjectRequest.builder()
+                                    .bucket(bucketName)
+                                    .key(targetObjectName)
+                                    .ifMatch(head.eTag())
+                                    .build()),
+                            appendSource.open())));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            s3Client.putObject(PutObjectRequest.builder()
+                            .bucket(bucketName)
+                            .key(targetObjectName)
+                            .contentType(contentType)
+                            .metadata(metadata)
+                            .build(),
+                    RequestBody.fromContentProvider(provider, head.contentLength() + appendSize, contentType));
+            return;
+        }
+
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(targetObjectName)
+                .contentType(contentType)
+                .metadata(metadata)
+                .build()).uploadId();
+        try {
+            List<CompletedPart> completedParts = new ArrayList<>();
+            long objectSize = head.contentLength();
+            int copyNum = (int) ((objectSize + MAX_COPY_PART_SIZE - 1) / MAX_COPY_PART_SIZE);
+            long copySize = (objectSize + copyNum - 1) / copyNum;
+            for (int partNumber = 1; partNumber <= copyNum; partNumber++) {
+                long start = (partNumber - 1) * copySize;
+                long end = Math.min(start + copySize, objectSize) - 1;
+                // 复制时校验etag，避免复制到追加过程中被修改的对象
+                UploadPartCopyResponse copyResponse = s3Client.uploadPartCopy(UploadPartCopyRequest.builder()
+                        .sourceBucket(bucketName)
+                        .sourceKey(targetObjectName)
+                        .copySourceIfMatch(head.eTag())
+                        .copySourceRange("bytes=" + start + "-" + end)
+                        .destinationBucket(bucketName)
+                        .destinationKey(targetObjectName)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .build());
+                completedParts.add(CompletedPart.builder().partNumber(partNumber).eTag(copyResponse.copyPartResult().eTag()).build());
+            }
+
+            int appendPartNumber = copyNum + 1;
+            ContentStreamProvider provider = () -> {
+                try {
+                    return appendSource.open();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            UploadPartResponse uploadPartResponse = s3Client.uploadPart(UploadPartRequest.builder()
+                            .bucket(bucketName)
+                            .key(targetObjectName)
+                            .uploadId(uploadId)
+                            .partNumber(appendPartNumber)
+                            .build(),
+                    RequestBody.fromContentProvider(provider, appendSize, contentType));
+            completedParts.add(CompletedPart.builder().partNumber(appendPartNumber).eTag(uploadPartResponse.eTag()).build());
+
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(targetObjectName)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build());
+        } catch (Exception e) {
+            abortMultipartUpload(bucketName, targetObjectName, uploadId);
+            throw e;
+        }
+    }
+
+    /**
+     * 获取上传ID
+     *
+     * @return 上传ID 年月日/时分秒/uuid
+     */
+    public Map<String, String>  getUploadId(String bucketName, String objectName, String timezone) {
+        CreateMultipartUploadResponse multipartUpload = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(objectName)
+                .checksumAlgorithm(sdkAlgorithm(checksumAlgorithm))
+                .build());
+        String uploadId = multipartUpload.uploadId();
+        UploadSessionRegistry registry = sessionRegistry;
+        if (registry != null) {
+            registry.register(uploadId, UploadSessionRegistry.TYPE_MULTIPART, bucketName, objectName, null);
+        }
+        DateTime dateTime = DateUtil.convertTimeZone(DateUtil.date(), ZoneId.of(timezone));
+        String datePart = DateUtil.format(dateTime, "yyyy-MM-dd");
+        String timePart = DateUtil.format(dateTime, "HH-mm-ss");
+        String uploadUrl = datePart + "/" + timePart + "/" + uploadId;
+        Map<String, String> uploadIdMap = new HashMap<>();
+        uploadIdMap.put("uploadId", uploadId);
+        uploadIdMap.put("uploadUrl", uploadUrl);
+        return uploadIdMap;
+    }
+    public Map<String, String> getUploadId(String bucketName, String objectName) {
+        return getUploadId(bucketName, objectName, "Asia/Shanghai");
+    }
+
+    /**
+     * 获取文件分片信息，分片md5由PartManifestBuilder并行计算，整个文件的md5在同一轮读取中得到
+     * 每个分片同时给出crc32c，上传分片时用于快速校验
+     */
+    public FileInfo createMinioFileInfo(String filePath, Long partSize, String bucketName, String objectName, String uploadUrl) {
+        try {
+            FileInfo s3FileInfo = PartManifestBuilder.build(Paths.get(filePath), partSize);
+            String uploadId = uploadUrl.substring(uploadUrl.lastIndexOf("/") + 1);
+            s3FileInfo.setBucketName(bucketName);
+            s3FileInfo.setObjectName(objectName);
+            s3FileInfo.setUploadId(uploadId);
+            s3FileInfo.setUploadUrl(uploadUrl);
+            return s3FileInfo;
+        } catch (Exception e) {
+            log.error("计算分片MD5时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 上传分片，仅支持分片小于5mb的分片
+     *
+     * @param s3FileInfo 文件详细信息
+     * @param files         分片文件列表
+     * @param Md5           是否开启md5校验，不开启为普通分片上传，开启为断点续传上传
+     * @return true/false
+     * s3FileInfo和file，需要使用RequestPart注解
+     * s3FileInfo 需要content-type为application/json
+     */
+    public Boolean multipartUpload(FileInfo s3FileInfo, List<MultipartFile> files, Boolean Md5) {
+        List<PartResult> partResults = multipartUploadConcurrent(s3FileInfo, files, Md5);
+        return !partResults.isEmpty() && partResults.stream().allMatch(PartResult::getIsSuccess);
+    }
+
+    /**
+     * 并发上传分片，同一批分片通过线程池并发上传，并发数由构造时的taskNum限制
+     * 每个分片单独返回成功或失败以及etag，某个分片失败不影响其他分片
+     *
+     * @param s3FileInfo 文件详细信息
+     * @param files      分片文件列表
+     * @param Md5        是否开启md5校验，开启时先查询已上传的分片并跳过，用于断点续传
+     *                   开启秒传且一次提交全部分片时，内容已存在则复制完成并取消本次分片上传
+     * @return 每个分片的上传结果
+     */
+    public List<PartResult> multipartUploadConcurrent(FileInfo s3FileInfo, List<MultipartFile> files, Boolean Md5) {
+        List<FileInfo.PartInfo> parts = s3FileInfo.getParts();
+        if (CollectionUtil.isEmpty(parts) || CollectionUtil.isEmpty(files) || parts.size() != files.size()) {
+            log.error("分片信息与分片文件数量不匹配");
+            return Collections.emptyList();
+        }
+        try {
+            // 一次提交了全部分片时先查找秒传，命中后取消本次分片上传
+            String contentHash = partsContentHash(s3FileInfo, files);
+            if (contentHash != null && instantUpload(contentHash, s3FileInfo.getBucketName(), s3FileInfo.getObjectName(), null,
+                    new HashMap<>(Collections.singletonMap("ETag", contentHash)))) {
+                abortMultipartUpload(s3FileInfo.getBucketName(), s3FileInfo.getObjectName(), s3FileInfo.getUploadId());
+                return parts.stream()
+                        .map(part -> new PartResult(Convert.toInt(part.getCurrentNum()), part.getPartMd5(), true, "秒传"))
+                        .collect(Collectors.toList());
+            }
+        } catch (Exception e) {
+            log.warn("{}文件秒传查找失败，继续上传: {}", s3FileInfo.getObjectName(), e.getMessage());
+        }
+        Map<Integer, String> uploadedParts = new HashMap<>();
+        if (Md5) {
+            // 获取已上传的分片信息，已上传的分片直接跳过，登记表中有该会话时不再查询服务端
+            UploadSessionRegistry registry = sessionRegistry;
+            Map<String, String> registeredParts = registry == null ? null : registry.getParts(s3FileInfo.getUploadId());
+            try {
+                if (registeredParts != null) {
+                    registeredParts.forEach((partNumber, eTag) -> uploadedParts.put(Integer.valueOf(partNumber), eTag));
+                } else {
+                    listPartsForUpload(s3FileInfo.getBucketName(), s3FileInfo.getObjectName(), s3FileInfo.getUploadId())
+                            .forEach(part -> uploadedParts.put(part.partNumber(), part.eTag()));
+                }
+            } catch (Exception e) {
+                log.error("查询已上传分片时发生错误: " + e.getMessage());
+                return Collections.emptyList();
+            }
+        }
+        List<Future<PartResult>> futures = new ArrayList<>(files.size());
+        List<PartResult> results = new ArrayList<>(files.size());
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                int partNumber = Convert.toInt(parts.get(i).getCurrentNum(), i + 1);
+                if (uploadedParts.containsKey(partNumber)) {
+                    log.info("{}文件的分片{}已经上传，跳过", s3FileInfo.getObjectName(), partNumber);
+                    futures.add(CompletableFuture.completedFuture(new PartResult(partNumber, uploadedParts.get(partNumber), true, "分片已上传")));
+                    continue;
+                }
+                MultipartFile file = files.get(i);
+                FileInfo.PartInfo part = parts.get(i);
+                futures.add(transferExecutor.submit(() -> uploadMultipartFilePart(s3FileInfo, partNumber, part, file)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("{}文件的分片提交被中断", s3FileInfo.getObjectName());
+        }
+        for (int i = 0; i < files.size(); i++) {
+            int partNumber = Convert.toInt(parts.get(i).getCurrentNum(), i + 1);
+            if (i >= futures.size()) {
+                results.add(new PartResult(partNumber, null, false, "分片未提交"));
+                continue;
+            }
+            try {
+                results.add(futures.get(i).get());
+            } catch (Exception e) {
+                results.add(new PartResult(partNumber, null, false, e.getMessage()));
+            }
+        }
+        log.info("{}文件的分片上传完成，失败{}个", s3FileInfo.getObjectName(), results.stream().filter(result -> !result.getIsSuccess()).count());
+        return results;
+    }
+
+    /**
+     * 上传单个分片，分片先转存为本地临时文件，以基于文件的请求体上传并携带Content-MD5由服务端校验，
+     * 容器保存在内存中的分片不转存，直接从内存上传
+     * 分片信息中给出了crc32c时，转存的同时计算crc32c先在本地校验，不一致时不上传
+     * 设置了附加校验和时分片同时携带该校验和
+     */
+    private PartResult uploadMultipartFilePart(FileInfo s3FileInfo, int partNumber, FileInfo.PartInfo part, MultipartFile file) {
+        ChecksumAlgorithm algorithm = checksumAlgorithm;
+        String partCrc32c = part.getPartCrc32c();
+        ChecksumAlgorithm[] algorithms = StrUtil.isEmpty(partCrc32c) || algorithm == ChecksumAlgorithm.CRC32C
+                ? checksumAlgorithms(algorithm) : new ChecksumAlgorithm[]{ChecksumAlgorithm.CRC32C, algorithm};
+        try (DigestSpool spool = DigestSpool.spool(file, multipartMemoryThreshold, algorithms)) {
+            if (StrUtil.isNotEmpty(partCrc32c) && !partCrc32c.equalsIgnoreCase(spool.getChecksums().getCrc32c())) {
+                log.error("{}文件的分片{}crc32c校验失败", s3FileInfo.getObjectName(), partNumber);
+                return new PartResult(partNumber, null, false, "分片crc32c校验失败");
+            }
+            log.info("开始上传 {} 文件的分片{}", s3FileInfo.getObjectName(), partNumber);
+            UploadPartRequest.Builder builder = UploadPartRequest.builder()
+                    .bucket(s3FileInfo.getBucketName())
+                    .key(s3FileInfo.getObjectName())
+                    .uploadId(s3FileInfo.getUploadId())
+                    .partNumber(partNumber)
+                    .contentMD5(spool.getMd5Base64());
+            if (algorithm == ChecksumAlgorithm.CRC32C) {
+                builder.checksumCRC32C(spool.getChecksumBase64(algorithm));
+            } else if (algorithm == ChecksumAlgorithm.SHA256) {
+                builder.checksumSHA256(spool.getChecksumBase64(algorithm));
+            }
+            UploadPartResponse uploadPartResponse = s3Client.uploadPart(builder.build(), spoolBody(spool));
+            UploadSessionRegistry registry = sessionRegistry;
+            if (registry != null) {
+                registry.recordPart(s3FileInfo.getUploadId(), partNumber, uploadPartResponse.eTag());
+            }
+            log.info("分片{}上传成功", partNumber);
+            return new PartResult(partNumber, uploadPartResponse.eTag(), true, null);
+        } catch (Exception e) {
+            log.error(StrUtil.format("{}文件的分片{}上传文件时发生错误: {}", s3FileInfo.getObjectName(), partNumber, e.getMessage()));
+            return new PartResult(partNumber, null, false, e.getMessage());
+        }
+    }
+    public Boolean multipartUpload(FileInfo s3FileInfo, List<MultipartFile> files) {
+        return multipartUpload(s3FileInfo, files, false);
+    }
+
+    /**
+     * 合并分片上传
+     *
+     * @param s3FileInfo    文件详细信息
+     * @param Md5           是否开启md5校验，不开启为普通分片合并，开启可启动秒传
+     *                      开启md5多一次api调用，但可以保证上传的完整性
+     * @return
+     */
+    public Boolean composeMultipartUpload(FileInfo s3FileInfo,Boolean Md5) {
+        try {
+            List<String> partMd5List = s3FileInfo.getParts()
+                    .stream()
+                    .map(FileInfo.PartInfo::getPartMd5)
+                    .collect(Collectors.toList());
+            String calculateETag = calculateETag(partMd5List, partMd5List.size());
+            // 检查目标对象是否已经存在，只查询对象信息不读取内容
+            HeadObjectResponse object = Md5 ? headObjectIfExists(s3FileInfo.getBucketName(), s3FileInfo.getObjectName()) : null;
+            if (object != null) {
+                String cleanETag = object.eTag().replace("\"", "");
+                // 秒传复制生成的对象etag与源对象一致，分片上传的etag记录在元数据中
+                if (calculateETag.equals(cleanETag) || calculateETag.equals(object.metadata().get("etag"))) {
+                    log.info("文件已存在且MD5匹配，无需合并");
+                    return true; // 直接返回，表示无需再次合并,秒传
+                }
+            }
+            log.info("合并对象不存在，开始合并分片");
+            // 构建CompletedPart
             List<CompletedPart> completedParts = new ArrayList<>();
             List<FileInfo.PartInfo> parts = s3FileInfo.getParts();
-            for (int i = 0; i < parts.size(); i++) {
-                completedParts.add(CompletedPart.builder().eTag(parts.get(i).getPartMd5()).partNumber(i + 1).build());
+            if (checksumAlgorithm != null) {
+                // 创建时指定了附加校验和，合并时需提交服务端记录的各分片校验和
+                for (Part part : listPartsForUpload(s3FileInfo.getBucketName(), s3FileInfo.getObjectName(), s3FileInfo.getUploadId())) {
+                    completedParts.add(CompletedPart.builder()
+                            .eTag(part.eTag())
+                            .partNumber(part.partNumber())
+                            .checksumCRC32C(part.checksumCRC32C())
+                            .checksumSHA256(part.checksumSHA256())
+                            .build());
+                }
+            } else {
+                for (int i = 0; i < parts.size(); i++) {
+                    completedParts.add(CompletedPart.builder().eTag(parts.get(i).getPartMd5()).partNumber(i + 1).build());
+                }
             }
             CompletedMultipartUpload completedMultipartUpload = CompletedMultipartUpload.builder().parts(completedParts).build();
             // 合并分片
@@ -875,6 +1624,9 @@ public class S3Tool {
                     .uploadId(s3FileInfo.getUploadId())
                     .build();
             s3Client.completeMultipartUpload(build);
+            invalidateCaches(s3FileInfo.getBucketName(), s3FileInfo.getObjectName());
+            removeSession(s3FileInfo.getUploadId());
+            recordContent(calculateETag, null, s3FileInfo.getBucketName(), s3FileInfo.getObjectName());
             return true;
         } catch (Exception e) {
             log.error("合并分片上传文件时发生错误: " + e.getMessage());
@@ -885,13 +1637,27 @@ public class S3Tool {
         return composeMultipartUpload(s3FileInfo, false);
     }
 
+    /**
+     * 查询对象信息，对象不存在时返回null
+     */
+    private HeadObjectResponse headObjectIfExists(String bucketName, String objectName) {
+        try {
+            return s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectName)
+                    .build());
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
     /** ：列出存储桶中所有正在进行的分段上传任务 */
     public List<MultipartUpload> listMultipartUploads(String bucketName) {
         return s3Client.listMultipartUploads(ListMultipartUploadsRequest.builder()
                 .bucket(bucketName)
                 .build()).uploads();
     }
-    /** 列出特定对象和 uploadId 的所有已上传的部分 */
+    /** 列出特定对象和 uploadId 的所有已上传的部分，超过1000个分片时自动翻页 */
     public List<Part> listPartsForUpload(String bucketName, String key, String uploadId) {
         ListPartsRequest listPartsRequest = ListPartsRequest.builder()
                 .bucket(bucketName)
@@ -899,9 +1665,9 @@ public class S3Tool {
                 .uploadId(uploadId)
                 .build();
 
-        ListPartsResponse listPartsResponse = s3Client.listParts(listPartsRequest);
-
-        return listPartsResponse.parts();
+        List<Part> parts = new ArrayList<>();
+        s3Client.listPartsPaginator(listPartsRequest).parts().forEach(parts::add);
+        return parts;
     }
 
     /** 取消uploadId分片上传 */
@@ -911,6 +1677,26 @@ public class S3Tool {
                 .key(objectName)
                 .uploadId(uploadId)
                 .build());
+        removeSession(uploadId);
+    }
+
+    private void removeSession(String uploadId) {
+        UploadSessionRegistry registry = sessionRegistry;
+        if (registry != null) {
+            registry.remove(uploadId);
+        }
+    }
+
+    /**
+     * 清理过期的上传会话，取消分片上传，会话在服务端已不存在时视为已清理
+     */
+    private boolean cleanSession(UploadSession session) {
+        try {
+            abortMultipartUpload(session.getBucketName(), session.getObjectName(), session.getUploadId());
+        } catch (NoSuchUploadException e) {
+            log.info("上传会话{}在服务端已不存在", session.getUploadId());
+        }
+        return true;
     }
 
 
@@ -946,34 +1732,60 @@ public class S3Tool {
     /********************* 下载操作 **********/
     /**
      * 简单下载，直接下载单文件
+     * 压缩存储的对象在请求方接受该编码时设置Content-Encoding透传，否则解压后返回
      *
      * @param objectName 文件名
      * @param bucketName 桶名
+     * @param request    请求，为null时压缩对象总是解压
      * @param response   响应
      * @return true/false
      */
-    public void downloadFile(String bucketName, String objectName, HttpServletResponse response) {
-        try (InputStream inputStream = s3Client.getObject(GetObjectRequest.builder()
-                .bucket(bucketName)
-                .key(objectName)
-                .build());
-             OutputStream outputStream = response.getOutputStream()) {
+    public void downloadFile(String bucketName, String objectName, HttpServletRequest request, HttpServletResponse response) {
+        if (PackReader.isPackAddress(objectName)) {
+            try {
+                packReader.download(bucketName, objectName, response);
+            } catch (Exception e) {
+                log.error("下载文件时发生错误: " + e.getMessage(), e);
+            }
+            return;
+        }
+        MemoryObjectCache memory = memoryCache;
+        ObjectCache cache = objectCache;
+        if (memory != null || cache != null) {
+            try {
+                if (memory != null) {
+                    memory.download(bucketName, objectName, request, response);
+                } else {
+                    cache.download(bucketName, objectName, request, response);
+                }
+            } catch (Exception e) {
+                log.error("下载文件时发生错误: " + e.getMessage(), e);
+            }
+            return;
+        }
+        ResponseInputStream<GetObjectResponse> objectStream = null;
+        try {
+            objectStream = s3Client.getObject(GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectName)
+                    .build());
+            InputStream inputStream = CompressionCodec.decodeForResponse(
+                    CompressionCodec.fromMetadata(objectStream.response().metadata()), objectStream, request, response);
 
             // 设置响应头
             response.setContentType("application/octet-stream");
             response.setHeader("Content-Disposition", "attachment; filename=\"" + objectName + "\"");
 
-            // 将inputStream的数据复制到outputStream
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
-            outputStream.flush();
+            // 异步写出，客户端接收慢时不占用请求线程，输入流写完后关闭
+            AsyncStreamWriter.write(request, response, inputStream);
         } catch (Exception e) {
             log.error("下载文件时发生错误: " + e.getMessage(), e);
+            IoUtil.close(objectStream);
         }
     }
+    public void downloadFile(String bucketName, String objectName, HttpServletResponse response) {
+        downloadFile(bucketName, objectName, null, response);
+    }
 
     /**
      * 下载文件到本地指定位置
@@ -984,15 +1796,44 @@ public class S3Tool {
      * @param override   是否覆盖本地文件
      * @return true/false
      * 解释：不提供bucketName，默认使用当前yml配置的桶
+     * 压缩存储的对象解压后写入本地文件；超过一个区间大小的对象按downloadFileWithCheckpoint下载，中断后再次调用只下载缺少的区间
      */
     public Boolean downloadFile(String filePath, String bucketName, String objectName, Boolean override) {
         try {
+            if (PackReader.isPackAddress(objectName)) {
+                packReader.download(bucketName, objectName, Paths.get(filePath), override);
+                log.info("下载文件成功");
+                return true;
+            }
             Path path = Paths.get(filePath);
+            HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectName)
+                    .build());
+            if (CompressionCodec.fromMetadata(head.metadata()) == null && head.contentLength() > RangedDownloader.DEFAULT_PART_SIZE) {
+                RangedDownloader.download(this, bucketName, objectName, path, RangedDownloader.DEFAULT_PART_SIZE,
+                        TransferExecutor.DEFAULT_TASK_NUM, override);
+                log.info("下载文件成功");
+                return true;
+            }
+            if (Files.exists(path) && !override) {
+                throw new IOException("本地文件已存在: " + filePath);
+            }
             GetObjectRequest build = GetObjectRequest.builder()
                     .bucket(bucketName)
                     .key(objectName)
+                    .ifMatch(head.eTag())
                     .build();
-            s3Client.getObject(build,path);
+            try (ResponseInputStream<GetObjectResponse> objectStream = s3Client.getObject(build)) {
+                CompressionCodec codec = CompressionCodec.fromMetadata(objectStream.response().metadata());
+                if (codec == null) {
+                    Files.copy(objectStream, path, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    try (InputStream inputStream = codec.decompress(objectStream)) {
+                        Files.copy(inputStream, path, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
             log.info("下载文件成功");
             return true;
         } catch (Exception e) {
@@ -1004,8 +1845,44 @@ public class S3Tool {
         return downloadFile(filePath, bucketName, objectName, false);
     }
 
+    /**
+     * 分区间并发下载到本地文件，支持断点续传
+     * 对象按区间切分并发读取，按位置写入预先分配大小的临时文件，每个区间带etag由服务端校验，完成后按etag校验整个文件；
+     * 中途失败或进程崩溃后再次调用，跳过断点文件中已下载的区间，详见RangedDownloader
+     * 压缩存储的对象需要整体解压，打包对象的条目只是一个区间，这两种情况按downloadFile单流下载
+     *
+     * @param filePath   本地文件路径
+     * @param bucketName 桶名
+     * @param objectName 对象名
+     * @param partSize   区间大小，分片上传的对象使用上传时的分片大小
+     * @param taskNum    同时下载的区间数
+     * @param override   本地文件已存在时是否覆盖
+     * @return true/false
+     */
+    public Boolean downloadFileWithCheckpoint(String filePath, String bucketName, String objectName, Long partSize, Integer taskNum, Boolean override) {
+        try {
+            if (PackReader.isPackAddress(objectName) || CompressionCodec.fromMetadata(s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectName)
+                    .build()).metadata()) != null) {
+                return downloadFile(filePath, bucketName, objectName, override);
+            }
+            RangedDownloader.download(this, bucketName, objectName, Paths.get(filePath), partSize, taskNum, override);
+            log.info("下载文件成功");
+            return true;
+        } catch (Exception e) {
+            log.error("下载文件时发生错误: " + e.getMessage());
+        }
+        return false;
+    }
+    public Boolean downloadFileWithCheckpoint(String filePath, String bucketName, String objectName) {
+        return downloadFileWithCheckpoint(filePath, bucketName, objectName, RangedDownloader.DEFAULT_PART_SIZE, TransferExecutor.DEFAULT_TASK_NUM, false);
+    }
+
     /**
      * 断点下载，根据请求头的range下载
+     * 支持后缀区间、多区间和If-None-Match/If-Modified-Since/If-Range条件请求，对象信息短时间缓存，
+     * 连续拖动进度条时每次请求只有一次区间GET
      * <img src="images/range.png"/>
      *
      * @param bucketName
@@ -1014,57 +1891,275 @@ public class S3Tool {
      * @param response
      */
     public void checkpointDownload(String bucketName, String objectName, HttpServletRequest request, HttpServletResponse response) {
-        long objectSize = 0;
-        if (getObject(bucketName, objectName) != null) {
-            objectSize = getObject(bucketName, objectName).contentLength();
-        } else {
-            log.error("对象不存在: " + objectName);
-        }
-        String rangeHeader = request.getHeader("Range");
+        MemoryObjectCache memory = memoryCache;
+        ObjectCache cache = objectCache;
+        RangeServer server = memory != null ? memory.getRangeServer() : cache != null ? cache.getRangeServer() : rangeServer;
         try {
-            long start = 0;
-            long end = Long.MAX_VALUE;
-
-            if (rangeHeader != null) {
-                Pattern pattern = Pattern.compile("bytes=(\\d*)-(\\d*)");
-                Matcher matcher = pattern.matcher(rangeHeader);
-                if (matcher.matches()) {
-                    String startPart = matcher.group(1);
-                    String endPart = matcher.group(2);
-
-                    if (!startPart.isEmpty()) {
-                        start = Long.parseLong(startPart);
-                    }
-                    if (!endPart.isEmpty()) {
-                        end = Long.parseLong(endPart);
-                    }
-                    if (end > objectSize - 1) {
-                        end = objectSize - 1;
-                    }
-                }
-                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            if (!server.serve(bucketName, objectName, request, response)) {
+                // 解压后的内容无法按压缩数据的字节区间定位，忽略Range返回完整的解压内容
+                response.setHeader("Content-Type", "application/octet-stream");
+                response.setHeader("Accept-Ranges", "none");
+                downloadFile(bucketName, objectName, request, response);
+            }
+        } catch (Exception e) {
+            log.error("下载文件时发生错误: " + e.getMessage(), e);
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             }
+        }
+    }
+    /****************************************/
 
-            response.setHeader("Content-Type", "application/octet-stream");
-            response.setHeader("Accept-Ranges", "bytes");
-            response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + objectSize);
-            try (InputStream inputStream = s3Client.getObject(
-                    GetObjectRequest.builder()
-                            .bucket(bucketName)
-                            .key(objectName)
-                            .range(rangeHeader)
-                            .build());
-                 OutputStream out = response.getOutputStream()) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
+    /********************* 预签名 **********/
+    /**
+     * 生成预签名下载url，客户端直接从对象存储下载，数据不经过本服务
+     * 同一对象和有效期的url在过期前重复使用，详见PresignedUrlCache
+     *
+     * @param bucketName    桶名
+     * @param objectName    对象名
+     * @param expireSeconds url有效期，单位秒，最长7天
+     * @return url，未设置预签名器或签名失败时返回null
+     */
+    public String presignGetUrl(String bucketName, String objectName, int expireSeconds) {
+        return presign("GET/" + bucketName + "/" + objectName, expireSeconds, signer -> signer.presignGetObject(GetObjectPresignRequest.builder()
+                .signatureDuration(Duration.ofSeconds(expireSeconds))
+                .getObjectRequest(GetObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(objectName)
+                        .build())
+                .build()).url().toString());
+    }
+    public String presignGetUrl(String bucketName, String objectName) {
+        return presignGetUrl(bucketName, objectName, PresignedUrlCache.DEFAULT_EXPIRE_SECONDS);
+    }
+
+    /**
+     * 生成预签名上传url，客户端用PUT直接上传到对象存储
+     *
+     * @param contentType 为空时不限制，否则客户端上传时必须携带相同的Content-Type
+     */
+    public String presignPutUrl(String bucketName, String objectName, String contentType, int expireSeconds) {
+        return presign("PUT/" + bucketName + "/" + objectName + "#" + contentType, expireSeconds, signer -> signer.presignPutObject(PutObjectPresignRequest.builder()
+                .signatureDuration(Duration.ofSeconds(expireSeconds))
+                .putObjectRequest(PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(objectName)
+                        .contentType(contentType)
+                        .build())
+                .build()).url().toString());
+    }
+    public String presignPutUrl(String bucketName, String objectName) {
+        return presignPutUrl(bucketName, objectName, null, PresignedUrlCache.DEFAULT_EXPIRE_SECONDS);
+    }
+
+    /**
+     * 批量生成预签名下载url
+     *
+     * @return 对象名 -> url，签名失败的对象url为null
+     */
+    public Map<String, String> presignGetUrls(String bucketName, List<String> objectNames, int expireSeconds) {
+        Map<String, String> urls = new LinkedHashMap<>();
+        objectNames.forEach(objectName -> urls.put(objectName, presignGetUrl(bucketName, objectName, expireSeconds)));
+        return urls;
+    }
+
+    /**
+     * 批量生成预签名上传url
+     *
+     * @return 对象名 -> url，签名失败的对象url为null
+     */
+    public Map<String, String> presignPutUrls(String bucketName, List<String> objectNames, int expireSeconds) {
+        Map<String, String> urls = new LinkedHashMap<>();
+        objectNames.forEach(objectName -> urls.put(objectName, presignPutUrl(bucketName, objectName, null, expireSeconds)));
+        return urls;
+    }
+
+    /**
+     * 为getUploadId创建的分片上传生成各分片的预签名上传url，客户端直接PUT分片，
+     * 从响应头取得etag后由本服务调用composeMultipartUpload合并
+     *
+     * @param partCount 分片数，分片序号从1开始
+     * @return 按分片序号排列的url，签名失败的分片url为null
+     */
+    public List<String> presignUploadPartUrls(String bucketName, String objectName, String uploadId, int partCount, int expireSeconds) {
+        List<String> urls = new ArrayList<>(partCount);
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            int number = partNumber;
+            urls.add(presign("PART/" + bucketName + "/" + objectName + "#" + uploadId + "#" + number, expireSeconds,
+                    signer -> signer.presignUploadPart(UploadPartPresignRequest.builder()
+                            .signatureDuration(Duration.ofSeconds(expireSeconds))
+                            .uploadPartRequest(UploadPartRequest.builder()
+                                    .bucket(bucketName)
+                                    .key(objectName)
+                                    .uploadId(uploadId)
+                                    .partNumber(number)
+                                    .build())
+                            .build()).url().toString()));
+        }
+        return urls;
+    }
+
+    private String presign(String key, int expireSeconds, Function<S3Presigner, String> sign) {
+        S3Presigner signer = presigner;
+        if (signer == null) {
+            log.error("未设置预签名器，无法生成预签名url");
+            return null;
+        }
+        try {
+            return presignedUrlCache.get(key, expireSeconds, () -> sign.apply(signer));
+        } catch (Exception e) {
+            log.error("生成预签名url失败: " + e.getMessage());
+        }
+        return null;
+    }
+    /****************************************/
+
+    /********************* 打包操作 **********/
+    /**
+     * 小文件打包上传：多个小文件依次写入一个打包对象，末尾附带索引，一次上传代替每个文件一次上传
+     * 条目名称为文件的原始文件名，之后可以用pack://打包对象名#条目名称作为对象名下载单个文件
+     *
+     * @param bucketName 桶名
+     * @param objectName 打包对象名
+     * @param files      小文件
+     * @return 写入的条目，失败时返回null
+     */
+    public List<PackEntry> uploadPack(String bucketName, String objectName, List<MultipartFile> files) {
+        try (PackWriter writer = new PackWriter()) {
+            for (MultipartFile file : files) {
+                try (InputStream inputStream = file.getInputStream()) {
+                    writer.add(file.getOriginalFilename(), inputStream);
                 }
             }
+            Path path = writer.finish();
+            Map<String, String> userMetadata = new HashMap<>();
+            userMetadata.put("Pack-Entries", String.valueOf(writer.getEntryCount()));
+            if (!uploadFile(bucketName, objectName, path.toString(), MIN_PART_SIZE, userMetadata, false)) {
+                return null;
+            }
+            packReader.invalidate(bucketName, objectName);
+            log.info("打包上传{}成功，共{}个文件", objectName, writer.getEntryCount());
+            return new ArrayList<>(writer.getEntries());
         } catch (Exception e) {
-            log.error("下载文件时发生错误: " + e.getMessage(), e);
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            log.error("打包上传时发生错误: " + e.getMessage());
         }
+        return null;
+    }
+
+    /**
+     * 打包对象中的全部条目
+     *
+     * @return 条目列表，失败时返回空列表
+     */
+    public List<PackEntry> listPackEntries(String bucketName, String objectName) {
+        try {
+            return packReader.listEntries(bucketName, objectName);
+        } catch (Exception e) {
+            log.error("读取打包索引时发生错误: " + e.getMessage());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * 打开对象的随机读取通道，按需发起区间GET，不下载整个对象，适合读取zip中央目录、parquet文件尾等
+     * 通道自带块缓存和顺序预读，newInputStream()可得到支持skip和mark的输入流，用完需关闭
+     *
+     * @return 读取通道，对象不存在或查询失败时返回null
+     */
+    public RemoteObjectChannel openChannel(String bucketName, String objectName) {
+        try {
+            return new RemoteObjectChannel(this, bucketName, objectName);
+        } catch (Exception e) {
+            log.error("打开读取通道时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public ObjectStat stat(String bucketName, String objectName) {
+        HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectName)
+                .build());
+        return new ObjectStat(head.contentLength(), StrUtil.unWrap(head.eTag(), '"'),
+                head.lastModified() == null ? null : head.lastModified().toEpochMilli(), head.metadata());
+    }
+
+    @Override
+    public InputStream openRange(String bucketName, String objectName, long offset, long length, String etag) {
+        GetObjectRequest.Builder builder = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectName)
+                .range("bytes=" + offset + "-" + (offset + length - 1));
+        if (etag != null) {
+            builder.ifMatch("\"" + etag + "\"");
+        }
+        return s3Client.getObject(builder.build());
+    }
+
+    @Override
+    public long firstPartSize(String bucketName, String objectName) {
+        return s3Client.headObject(HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectName)
+                .partNumber(1)
+                .build()).contentLength();
+    }
+    /****************************************/
+
+    /********************* 目录操作 **********/
+    /**
+     * 上传本地目录到前缀下，多个文件并发上传，大于partSize的文件再按分片并发上传
+     * 每个文件先计算md5，File-Md5和Content-MD5随上传请求一起写入，小文件只需要一次请求
+     *
+     * @param bucketName 桶名
+     * @param prefix     对象名前缀
+     * @param directory  本地目录
+     * @param partSize   分片大小
+     * @param taskNum    同时上传的文件数
+     * @return 每个文件的上传结果和吞吐量
+     */
+    public DirectoryTransferResult uploadDirectory(String bucketName, String prefix, String directory, Long partSize, Integer taskNum, Map<String, String> userMetadata) {
+        try {
+            return DirectoryTransfer.upload(Paths.get(directory), prefix, taskNum,
+                    (path, objectName, size) -> uploadFile(bucketName, objectName, path.toString(), partSize, new HashMap<>(userMetadata), true));
+        } catch (Exception e) {
+            log.error("上传目录时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+    public DirectoryTransferResult uploadDirectory(String bucketName, String prefix, String directory) {
+        return uploadDirectory(bucketName, prefix, directory, 5 * 1024 * 1024L, TransferExecutor.DEFAULT_TASK_NUM, new HashMap<>());
+    }
+
+    /**
+     * 下载前缀下的所有对象到本地目录，分页列出对象，边列边并发下载
+     *
+     * @param bucketName 桶名
+     * @param prefix     对象名前缀
+     * @param directory  本地目录
+     * @param override   是否覆盖本地已有文件
+     * @param taskNum    同时下载的文件数
+     * @return 每个文件的下载结果和吞吐量
+     */
+    public DirectoryTransferResult downloadDirectory(String bucketName, String prefix, String directory, Boolean override, Integer taskNum) {
+        try {
+            Iterable<S3Object> contents = s3Client.listObjectsV2Paginator(ListObjectsV2Request.builder()
+                    .bucket(bucketName)
+                    .prefix(prefix)
+                    .build()).contents();
+            Iterable<DirectoryTransfer.RemoteFile> objects = () -> StreamSupport.stream(contents.spliterator(), false)
+                    .map(item -> new DirectoryTransfer.RemoteFile(item.key(), item.size()))
+                    .iterator();
+            return DirectoryTransfer.download(objects, prefix, Paths.get(directory), override, taskNum,
+                    (path, objectName, size) -> downloadFile(path.toString(), bucketName, objectName, true));
+        } catch (Exception e) {
+            log.error("下载目录时发生错误: " + e.getMessage());
+        }
+        return null;
+    }
+    public DirectoryTransferResult downloadDirectory(String bucketName, String prefix, String directory) {
+        return downloadDirectory(bucketName, prefix, directory, false, TransferExecutor.DEFAULT_TASK_NUM);
     }
     /****************************************/
 }
@@ -0,0 +1,512 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.StrUtil;
+import com.yuanshuai.domain.ObjectStat;
+import com.yuanshuai.interfaces.RangeSource;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并同一对象的并发读取，包装对象的区间读取方式：
+ * 只有一个读取方时直接读对象存储，同一桶名、对象名、etag和区间的第二个请求到达时才开始合并，
+ * 由后台线程发起一次GET边下载边写入本地临时文件，之后到达的请求都从临时文件中读取已下载的部分，
+ * 追上下载进度时等待，堆内存占用与请求数无关
+ * <p>
+ * 并发查询同一对象的信息时也只发起一次HEAD；未指定etag的读取无法保证内容一致，不合并
+ * 所有读取方都关闭后未下载完成的GET被取消，临时文件在下载结束且没有读取方后删除
+ * 区间长度超过单次合并的上限、临时文件总大小或同时进行的合并下载数达到上限时，新的请求直接读对象存储
+ * 本地缓存自身会合并同一对象的填充，不应以此作为缓存的数据来源
+ */
+@Slf4j
+public class SingleFlightSource implements RangeSource {
+
+    /** 默认同时进行的合并下载数 */
+    public static final int DEFAULT_MAX_FLIGHTS = 64;
+
+    /** 默认单次合并下载的区间长度上限 */
+    public static final long DEFAULT_MAX_FLIGHT_BYTES = 64 * 1024 * 1024L;
+
+    /** 默认全部合并下载的临时文件总大小上限 */
+    public static final long DEFAULT_MAX_SPOOL_BYTES = 1024 * 1024 * 1024L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final RangeSource source;
+
+    private final ThreadPoolExecutor fetchExecutor;
+
+    private final long maxFlightBytes;
+
+    private final long maxSpoolBytes;
+
+    /** 正在进行的合并下载按区间长度预留的临时文件大小 */
+    private final AtomicLong spoolBytes = new AtomicLong();
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, CompletableFuture<ObjectStat>> stats = new ConcurrentHashMap<>();
+
+    public SingleFlightSource(RangeSource source) {
+        this(source, DEFAULT_MAX_FLIGHTS, DEFAULT_MAX_FLIGHT_BYTES, DEFAULT_MAX_SPOOL_BYTES);
+    }
+
+    /**
+     * @param source         对象的区间读取方式，通常是存储工具本身
+     * @param maxFlights     同时进行的合并下载数上限
+     * @param maxFlightBytes 单次合并下载的区间长度上限，更长的区间直接读对象存储
+     * @param maxSpoolBytes  全部合并下载的临时文件总大小上限
+     */
+    public SingleFlightSource(RangeSource source, int maxFlights, long maxFlightBytes, long maxSpoolBytes) {
+        if (maxFlights < 1) {
+            throw new IllegalArgumentException("合并下载数不能小于1");
+        }
+        if (maxFlightBytes < 0 || maxSpoolBytes < 0) {
+            throw new IllegalArgumentException("临时文件大小上限不能小于0");
+        }
+        this.source = source;
+        this.maxFlightBytes = maxFlightBytes;
+        this.maxSpoolBytes = maxSpoolBytes;
+        this.fetchExecutor = new ThreadPoolExecutor(0, maxFlights, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new NamedThreadFactory("single-flight-", true));
+    }
+
+    /**
+     * 查询对象信息，同一对象的并发查询共享一次HEAD的结果
+     */
+    @Override
+    public ObjectStat stat(String bucketName, String objectName) throws Exception {
+        String key = StrUtil.nullToEmpty(bucketName) + "/" + objectName;
+        CompletableFuture<ObjectStat> future = new CompletableFuture<>();
+        CompletableFuture<ObjectStat> existing = stats.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        try {
+            ObjectStat stat = source.stat(bucketName, objectName);
+            future.complete(stat);
+            return stat;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            stats.remove(key, future);
+        }
+    }
+
+    /**
+     * 读取对象的一个区间：没有相同的读取时直接读对象存储，已有一个直接读取时发起合并下载，
+     * 合并下载正在进行时加入该下载
+     */
+    @Override
+    public InputStream openRange(String bucketName, String objectName, long offset, long length, String etag) throws Exception {
+        if (etag == null || length > maxFlightBytes) {
+            return source.openRange(bucketName, objectName, offset, length, etag);
+        }
+        String key = StrUtil.nullToEmpty(bucketName) + "/" + objectName + "#" + etag + "#" + offset + "-" + length;
+        Flight[] joined = new Flight[1];
+        boolean[] direct = new boolean[1];
+        boolean[] started = new boolean[1];
+        flights.compute(key, (k, existing) -> {
+            if (existing != null) {
+                if (existing.join()) {
+                    joined[0] = existing;
+                    return existing;
+                }
+                if (existing.spool()) {
+                    joined[0] = existing;
+                    started[0] = true;
+                    return existing;
+                }
+                if (!existing.isSpooled()) {
+                    // 临时文件总大小已达上限，不登记地直接读取
+                    return existing;
+                }
+            }
+            Flight flight = new Flight(k, bucketName, objectName, offset, length, etag);
+            joined[0] = flight;
+            direct[0] = true;
+            return flight;
+        });
+        Flight flight = joined[0];
+        if (flight == null) {
+            return source.openRange(bucketName, objectName, offset, length, etag);
+        }
+        if (direct[0]) {
+            return flight.openDirect();
+        }
+        if (started[0]) {
+            try {
+                flight.start();
+            } catch (IOException | RejectedExecutionException e) {
+                flights.remove(key, flight);
+                log.debug("合并下载未启动，直接读取{}: {}", objectName, e.getMessage());
+            }
+        }
+        InputStream reader = flight.newReader();
+        return reader != null ? reader : source.openRange(bucketName, objectName, offset, length, etag);
+    }
+
+    @Override
+    public long firstPartSize(String bucketName, String objectName) throws Exception {
+        return source.firstPartSize(bucketName, objectName);
+    }
+
+    /**
+     * 正在进行的区间读取数，包括只有一个直接读取方的
+     */
+    public int getFlightCount() {
+        return flights.size();
+    }
+
+    /**
+     * 同一区间的读取：最初只有直接读取方，第二个读取方到达时转为合并下载，
+     * 下载进度、读取方数和结束状态由this锁保护
+     */
+    private class Flight {
+
+        private final String key;
+
+        private final String bucketName;
+
+        private final String objectName;
+
+        private final long offset;
+
+        private final long length;
+
+        private final String etag;
+
+        private Path path;
+
+        /** 已转为合并下载，临时文件大小已预留 */
+        private boolean spooled;
+
+        /** 预留的临时文件大小已归还，临时文件已删除 */
+        private boolean deleted;
+
+        /** 直接读对象存储的读取方数 */
+        private int directReaders = 1;
+
+        /** 已写入临时文件的字节数 */
+        private long written;
+
+        /** 后台下载已提交 */
+        private boolean launched;
+
+        /** 临时文件创建或后台下载提交失败，读取方改为直接读对象存储 */
+        private boolean startFailed;
+
+        private boolean done;
+
+        private Exception error;
+
+        /** 加入合并下载的读取方数，包括还未打开读取流的 */
+        private int readers;
+
+        private Flight(String key, String bucketName, String objectName, long offset, long length, String etag) {
+            this.key = key;
+            this.bucketName = bucketName;
+            this.objectName = objectName;
+            this.offset = offset;
+            this.length = length;
+            this.etag = etag;
+        }
+
+        private synchronized boolean isSpooled() {
+            return spooled;
+        }
+
+        private synchronized boolean join() {
+            if (!spooled || done || readers == 0) {
+                return false;
+            }
+            readers++;
+            return true;
+        }
+
+        /**
+         * 第二个读取方到达时转为合并下载，在flights的compute中调用
+         *
+         * @return 临时文件总大小已达上限或已转为合并下载时返回false
+         */
+        private synchronized boolean spool() {
+            if (spooled) {
+                return false;
+            }
+            if (spoolBytes.addAndGet(length) > maxSpoolBytes) {
+                spoolBytes.addAndGet(-length);
+                return false;
+            }
+            spooled = true;
+            readers = 1;
+            return true;
+        }
+
+        /**
+         * 直接读对象存储，关闭时登记的读取结束
+         */
+        private InputStream openDirect() throws Exception {
+            InputStream inputStream;
+            try {
+                inputStream = source.openRange(bucketName, objectName, offset, length, etag);
+            } catch (Exception e) {
+                releaseDirect();
+                throw e;
+            }
+            return new FilterInputStream(inputStream) {
+
+                private boolean closed;
+
+                @Override
+                public synchronized void close() throws IOException {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        releaseDirect();
+                    }
+                }
+            };
+        }
+
+        private void releaseDirect() {
+            // 与openRange的compute互斥，避免最后一个直接读取方结束后仍有请求转为合并下载
+            flights.computeIfPresent(key, (k, current) -> {
+                synchronized (this) {
+                    directReaders--;
+                    return current == this && directReaders == 0 && !spooled ? null : current;
+                }
+            });
+        }
+
+        private void start() throws IOException {
+            try {
+                Path tempFile = Files.createTempFile("storage-flight-", ".tmp");
+                synchronized (this) {
+                    path = tempFile;
+                }
+                fetchExecutor.execute(this::fetch);
+            } catch (IOException | RejectedExecutionException e) {
+                synchronized (this) {
+                    startFailed = true;
+                    done = true;
+                    error = e;
+                    notifyAll();
+                }
+                deleteQuietly();
+                throw e;
+            }
+            synchronized (this) {
+                launched = true;
+                notifyAll();
+            }
+        }
+
+        private void fetch() {
+            try (InputStream inputStream = source.openRange(bucketName, objectName, offset, length, etag);
+                 FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+                    synchronized (this) {
+                        written += read;
+                        notifyAll();
+                        if (readers == 0) {
+                            // 读取方都已关闭，不再继续下载
+                            break;
+                        }
+                    }
+                }
+                synchronized (this) {
+                    if (readers > 0 && written != length) {
+                        throw new IOException("下载的大小与区间长度不一致: " + written + "/" + length);
+                    }
+                }
+                finish(null);
+            } catch (Exception e) {
+                log.warn("合并下载{}失败: {}", objectName, e.getMessage());
+                finish(e);
+            }
+        }
+
+        private void finish(Exception e) {
+            flights.remove(key, this);
+            boolean unused;
+            synchronized (this) {
+                error = e;
+                done = true;
+                unused = readers == 0;
+                notifyAll();
+            }
+            if (unused) {
+                deleteQuietly();
+            }
+        }
+
+        /**
+         * 打开一个读取流，等待后台下载提交
+         *
+         * @return 下载未能启动时返回null，由调用方直接读对象存储
+         */
+        private InputStream newReader() throws IOException {
+            synchronized (this) {
+                while (!launched && !startFailed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        readers--;
+                        throw new InterruptedIOException("等待合并下载时被中断");
+                    }
+                }
+                if (startFailed) {
+                    return null;
+                }
+            }
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (IOException e) {
+                release();
+                throw e;
+            }
+            return new FlightInputStream(this, channel);
+        }
+
+        /**
+         * 等待position之后有可读的内容
+         *
+         * @return 可读的字节数，读完时返回-1
+         */
+        private synchronized long await(long position) throws IOException {
+            while (written <= position && !done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("等待合并下载时被中断");
+                }
+            }
+            if (written > position) {
+                return written - position;
+            }
+            if (error != null) {
+                throw new IOException("合并下载失败: " + error.getMessage(), error);
+            }
+            return -1;
+        }
+
+        private void release() {
+            boolean unused;
+            synchronized (this) {
+                readers--;
+                unused = readers == 0 && done;
+            }
+            if (unused) {
+                deleteQuietly();
+            }
+        }
+
+        private void deleteQuietly() {
+            synchronized (this) {
+                if (deleted) {
+                    return;
+                }
+                deleted = true;
+            }
+            spoolBytes.addAndGet(-length);
+            if (path == null) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("删除合并下载的临时文件{}失败: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 读取一次合并下载的临时文件，追上下载进度时等待
+     */
+    private static class FlightInputStream extends InputStream {
+
+        private final Flight flight;
+
+        private final FileChannel channel;
+
+        private long position;
+
+        private boolean closed;
+
+        private FlightInputStream(Flight flight, FileChannel channel) {
+            this.flight = flight;
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long available = flight.await(position);
+            if (available < 0) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available)), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                channel.close();
+            } finally {
+                flight.release();
+            }
+        }
+    }
+}
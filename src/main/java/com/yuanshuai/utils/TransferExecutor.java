@@ -0,0 +1,76 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.*;
+
+/**
+ * 有界并发的传输线程池，同时执行的任务数不超过parallelism，超出时提交方阻塞等待
+ * 解释：分片、文件等传输任务数量可能很大，阻塞提交避免任务堆积在队列中占用内存
+ */
+public class TransferExecutor implements Closeable {
+
+    public static final int DEFAULT_TASK_NUM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private final ExecutorService executor;
+
+    private final Semaphore permits;
+
+    private final int parallelism;
+
+    public TransferExecutor(String namePrefix, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("并发数不能小于1");
+        }
+        this.parallelism = parallelism;
+        this.permits = new Semaphore(parallelism);
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory(namePrefix, true));
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    public TransferExecutor(String namePrefix) {
+        this(namePrefix, DEFAULT_TASK_NUM);
+    }
+
+    /**
+     * 提交任务，已有parallelism个任务在执行时阻塞
+     * 注意：不要在本线程池的任务中再向同一个线程池提交任务并等待结果，否则会互相等待
+     */
+    public <T> Future<T> submit(Callable<T> task) throws InterruptedException {
+        permits.acquire();
+        FutureTask<T> future = new PermitTask<>(task);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+        return future;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 任务结束时归还许可，执行前被取消的任务不会运行，也由done()归还
+     */
+    private class PermitTask<T> extends FutureTask<T> {
+
+        private PermitTask(Callable<T> task) {
+            super(task);
+        }
+
+        @Override
+        protected void done() {
+            permits.release();
+        }
+    }
+}
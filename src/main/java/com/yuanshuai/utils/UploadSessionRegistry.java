@@ -0,0 +1,221 @@
+package com.yuanshuai.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.yuanshuai.domain.UploadSession;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片上传会话登记表，记录进行中的上传会话和已上传的分片，保存在本地文件中，重启后仍可续传
+ * 续传时直接从登记表读取已上传分片，不再向服务端查询；超过有效期未更新的会话由定时清理任务
+ * 取消分片上传或删除临时分片对象
+ * 已上传的分片按会话id和分片序号单独保存在.parts文件中，记录一个分片只追加一行，日志大小与分片数成正比
+ */
+@Slf4j
+public class UploadSessionRegistry implements Closeable {
+
+    /** 原生分片上传会话 */
+    public static final String TYPE_MULTIPART = "multipart";
+
+    /** 临时分片对象合并会话 */
+    public static final String TYPE_TMP_PARTS = "tmpParts";
+
+    /** 清理任务的最长执行间隔 */
+    private static final long MAX_REAP_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * 会话清理操作，返回true表示服务端已清理，会话从登记表中删除
+     */
+    @FunctionalInterface
+    public interface SessionCleaner {
+        boolean clean(UploadSession session) throws Exception;
+    }
+
+    /** 分片记录键中会话id与分片序号的分隔符 */
+    private static final char PART_SEPARATOR = '#';
+
+    /** 会话信息，不含分片 */
+    private final LocalKvStore<UploadSession> store;
+
+    /** 已上传的分片，会话id#分片序号 -> etag或分片md5 */
+    private final LocalKvStore<String> partStore;
+
+    /** 按会话归组的分片记录，打开时由partStore重建 */
+    private final Map<String, Map<String, String>> sessionParts = new ConcurrentHashMap<>();
+
+    private final long ttlMillis;
+
+    private ScheduledExecutorService reaper;
+
+    private UploadSessionRegistry(LocalKvStore<UploadSession> store, LocalKvStore<String> partStore, long ttlMillis) {
+        this.store = store;
+        this.partStore = partStore;
+        this.ttlMillis = ttlMillis;
+        partStore.forEach((key, value) -> {
+            int index = key.lastIndexOf(PART_SEPARATOR);
+            if (index > 0) {
+                sessionParts.computeIfAbsent(key.substring(0, index), k -> new ConcurrentHashMap<>())
+                        .put(key.substring(index + 1), value);
+            }
+        });
+        // 旧版本的分片记录保存在会话中，迁移到分片文件
+        store.forEach((uploadId, session) -> {
+            if (session.getParts() != null && !session.getParts().isEmpty()) {
+                session.getParts().forEach((partNumber, value) -> putPart(uploadId, partNumber, value));
+                session.setParts(new HashMap<>());
+                store.put(uploadId, session);
+            }
+        });
+    }
+
+    /**
+     * @param path      登记表文件路径
+     * @param ttlMillis 会话有效期，毫秒，从最后一次上传分片开始计算
+     */
+    public static UploadSessionRegistry open(String path, long ttlMillis) throws IOException {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("会话有效期必须大于0");
+        }
+        LocalKvStore<UploadSession> store = new LocalKvStore<>(path, UploadSession.class);
+        LocalKvStore<String> partStore;
+        try {
+            partStore = new LocalKvStore<>(path + ".parts", String.class);
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+        return new UploadSessionRegistry(store, partStore, ttlMillis);
+    }
+
+    /**
+     * 登记新的上传会话，已存在时保留原有分片记录
+     */
+    public synchronized UploadSession register(String uploadId, String type, String bucketName, String objectName, String tmpPath) {
+        UploadSession session = store.get(uploadId);
+        if (session != null) {
+            return session;
+        }
+        long now = System.currentTimeMillis();
+        session = new UploadSession(uploadId, type, bucketName, objectName, tmpPath, new HashMap<>(), now, now);
+        store.put(uploadId, session);
+        return session;
+    }
+
+    public UploadSession get(String uploadId) {
+        return uploadId == null ? null : store.get(uploadId);
+    }
+
+    /**
+     * 已上传的分片，会话不存在时为null
+     */
+    public synchronized Map<String, String> getParts(String uploadId) {
+        UploadSession session = get(uploadId);
+        if (session == null) {
+            return null;
+        }
+        Map<String, String> parts = sessionParts.get(uploadId);
+        return parts == null ? new HashMap<>() : new HashMap<>(parts);
+    }
+
+    /**
+     * 记录分片上传成功，会话不存在时忽略
+     *
+     * @param value etag或分片md5
+     */
+    public synchronized void recordPart(String uploadId, int partNumber, String value) {
+        UploadSession session = get(uploadId);
+        if (session == null) {
+            return;
+        }
+        putPart(uploadId, String.valueOf(partNumber), value);
+        session.setUpdateTime(System.currentTimeMillis());
+        store.put(uploadId, session);
+    }
+
+    public synchronized void remove(String uploadId) {
+        if (uploadId != null) {
+            store.remove(uploadId);
+            Map<String, String> parts = sessionParts.remove(uploadId);
+            if (parts != null) {
+                parts.keySet().forEach(partNumber -> partStore.remove(uploadId + PART_SEPARATOR + partNumber));
+            }
+        }
+    }
+
+    private void putPart(String uploadId, String partNumber, String value) {
+        sessionParts.computeIfAbsent(uploadId, k -> new ConcurrentHashMap<>()).put(partNumber, value);
+        partStore.put(uploadId + PART_SEPARATOR + partNumber, value);
+    }
+
+    /**
+     * 超过有效期未更新的会话
+     */
+    public List<UploadSession> listExpired() {
+        long deadline = System.currentTimeMillis() - ttlMillis;
+        List<UploadSession> expired = new ArrayList<>();
+        store.forEach((uploadId, session) -> {
+            if (session.getUpdateTime() == null || session.getUpdateTime() < deadline) {
+                expired.add(session);
+            }
+        });
+        return expired;
+    }
+
+    /**
+     * 启动定时清理任务，重复调用时只保留第一次的清理操作
+     */
+    public synchronized void startReaper(SessionCleaner cleaner) {
+        if (reaper != null) {
+            return;
+        }
+        long interval = Math.min(ttlMillis, MAX_REAP_INTERVAL);
+        reaper = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("upload-session-reaper-", true));
+        reaper.scheduleWithFixedDelay(() -> reap(cleaner), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 清理一次过期会话，清理失败的会话保留到下一次
+     *
+     * @return 清理的会话数
+     */
+    public int reap(SessionCleaner cleaner) {
+        int count = 0;
+        for (UploadSession session : listExpired()) {
+            try {
+                if (cleaner.clean(session)) {
+                    remove(session.getUploadId());
+                    count++;
+                    log.info("已清理过期的上传会话{}，{}/{}", session.getUploadId(), session.getBucketName(), session.getObjectName());
+                }
+            } catch (Exception e) {
+                log.error("清理上传会话{}时发生错误: {}", session.getUploadId(), e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (reaper != null) {
+                reaper.shutdownNow();
+                reaper = null;
+            }
+        }
+        try {
+            store.close();
+        } finally {
+            partStore.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.yuanshuai.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * 远程文件源：只建立一次连接，长度、类型和内容都取自同一个响应
+ * 需要md5时由调用方包装为HashingInputStream边读边计算，无需再次下载
+ */
+public class UrlSource implements Closeable {
+
+    /** 默认连接超时，毫秒 */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+
+    /** 默认读取超时，毫秒 */
+    public static final int DEFAULT_READ_TIMEOUT = 60 * 1000;
+
+    private final HttpURLConnection connection;
+
+    private final InputStream inputStream;
+
+    private UrlSource(HttpURLConnection connection, InputStream inputStream) {
+        this.connection = connection;
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * 打开远程文件
+     *
+     * @param fileUrl        文件URL
+     * @param connectTimeout 连接超时，毫秒
+     * @param readTimeout    读取超时，毫秒
+     */
+    public static UrlSource open(String fileUrl, int connectTimeout, int readTimeout) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(fileUrl).openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        try {
+            int code = connection.getResponseCode();
+            if (code >= 400) {
+                throw new IOException("获取远程文件失败，响应码: " + code);
+            }
+            return new UrlSource(connection, connection.getInputStream());
+        } catch (IOException | RuntimeException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    public static UrlSource open(String fileUrl) throws IOException {
+        return open(fileUrl, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @return 响应的Content-Length，未知时为-1
+     */
+    public long getContentLength() {
+        return connection.getContentLengthLong();
+    }
+
+    /**
+     * @return 响应的Content-Type，未知时为application/octet-stream
+     */
+    public String getContentType() {
+        String contentType = connection.getContentType();
+        return contentType == null ? "application/octet-stream" : contentType;
+    }
+
+    /**
+     * 内容流，只能读取一次
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            inputStream.close();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}